@@ -0,0 +1,277 @@
+package flynn.pro.mrz;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Copies the files of an asset folder into a directory, once per installed version of the app.
+ *
+ * Every file is written under a temporary name and renamed into place, so a copy cut short by
+ * a crash or a full disk never looks complete. A manifest written last records the app version
+ * and the size and CRC-32 of every file; while the version matches and the files are all there
+ * at their sizes, nothing is read or copied again. When the version changes, a file whose size
+ * and checksum match the new asset is kept rather than copied; the asset is only read for its
+ * checksum when the sizes already match, and a copied file's checksum is taken while copying,
+ * so an update reads each asset once unless it changed without changing size.
+ */
+final class AssetExtractor {
+
+  interface Listener {
+    void onProgress(int percent);
+  }
+
+  private static final String TAG = AssetExtractor.class.getSimpleName();
+
+  private static final String MANIFEST = "assets.manifest";
+  private static final String KEY_VERSION = "version";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Context context;
+  private final String assetFolder;
+  private final File directory;
+
+  AssetExtractor(Context context, String assetFolder, File directory) {
+    this.context = context;
+    this.assetFolder = assetFolder;
+    this.directory = directory;
+  }
+
+  /**
+   * Copies the assets unless the manifest says this version is already in place. Returns
+   * whether anything was copied.
+   */
+  boolean extract(Listener listener) throws IOException {
+    String version = getVersion();
+    if (isCurrent(version)) {
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Couldn't make directory " + directory);
+    }
+    Properties previous = readManifest();
+    // Whatever is there is stale until the new manifest is in place
+    new File(directory, MANIFEST).delete();
+
+    AssetManager assets = context.getAssets();
+    String[] names = assets.list(assetFolder);
+    if (names == null || names.length == 0) {
+      throw new FileNotFoundException("No assets in " + assetFolder);
+    }
+    long[] lengths = new long[names.length];
+    long total = 0;
+    for (int i = 0; i < names.length; i++) {
+      lengths[i] = getLength(assets, assetFolder + "/" + names[i]);
+      total += Math.max(0, lengths[i]);
+    }
+
+    Properties manifest = new Properties();
+    manifest.setProperty(KEY_VERSION, version);
+    long done = 0;
+    int copied = 0;
+    for (int i = 0; i < names.length; i++) {
+      String name = assetFolder + "/" + names[i];
+      File file = new File(directory, names[i]);
+      String entry = previous != null ? previous.getProperty(names[i]) : null;
+      // Sizes rule most changes out without reading; a compressed asset's size is unknown
+      boolean sameSize = entry != null && file.length() == parseLength(entry)
+          && (lengths[i] < 0 || lengths[i] == file.length());
+      long checksum = sameSize ? checksum(assets, name) : -1;
+      long length;
+      if (sameSize && checksum == parseChecksum(entry)) {
+        // The update left this file as it was
+        length = file.length();
+        if (listener != null && total > 0) {
+          listener.onProgress((int) (100 * (done + Math.max(0, lengths[i])) / total));
+        }
+      } else {
+        File temp = new File(directory, names[i] + TEMP_SUFFIX);
+        CRC32 crc = new CRC32();
+        length = copy(assets.open(name), temp, crc, listener, done, total);
+        if (!temp.renameTo(file)) {
+          temp.delete();
+          throw new IOException("Couldn't rename " + temp + " to " + file);
+        }
+        checksum = crc.getValue();
+        copied++;
+      }
+      manifest.setProperty(names[i], length + "," + Long.toHexString(checksum));
+      done += Math.max(0, lengths[i]);
+    }
+    writeManifest(manifest);
+    Log.i(TAG, "Extracted " + copied + " of " + names.length + " files from " + assetFolder
+        + " in " + (System.currentTimeMillis() - start) + " ms");
+    return true;
+  }
+
+  /**
+   * Forgets the extracted files, so the next {@link #extract} copies them again.
+   */
+  void invalidate() {
+    new File(directory, MANIFEST).delete();
+  }
+
+  private boolean isCurrent(String version) {
+    Properties manifest = readManifest();
+    if (manifest == null || !version.equals(manifest.getProperty(KEY_VERSION))) {
+      return false;
+    }
+    for (String name : manifest.stringPropertyNames()) {
+      if (name.equals(KEY_VERSION)) {
+        continue;
+      }
+      // The cache directory can be cleared behind our back, file by file
+      File file = new File(directory, name);
+      if (file.length() != parseLength(manifest.getProperty(name))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the size in a manifest entry, or -1 if the entry is unreadable.
+   */
+  private static long parseLength(String entry) {
+    int comma = entry.indexOf(',');
+    try {
+      return Long.parseLong(comma < 0 ? entry : entry.substring(0, comma));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the checksum in a manifest entry, or -1 if it has none.
+   */
+  private static long parseChecksum(String entry) {
+    int comma = entry.indexOf(',');
+    try {
+      return comma < 0 ? -1 : Long.parseLong(entry.substring(comma + 1), 16);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private Properties readManifest() {
+    File file = new File(directory, MANIFEST);
+    if (!file.exists()) {
+      return null;
+    }
+    Properties manifest = new Properties();
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        manifest.load(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      Log.w(TAG, "Ignoring unreadable " + file, e);
+      return null;
+    }
+    return manifest;
+  }
+
+  private void writeManifest(Properties manifest) throws IOException {
+    File file = new File(directory, MANIFEST);
+    File temp = new File(directory, MANIFEST + TEMP_SUFFIX);
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      manifest.store(out, null);
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(file)) {
+      temp.delete();
+      throw new IOException("Couldn't rename " + temp + " to " + file);
+    }
+  }
+
+  /**
+   * The installed app version; assets can only change when the APK does.
+   */
+  private String getVersion() throws IOException {
+    try {
+      PackageInfo info =
+          context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+      return info.versionCode + "-" + info.lastUpdateTime;
+    } catch (PackageManager.NameNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Returns the size of an asset stored uncompressed, or -1 for a compressed one.
+   */
+  private static long getLength(AssetManager assets, String name) throws IOException {
+    try {
+      AssetFileDescriptor descriptor = assets.openFd(name);
+      long length = descriptor.getLength();
+      descriptor.close();
+      return length;
+    } catch (FileNotFoundException e) {
+      return -1;
+    }
+  }
+
+  private static long checksum(AssetManager assets, String name) throws IOException {
+    InputStream in = assets.open(name);
+    try {
+      CRC32 crc = new CRC32();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        crc.update(buffer, 0, read);
+      }
+      return crc.getValue();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Copies a stream into a file through a large buffer, adding what it copies to crc.
+   */
+  private static long copy(InputStream in, File destination, CRC32 crc, Listener listener,
+                           long done, long total) throws IOException {
+    try {
+      FileOutputStream out = new FileOutputStream(destination);
+      try {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+          crc.update(buffer, 0, read);
+          copied += read;
+          if (listener != null && total > 0) {
+            listener.onProgress((int) (100 * Math.min(total, done + copied) / total));
+          }
+        }
+        out.getFD().sync();
+        return copied;
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+package flynn.pro.mrz;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import flynn.pro.mrz.batch.BatchResultWriter;
+import flynn.pro.mrz.batch.BatchResult;
+import flynn.pro.mrz.batch.BatchScanner;
+import flynn.pro.mrz.batch.VideoScanner;
+
+
+/**
+ * Scans the MRZ of every JPEG and PNG in a folder, or of a single image, and writes one result
+ * line per image. Images go through the same localizer, binarization, engine profile and
+ * check digits as camera frames, on engines of the service's own, so the capture screen can
+ * keep running.
+ *
+ * Started from a shell with
+ * <pre>
+ * adb shell am startservice -n flynn.pro.mrz/.BatchScanService \
+ *     --es input /sdcard/Pictures/ids --es output /sdcard/ids.csv --es format csv
+ * </pre>
+ * The output defaults to batch_results.csv in the app's external files directory.
+ *
+ * A recorded video as input, on Jelly Bean and later, is decoded frame by frame and scanned
+ * like the camera preview until its frames agree on an MRZ, giving a single result line.
+ */
+public class BatchScanService extends IntentService {
+
+  private static final String TAG = BatchScanService.class.getSimpleName();
+
+  public static final String EXTRA_INPUT = "input";
+  public static final String EXTRA_OUTPUT = "output";
+  public static final String EXTRA_FORMAT = "format";
+
+  private static final String DEFAULT_OUTPUT_NAME = "batch_results";
+  private static final String[] VIDEO_SUFFIXES = { ".mp4", ".3gp", ".mkv", ".webm" };
+
+  public BatchScanService() {
+    super("BatchScanService");
+  }
+
+  @Override
+  protected void onHandleIntent(Intent intent) {
+    String input = intent.getStringExtra(EXTRA_INPUT);
+    if (input == null) {
+      Log.e(TAG, "No " + EXTRA_INPUT + " given");
+      return;
+    }
+    String format = intent.getStringExtra(EXTRA_FORMAT);
+    if (format == null) {
+      format = BatchResultWriter.FORMAT_CSV;
+    }
+    String output = intent.getStringExtra(EXTRA_OUTPUT);
+    File outputFile = output != null ? new File(output)
+        : new File(getExternalFilesDir(null), DEFAULT_OUTPUT_NAME + "." + format);
+
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+    TessBaseAPI[] baseApis = null;
+    try {
+      File inputFile = new File(input);
+      baseApis = OcrEngineProvider.get(this).newEngines(
+          prefs.getString(PreferencesActivity.KEY_SOURCE_LANGUAGE_PREFERENCE,
+                          CaptureActivity.DEFAULT_SOURCE_LANGUAGE_CODE),
+          CaptureActivity.getOcrEngineMode(getResources(), prefs),
+          CaptureActivity.getDecodeWorkerCount(getResources(), prefs),
+          CaptureActivity.getOcrEngineProfile(getResources(), prefs));
+      List<TessTextRecognizer> recognizers = new ArrayList<>(baseApis.length);
+      for (TessBaseAPI baseApi : baseApis) {
+        recognizers.add(new TessTextRecognizer(baseApi));
+      }
+
+      long start = System.currentTimeMillis();
+      BatchResultWriter writer = BatchResultWriter.forFormat(format, new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8")));
+      try {
+        if (isVideo(inputFile)) {
+          scanVideo(inputFile, recognizers, writer);
+        } else {
+          List<File> images = BatchScanner.listImages(inputFile);
+          BatchScanner scanner = new BatchScanner(
+              new BitmapImageDecoder(BatchScanner.DEFAULT_MAX_IMAGE_DIMENSION), recognizers);
+          int valid = scanner.scan(images, writer);
+          Log.i(TAG, "Read " + valid + " of " + images.size() + " MRZs in "
+              + (System.currentTimeMillis() - start) + " ms, results in " + outputFile);
+        }
+      } finally {
+        writer.close();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      Log.e(TAG, "Batch scan of " + input + " failed", e);
+    } catch (InterruptedException e) {
+      Log.w(TAG, "Batch scan of " + input + " interrupted", e);
+    } finally {
+      if (baseApis != null) {
+        for (TessBaseAPI baseApi : baseApis) {
+          baseApi.end();
+        }
+      }
+    }
+  }
+
+  private static boolean isVideo(File file) {
+    String name = file.getName().toLowerCase(Locale.US);
+    for (String suffix : VIDEO_SUFFIXES) {
+      if (file.isFile() && name.endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void scanVideo(File file, List<TessTextRecognizer> recognizers,
+                                BatchResultWriter writer) throws IOException, InterruptedException {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      throw new IOException("Decoding video needs Android 4.1");
+    }
+    VideoScanner scanner = new VideoScanner(recognizers, VideoScanner.DEFAULT_FRAME_STRIDE);
+    BatchResult result;
+    MediaCodecFrameSource source = new MediaCodecFrameSource(file);
+    try {
+      result = scanner.scan(file, source);
+    } finally {
+      source.close();
+    }
+    writer.write(result);
+    Log.i(TAG, file + ": " + result.getStatus() + ", " + scanner.getSummary());
+  }
+
+}
@@ -0,0 +1,62 @@
+package flynn.pro.mrz;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import flynn.pro.mrz.batch.ImageDecoder;
+
+
+/**
+ * Decodes image files with {@link BitmapFactory}, letting it subsample large photos while it
+ * decodes so a full-size bitmap is never allocated.
+ */
+final class BitmapImageDecoder implements ImageDecoder {
+
+  private final int maxDimension;
+
+  BitmapImageDecoder(int maxDimension) {
+    this.maxDimension = maxDimension;
+  }
+
+  @Override
+  public LuminanceSource decode(File file) throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(file.getPath(), options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      throw new IOException("Not an image: " + file);
+    }
+    int sampleSize = 1;
+    while (Math.max(options.outWidth, options.outHeight) / sampleSize > maxDimension) {
+      sampleSize *= 2;
+    }
+    options = new BitmapFactory.Options();
+    options.inSampleSize = sampleSize;
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+    if (bitmap == null) {
+      throw new IOException("Couldn't decode " + file);
+    }
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    byte[] luminance = new byte[width * height];
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      bitmap.getPixels(row, 0, width, 0, y, width, 1);
+      for (int x = 0; x < width; x++) {
+        int pixel = row[x];
+        // Rec. 601 luma in 8 bit fixed point
+        luminance[y * width + x] = (byte) ((77 * ((pixel >> 16) & 0xff)
+            + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff)) >> 8);
+      }
+    }
+    bitmap.recycle();
+    return new ByteBufferLuminanceSource(ByteBuffer.wrap(luminance), width, 1, width, height,
+        0, 0, width, height, false);
+  }
+
+}
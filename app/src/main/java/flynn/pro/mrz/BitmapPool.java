@@ -0,0 +1,126 @@
+package flynn.pro.mrz;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Process-wide pool of the ARGB_8888 bitmaps and pixel arrays that results are rendered into,
+ * keyed by exact size the way BitmapFactory's inBitmap needed before KitKat. Renders of a
+ * steady framing rectangle come back the same size, so after the first few they reuse what the
+ * results before them released instead of allocating. Whoever acquires an object owns it until
+ * releasing it, and must not touch it afterwards.
+ *
+ * The pool holds at most {@link #MAX_POOLED_BYTES}, dropping the oldest objects beyond that.
+ * Thread safe.
+ */
+final class BitmapPool {
+
+  static final long MAX_POOLED_BYTES = 4L * 1024L * 1024L;
+
+  private static final BitmapPool INSTANCE = new BitmapPool();
+
+  private final List<Bitmap> bitmaps = new ArrayList<>();
+  private final List<int[]> intArrays = new ArrayList<>();
+  private final List<byte[]> byteArrays = new ArrayList<>();
+  private long pooledBytes;
+
+  private BitmapPool() {
+  }
+
+  static BitmapPool get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns a mutable width x height ARGB_8888 bitmap, with whatever pixels it had last.
+   */
+  synchronized Bitmap acquireBitmap(int width, int height) {
+    for (int i = bitmaps.size() - 1; i >= 0; i--) {
+      Bitmap bitmap = bitmaps.get(i);
+      if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+        bitmaps.remove(i);
+        pooledBytes -= byteCount(bitmap);
+        return bitmap;
+      }
+    }
+    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  synchronized void release(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable()
+        || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+      return;
+    }
+    bitmaps.add(bitmap);
+    pooledBytes += byteCount(bitmap);
+    trim();
+  }
+
+  synchronized int[] acquireInts(int length) {
+    for (int i = intArrays.size() - 1; i >= 0; i--) {
+      if (intArrays.get(i).length == length) {
+        pooledBytes -= 4L * length;
+        return intArrays.remove(i);
+      }
+    }
+    return new int[length];
+  }
+
+  synchronized void release(int[] array) {
+    intArrays.add(array);
+    pooledBytes += 4L * array.length;
+    trim();
+  }
+
+  synchronized byte[] acquireBytes(int length) {
+    for (int i = byteArrays.size() - 1; i >= 0; i--) {
+      if (byteArrays.get(i).length == length) {
+        pooledBytes -= length;
+        return byteArrays.remove(i);
+      }
+    }
+    return new byte[length];
+  }
+
+  synchronized void release(byte[] array) {
+    byteArrays.add(array);
+    pooledBytes += array.length;
+    trim();
+  }
+
+  /**
+   * Drops everything pooled, for when the app is asked to trim memory.
+   */
+  synchronized void clear() {
+    for (Bitmap bitmap : bitmaps) {
+      bitmap.recycle();
+    }
+    bitmaps.clear();
+    intArrays.clear();
+    byteArrays.clear();
+    pooledBytes = 0L;
+  }
+
+  private void trim() {
+    // Arrays are cheap to allocate again, so they go before any bitmap
+    while (pooledBytes > MAX_POOLED_BYTES && !byteArrays.isEmpty()) {
+      pooledBytes -= byteArrays.remove(0).length;
+    }
+    while (pooledBytes > MAX_POOLED_BYTES && !intArrays.isEmpty()) {
+      pooledBytes -= 4L * intArrays.remove(0).length;
+    }
+    while (pooledBytes > MAX_POOLED_BYTES && !bitmaps.isEmpty()) {
+      Bitmap bitmap = bitmaps.remove(0);
+      pooledBytes -= byteCount(bitmap);
+      bitmap.recycle();
+    }
+  }
+
+  private static long byteCount(Bitmap bitmap) {
+    return (long) bitmap.getRowBytes() * bitmap.getHeight();
+  }
+
+}
@@ -0,0 +1,280 @@
+package flynn.pro.mrz;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Luminance read in place from a heap or direct {@link ByteBuffer} laid out with a row stride
+ * and a pixel stride: the front of an NV21 preview buffer, or a camera2 YUV_420_888 plane whose
+ * rows are padded or whose samples are interleaved. Crops and rotations are views on the same
+ * buffer, and nothing is copied until a row or the matrix is asked for; mirroring and rotation
+ * happen during that copy, so the buffer is never written.
+ */
+public final class ByteBufferLuminanceSource extends LuminanceSource {
+
+  // Rotated copies walk the buffer in square tiles so the rows they read stay in cache
+  private static final int TILE_SIZE = 16;
+
+  private final ByteBuffer buffer;
+  private final int rowStride;
+  private final int pixelStride;
+  private final int dataWidth;
+  private final int dataHeight;
+  private final int left;
+  private final int top;
+  private final int cropWidth;
+  private final int cropHeight;
+  private final boolean reverseHorizontal;
+  private final int quarterTurns;
+  // Buffer index of output pixel (0, 0), and how far one step right or down moves in the buffer
+  private final int origin;
+  private final int stepX;
+  private final int stepY;
+
+  public ByteBufferLuminanceSource(ByteBuffer buffer,
+                                   int rowStride,
+                                   int pixelStride,
+                                   int dataWidth,
+                                   int dataHeight,
+                                   int left,
+                                   int top,
+                                   int width,
+                                   int height,
+                                   boolean reverseHorizontal) {
+    // A private view, so reading never moves the position other holders of the buffer see
+    this(buffer.duplicate(), rowStride, pixelStride, dataWidth, dataHeight, left, top, width,
+        height, reverseHorizontal, 0);
+  }
+
+  private ByteBufferLuminanceSource(ByteBuffer buffer,
+                                    int rowStride,
+                                    int pixelStride,
+                                    int dataWidth,
+                                    int dataHeight,
+                                    int left,
+                                    int top,
+                                    int cropWidth,
+                                    int cropHeight,
+                                    boolean reverseHorizontal,
+                                    int quarterTurns) {
+    super(quarterTurns % 2 == 0 ? cropWidth : cropHeight,
+        quarterTurns % 2 == 0 ? cropHeight : cropWidth);
+
+    if (left + cropWidth > dataWidth || top + cropHeight > dataHeight) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+
+    this.buffer = buffer;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    this.dataWidth = dataWidth;
+    this.dataHeight = dataHeight;
+    this.left = left;
+    this.top = top;
+    this.cropWidth = cropWidth;
+    this.cropHeight = cropHeight;
+    this.reverseHorizontal = reverseHorizontal;
+    this.quarterTurns = quarterTurns;
+
+    // Crop coordinates of output pixel (0, 0) and of a step right and down, turned back
+    // clockwise through the rotation
+    int x0 = 0;
+    int y0 = 0;
+    int xRight = 1;
+    int yRight = 0;
+    int xDown = 0;
+    int yDown = 1;
+    switch (quarterTurns) {
+      case 1:
+        x0 = cropWidth - 1; xRight = 0; yRight = 1; xDown = -1; yDown = 0;
+        break;
+      case 2:
+        x0 = cropWidth - 1; y0 = cropHeight - 1; xRight = -1; yDown = -1;
+        break;
+      case 3:
+        y0 = cropHeight - 1; xRight = 0; yRight = -1; xDown = 1; yDown = 0;
+        break;
+    }
+    int xSign = reverseHorizontal ? -1 : 1;
+    int firstX = reverseHorizontal ? left + cropWidth - 1 : left;
+    origin = (top + y0) * rowStride + (firstX + xSign * x0) * pixelStride;
+    stepX = xSign * xRight * pixelStride + yRight * rowStride;
+    stepY = xSign * xDown * pixelStride + yDown * rowStride;
+  }
+
+  /**
+   * Wraps the luminance of an NV21 buffer, the layout the legacy camera API delivers.
+   */
+  public static ByteBufferLuminanceSource fromNv21(byte[] nv21, int dataWidth, int dataHeight,
+                                                   boolean reverseHorizontal) {
+    return fromNv21(nv21, dataWidth, dataHeight, 0, 0, dataWidth, dataHeight, reverseHorizontal);
+  }
+
+  /**
+   * Wraps a crop of the luminance of an NV21 buffer, given in buffer coordinates.
+   */
+  public static ByteBufferLuminanceSource fromNv21(byte[] nv21, int dataWidth, int dataHeight,
+                                                   int left, int top, int width, int height,
+                                                   boolean reverseHorizontal) {
+    return new ByteBufferLuminanceSource(ByteBuffer.wrap(nv21), dataWidth, 1, dataWidth,
+        dataHeight, left, top, width, height, reverseHorizontal);
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      row = new byte[width];
+    }
+    readRow(y, row, 0);
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    int width = getWidth();
+    int height = getHeight();
+    if (stepX == 1 && stepY == width && width == rowStride && height == dataHeight
+        && buffer.hasArray() && buffer.arrayOffset() == 0) {
+      // The whole luminance plane of a heap buffer; hand out the array itself
+      return buffer.array();
+    }
+    return getMatrix(null);
+  }
+
+  @Override
+  public byte[] getMatrix(byte[] reuse) {
+    int width = getWidth();
+    int height = getHeight();
+    int area = width * height;
+    byte[] matrix = reuse != null && reuse.length >= area ? reuse : new byte[area];
+    if (stepX == 1 && stepY == width) {
+      buffer.position(origin);
+      buffer.get(matrix, 0, area);
+    } else if (quarterTurns % 2 == 0) {
+      for (int y = 0; y < height; y++) {
+        readRow(y, matrix, y * width);
+      }
+    } else {
+      readTiles(matrix, width, height);
+    }
+    return matrix;
+  }
+
+  private void readRow(int y, byte[] output, int outputOffset) {
+    int width = getWidth();
+    int rowStart = origin + y * stepY;
+    if (stepX == 1 || stepX == -1) {
+      // A row of the buffer, possibly backwards; copy it in bulk and turn it around
+      buffer.position(stepX == 1 ? rowStart : rowStart - width + 1);
+      buffer.get(output, outputOffset, width);
+      if (stepX == -1) {
+        for (int x1 = outputOffset, x2 = outputOffset + width - 1; x1 < x2; x1++, x2--) {
+          byte temp = output[x1];
+          output[x1] = output[x2];
+          output[x2] = temp;
+        }
+      }
+      return;
+    }
+    ByteBuffer buffer = this.buffer;
+    int step = stepX;
+    for (int x = 0, input = rowStart; x < width; x++, input += step) {
+      output[outputOffset + x] = buffer.get(input);
+    }
+  }
+
+  private void readTiles(byte[] matrix, int width, int height) {
+    ByteBuffer buffer = this.buffer;
+    int step = stepX;
+    for (int tileTop = 0; tileTop < height; tileTop += TILE_SIZE) {
+      int tileBottom = Math.min(tileTop + TILE_SIZE, height);
+      for (int tileLeft = 0; tileLeft < width; tileLeft += TILE_SIZE) {
+        int tileRight = Math.min(tileLeft + TILE_SIZE, width);
+        for (int y = tileTop; y < tileBottom; y++) {
+          int input = origin + y * stepY + tileLeft * step;
+          for (int x = tileLeft, output = y * width + tileLeft; x < tileRight;
+               x++, output++, input += step) {
+            matrix[output] = buffer.get(input);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    // Turn the rectangle back into unrotated crop coordinates, then undo the mirroring
+    int cropLeft = left;
+    int cropTop = top;
+    int width0 = width;
+    int height0 = height;
+    switch (quarterTurns) {
+      case 1:
+        cropLeft = cropWidth - top - height; cropTop = left; width0 = height; height0 = width;
+        break;
+      case 2:
+        cropLeft = cropWidth - left - width; cropTop = cropHeight - top - height;
+        break;
+      case 3:
+        cropLeft = top; cropTop = cropHeight - left - width; width0 = height; height0 = width;
+        break;
+    }
+    if (reverseHorizontal) {
+      cropLeft = cropWidth - cropLeft - width0;
+    }
+    return new ByteBufferLuminanceSource(buffer,
+                                         rowStride,
+                                         pixelStride,
+                                         dataWidth,
+                                         dataHeight,
+                                         this.left + cropLeft,
+                                         this.top + cropTop,
+                                         width0,
+                                         height0,
+                                         reverseHorizontal,
+                                         quarterTurns);
+  }
+
+  @Override
+  public boolean isRotateSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource rotateCounterClockwise() {
+    return new ByteBufferLuminanceSource(buffer, rowStride, pixelStride, dataWidth, dataHeight,
+        left, top, cropWidth, cropHeight, reverseHorizontal, (quarterTurns + 1) % 4);
+  }
+
+  /**
+   * Renders the luminance as opaque ARGB_8888 pixels, reusing the given array if it is large
+   * enough, ready for {@code Bitmap.setPixels} or {@code Bitmap.createBitmap}.
+   */
+  public int[] renderGreyscale(int[] pixels) {
+    int width = getWidth();
+    int height = getHeight();
+    if (pixels == null || pixels.length < width * height) {
+      pixels = new int[width * height];
+    }
+    ByteBuffer buffer = this.buffer;
+    int step = stepX;
+    for (int y = 0; y < height; y++) {
+      int outputOffset = y * width;
+      for (int x = 0, input = origin + y * stepY; x < width; x++, input += step) {
+        int grey = buffer.get(input) & 0xff;
+        pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+      }
+    }
+    return pixels;
+  }
+
+}
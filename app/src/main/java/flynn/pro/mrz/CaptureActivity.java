@@ -10,6 +10,8 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
@@ -33,6 +35,7 @@ import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
+import android.view.OrientationEventListener;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
@@ -48,9 +51,12 @@ import org.jmrtd.lds.icao.MRZInfo;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Future;
 
 import flynn.pro.mrz.camera.CameraManager;
 import flynn.pro.mrz.camera.ShutterButton;
+import flynn.pro.mrz.metrics.PipelineMetrics;
+import flynn.pro.mrz.metrics.Stage;
 
 
 public final class CaptureActivity extends Activity implements SurfaceHolder.Callback,
@@ -69,9 +75,16 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     public static final String DEFAULT_OCR_ENGINE_MODE = "Tesseract";
 
     public static final String DEFAULT_PAGE_SEGMENTATION_MODE = "Auto";
+
+    public static final String DEFAULT_DECODE_WORKERS = "Auto";
+
+    public static final String DEFAULT_THRESHOLDING_METHOD = "Sauvola";
+
+    public static final String DEFAULT_OCR_ENGINE_PROFILE = "Standard";
     public static final boolean DEFAULT_TOGGLE_AUTO_FOCUS = true;
 
     public static final boolean DEFAULT_DISABLE_CONTINUOUS_FOCUS = true;
+    public static final boolean DEFAULT_TOGGLE_CAMERA2 = false;
     public static final boolean DEFAULT_TOGGLE_BEEP = false;
     public static final boolean DEFAULT_TOGGLE_CONTINUOUS = true;
     public static final boolean DEFAULT_TOGGLE_REVERSED_IMAGE = false;
@@ -79,7 +92,10 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     public static final boolean DEFAULT_TOGGLE_LIGHT = true;
     private static final boolean CONTINUOUS_DISPLAY_RECOGNIZED_TEXT = true;
     private static final boolean CONTINUOUS_DISPLAY_METADATA = true;
+    private static final boolean CONTINUOUS_DISPLAY_RESULT_BOXES = BuildConfig.DEBUG;
     private static final boolean DISPLAY_SHUTTER_BUTTON = true;
+    private static final boolean DUMP_PIPELINE_METRICS = true;
+    private static final String PIPELINE_METRICS_FILE = "pipeline_metrics.txt";
     static final String[] CUBE_SUPPORTED_LANGUAGES = {
             "ara", // Arabic
             "hin" // Hindi
@@ -112,14 +128,20 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     private OcrResult lastResult;
     private Bitmap lastBitmap;
     private boolean hasSurface;
-    private TessBaseAPI baseApi;
+    private OrientationEventListener orientationListener;
+    private int displayRotation;
+    private Future<TessBaseAPI[]> ocrEngines;
+    private TessBaseAPI[] baseApis;
+    private int decodeWorkerCount = 1;
     private String sourceLanguageCodeOcr; 
     private String sourceLanguageReadable; 
     private String sourceLanguageCodeTranslation; 
     private String targetLanguageCodeTranslation; 
     private String targetLanguageReadable; 
-    private int pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
+    private volatile int pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
     private int ocrEngineMode = TessBaseAPI.OEM_TESSERACT_ONLY;
+    private volatile OcrEngineProfile ocrEngineProfile = OcrEngineProfile.STANDARD;
+    private volatile ThresholdingMethod thresholdingMethod = ThresholdingMethod.SAUVOLA;
     private String characterBlacklist;
     private String characterWhitelist;
     private ShutterButton shutterButton;
@@ -127,18 +149,39 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     private boolean isContinuousModeActive = true; 
     private SharedPreferences prefs;
     private OnSharedPreferenceChangeListener listener;
-    private ProgressDialog dialog; 
     private ProgressDialog indeterminateDialog; 
     private boolean isEngineReady;
     private boolean isPaused;
     private static boolean isFirstLaunch; 
+    private final MrzConsensus mrzConsensus = new MrzConsensus();
+
+    /**
+     * Layout detail the decode workers extract per frame: only what the viewfinder overlay draws,
+     * and nothing in release builds, where the overlay is off.
+     */
+    OcrResult.DetailLevel getContinuousResultDetail() {
+        return CONTINUOUS_DISPLAY_RESULT_BOXES ? ViewfinderView.OVERLAY_DETAIL : OcrResult.DetailLevel.NONE;
+    }
+
+    ThresholdingMethod getThresholdingMethod() {
+        return thresholdingMethod;
+    }
+
+    /**
+     * Page segmentation mode for reading a whole frame: the preference under the standard
+     * profile, or the single block the MRZ profile configures.
+     */
+    int getPageSegmentationMode() {
+        return ocrEngineProfile == OcrEngineProfile.STANDARD
+                ? pageSegmentationMode : TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK;
+    }
 
     Handler getHandler() {
         return handler;
     }
 
-    TessBaseAPI getBaseApi() {
-        return baseApi;
+    TessBaseAPI[] getBaseApis() {
+        return baseApis;
     }
 
     CameraManager getCameraManager() {
@@ -212,6 +255,13 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
             cameraManager = new CameraManager(getApplication());
             viewfinderView.setCameraManager(cameraManager);
+            orientationListener = new OrientationEventListener(this) {
+                @Override
+                public void onOrientationChanged(int orientation) {
+                    // Turning half way round changes no configuration, so watch the display
+                    checkDisplayRotation();
+                }
+            };
 
             
             viewfinderView.setOnTouchListener(new View.OnTouchListener() {
@@ -347,9 +397,15 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
             resetStatusView();
             String previousSourceLanguageCodeOcr = sourceLanguageCodeOcr;
             int previousOcrEngineMode = ocrEngineMode;
+            int previousDecodeWorkerCount = decodeWorkerCount;
+            OcrEngineProfile previousOcrEngineProfile = ocrEngineProfile;
 
             retrievePreferences();
 
+            displayRotation = getWindowManager().getDefaultDisplay().getRotation();
+            if (orientationListener.canDetectOrientation()) {
+                orientationListener.enable();
+            }
             
             surfaceView = (SurfaceView) findViewById(R.id.preview_view);
             surfaceHolder = surfaceView.getHolder();
@@ -358,14 +414,16 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
                 surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
             }
 
-            boolean doNewInit = (baseApi == null) || !sourceLanguageCodeOcr.equals(previousSourceLanguageCodeOcr) ||
-                    ocrEngineMode != previousOcrEngineMode;
+            boolean doNewInit = (ocrEngines == null) || !sourceLanguageCodeOcr.equals(previousSourceLanguageCodeOcr) ||
+                    ocrEngineMode != previousOcrEngineMode || decodeWorkerCount != previousDecodeWorkerCount ||
+                    ocrEngineProfile != previousOcrEngineProfile;
+            if (ocrEngineProfile != previousOcrEngineProfile) {
+                // Keep each profile's numbers apart
+                PipelineMetrics.get().reset();
+            }
             if (doNewInit) {
-                File storageDirectory = getStorageDirectory();
-                if (storageDirectory != null) {
-                    initOcrEngine(storageDirectory, sourceLanguageCodeOcr, sourceLanguageReadable);
-                }
-            } else {
+                initOcrEngine(sourceLanguageCodeOcr, sourceLanguageReadable);
+            } else if (baseApis != null) {
                 resumeOCR();
             }
 //        } catch (Exception e) {
@@ -384,10 +442,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         if (handler != null) {
             handler.resetState();
         }
-        if (baseApi != null) {
-            baseApi.setPageSegMode(pageSegmentationMode);
-            baseApi.setVariable(TessBaseAPI.VAR_CHAR_BLACKLIST, characterBlacklist);
-            baseApi.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, characterWhitelist);
+        if (baseApis != null && ocrEngineProfile == OcrEngineProfile.STANDARD) {
+            for (TessBaseAPI baseApi : baseApis) {
+                baseApi.setPageSegMode(pageSegmentationMode);
+                baseApi.setVariable(TessBaseAPI.VAR_CHAR_BLACKLIST, characterBlacklist);
+                baseApi.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, characterWhitelist);
+            }
         }
 
         if (hasSurface) {
@@ -411,7 +471,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         isPaused = false;
         resetStatusView();
         setStatusViewForContinuous();
-        DecodeHandler.resetDecodeState();
+        mrzConsensus.reset();
         handler.resetState();
         if (shutterButton != null && DISPLAY_SHUTTER_BUTTON) {
             shutterButton.setVisibility(View.VISIBLE);
@@ -450,9 +510,13 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     @Override
     protected void onPause() {
 
+        orientationListener.disable();
         if (handler != null) {
             handler.quitSynchronously();
         }
+        if (DUMP_PIPELINE_METRICS) {
+            dumpPipelineMetrics();
+        }
         try {
         cameraManager.closeDriver();
         } catch (Exception e) {
@@ -471,6 +535,22 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     }
 
 
+    private void dumpPipelineMetrics() {
+        final String report = PipelineMetrics.get().report();
+        Log.i(TAG, "Pipeline metrics (" + ocrEngineProfile + "):\n" + report);
+        final File file = new File(getExternalFilesDir(null), PIPELINE_METRICS_FILE);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PipelineMetrics.get().dump(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not write " + file, e);
+                }
+            }
+        }, "MetricsDump").start();
+    }
+
     void stopHandler() {
         if (handler != null) {
             handler.stop();
@@ -480,9 +560,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
     @Override
     protected void onDestroy() {
-        if (baseApi != null) {
-            baseApi.end();
-        }
+        // The engines stay loaded in the OcrEngineProvider for the next activity
+        baseApis = null;
         super.onDestroy();
     }
 
@@ -548,6 +627,23 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // Rotation is handled here rather than by recreating the activity, so the camera and
+        // the OCR engine keep running; the framing rectangle follows the new screen shape
+        checkDisplayRotation();
+    }
+
+    private void checkDisplayRotation() {
+        int rotation = getWindowManager().getDefaultDisplay().getRotation();
+        if (rotation != displayRotation && cameraManager != null) {
+            displayRotation = rotation;
+            cameraManager.updateDisplayOrientation();
+            viewfinderView.invalidate();
+        }
+    }
+
     public void surfaceDestroyed(SurfaceHolder holder) {
         hasSurface = false;
     }
@@ -562,15 +658,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         targetLanguageCodeTranslation = languageCode;
         return true;
     }
-    private File getStorageDirectory() {
-        return this.getCacheDir();
-    }
-    private void initOcrEngine(File storageRoot, String languageCode, String languageName) {
+    private void initOcrEngine(String languageCode, String languageName) {
         isEngineReady = false;
-        if (dialog != null) {
-            dialog.dismiss();
-        }
-        dialog = new ProgressDialog(this);
 
         if (ocrEngineMode != TessBaseAPI.OEM_TESSERACT_ONLY) {
             boolean cubeOk = false;
@@ -594,7 +683,6 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
             indeterminateDialog.setMessage("Initializing " + ocrEngineModeName + " OCR engine for " + languageName + "...");
         }
         indeterminateDialog.setCancelable(false);
-        indeterminateDialog.show();
 
         if (handler != null) {
             handler.quitSynchronously();
@@ -606,13 +694,42 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
             prefs.edit().putBoolean(PreferencesActivity.KEY_CONTINUOUS_PREVIEW, true);
         }
 
-        baseApi = new TessBaseAPI();
-        new OcrInitAsyncTask(this, baseApi, dialog, indeterminateDialog, languageCode, languageName, ocrEngineMode)
-                .execute(storageRoot.toString());
+        baseApis = null;
+        ocrEngines = OcrEngineProvider.get(this).acquire(languageCode, ocrEngineMode, decodeWorkerCount,
+                ocrEngineProfile);
+        if (!ocrEngines.isDone()) {
+            // Usually the engines were loaded at process start, or by an earlier activity
+            indeterminateDialog.show();
+        }
+        new OcrInitAsyncTask(this, ocrEngines, indeterminateDialog).execute();
     }
 
-    boolean handleOcrDecode(OcrResult ocrResult) {
+    void onOcrEnginesReady(Future<TessBaseAPI[]> engines, TessBaseAPI[] baseApis) {
+        if (engines != ocrEngines || isFinishing()) {
+            return;
+        }
+        this.baseApis = baseApis;
+        resumeOCR();
+        showLanguageName();
+    }
+
+    /**
+     * Makes ocrResult the last result, recycling the one before it. Its bitmap goes back to the
+     * pool, so the result view lets go of it first.
+     */
+    private void replaceLastResult(OcrResult ocrResult) {
+        if (lastResult != null && lastResult != ocrResult) {
+            if (lastBitmap != null) {
+                ((ImageView) findViewById(R.id.image_view)).setImageBitmap(null);
+                lastBitmap = null;
+            }
+            lastResult.recycle();
+        }
         lastResult = ocrResult;
+    }
+
+    boolean handleOcrDecode(OcrResult ocrResult) {
+        replaceLastResult(ocrResult);
 
         if (ocrResult.getText() == null || ocrResult.getText().equals("")) {
             Toast toast = Toast.makeText(this, "OCR failed. Please try again.", Toast.LENGTH_SHORT);
@@ -666,35 +783,26 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         return true;
     }
     void handleOcrContinuousDecode(OcrResult ocrResult) {
-
-        lastResult = ocrResult;
-
-        String result = ocrResult.getText();
-        if (result != null && !"".equals(result)) {
-            result.replaceAll(" ", "");
-            String[] textResultTmpArr = result.split("\n");
-            result = "";
-            for (int i = 0; i < textResultTmpArr.length; i++) {
-                if (textResultTmpArr[i].length() > 10) {
-                    result += textResultTmpArr[i] + '\n';
-                }
-            }
-            result = result.replaceAll(" ", "");
-            ocrResult.setText(result);
-            if (ocrResult.getMeanConfidence() >= 50 && textResultTmpArr.length >= 2 && textResultTmpArr.length <= 3) {
+        replaceLastResult(ocrResult);
+
+        MrzText mrzText = ocrResult.getMrzText();
+        if (mrzText != null && mrzText.getFormat() != null) {
+            long voteStart = System.nanoTime();
+            String consensus = mrzConsensus.add(mrzText.getCharacters(), mrzText.getConfidences(),
+                    mrzText.getFormat());
+            if (consensus != null) {
                 try {
-                    MRZInfo mrzInfo = new MRZInfo(result);
-                    if (mrzInfo.toString().equals(result)) {
-                        Toast.makeText(this, mrzInfo.toString(), Toast.LENGTH_LONG).show();
-                        Intent returnIntent = new Intent();
-                        returnIntent.putExtra(MRZ_RESULT, mrzInfo);
-                        setResult(Activity.RESULT_OK, returnIntent);
-                        finish();
-                    }
+                    MRZInfo mrzInfo = new MRZInfo(consensus);
+                    Toast.makeText(this, mrzInfo.toString(), Toast.LENGTH_LONG).show();
+                    Intent returnIntent = new Intent();
+                    returnIntent.putExtra(MRZ_RESULT, mrzInfo);
+                    setResult(Activity.RESULT_OK, returnIntent);
+                    finish();
                 } catch (IllegalStateException | IllegalArgumentException e) {
-                    Log.w("CACA", "checksum fail", e);
+                    Log.w(TAG, "Voted MRZ passed its check digits but could not be parsed", e);
                 }
             }
+            PipelineMetrics.get().recordSince(Stage.MRZ_VOTE, voteStart);
         }
 
         viewfinderView.addResultText(new OcrResultText(ocrResult.getText(),
@@ -728,7 +836,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         }
     }
     void handleOcrContinuousDecode(OcrResultFailure obj) {
-        lastResult = null;
+        replaceLastResult(null);
         viewfinderView.removeResultText();
 
         statusViewTop.setText("");
@@ -824,7 +932,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         if (DISPLAY_SHUTTER_BUTTON) {
             shutterButton.setVisibility(View.VISIBLE);
         }
-        lastResult = null;
+        replaceLastResult(null);
         viewfinderView.removeResultText();
     }
     void showLanguageName() {
@@ -950,21 +1058,54 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         } else if (pageSegmentationModeName.equals(pageSegmentationModes[8])) {
             pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SPARSE_TEXT;
         }
-        String[] ocrEngineModes = getResources().getStringArray(R.array.ocrenginemodes);
-        String ocrEngineModeName = prefs.getString(PreferencesActivity.KEY_OCR_ENGINE_MODE, ocrEngineModes[0]);
-        if (ocrEngineModeName.equals(ocrEngineModes[0])) {
-            ocrEngineMode = TessBaseAPI.OEM_TESSERACT_ONLY;
-        } else if (ocrEngineModeName.equals(ocrEngineModes[1])) {
-            ocrEngineMode = TessBaseAPI.OEM_CUBE_ONLY;
-        } else if (ocrEngineModeName.equals(ocrEngineModes[2])) {
-            ocrEngineMode = TessBaseAPI.OEM_TESSERACT_CUBE_COMBINED;
+        decodeWorkerCount = getDecodeWorkerCount(getResources(), prefs);
+        String[] thresholdingMethods = getResources().getStringArray(R.array.thresholdingmethods);
+        String thresholdingMethodName = prefs.getString(PreferencesActivity.KEY_THRESHOLDING_METHOD, DEFAULT_THRESHOLDING_METHOD);
+        if (thresholdingMethodName.equals(thresholdingMethods[0])) {
+            thresholdingMethod = ThresholdingMethod.LEPTONICA_OTSU;
+        } else if (thresholdingMethodName.equals(thresholdingMethods[2])) {
+            thresholdingMethod = ThresholdingMethod.WOLF;
+        } else {
+            thresholdingMethod = ThresholdingMethod.SAUVOLA;
         }
+        ocrEngineMode = getOcrEngineMode(getResources(), prefs);
+        ocrEngineProfile = getOcrEngineProfile(getResources(), prefs);
         characterBlacklist = OcrCharacterHelper.getBlacklist(prefs, sourceLanguageCodeOcr);
         characterWhitelist = OcrCharacterHelper.getWhitelist(prefs, sourceLanguageCodeOcr);
 
         prefs.registerOnSharedPreferenceChangeListener(listener);
     }
 
+    public static int getDecodeWorkerCount(Resources resources, SharedPreferences prefs) {
+        String[] decodeWorkers = resources.getStringArray(R.array.decodeworkers);
+        String decodeWorkersName = prefs.getString(PreferencesActivity.KEY_DECODE_WORKERS, decodeWorkers[0]);
+        if (decodeWorkersName.equals(decodeWorkers[0])) {
+            // Leave one core for the UI and camera threads
+            return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        }
+        return Integer.parseInt(decodeWorkersName);
+    }
+
+    static int getOcrEngineMode(Resources resources, SharedPreferences prefs) {
+        String[] ocrEngineModes = resources.getStringArray(R.array.ocrenginemodes);
+        String ocrEngineModeName = prefs.getString(PreferencesActivity.KEY_OCR_ENGINE_MODE, ocrEngineModes[0]);
+        if (ocrEngineModeName.equals(ocrEngineModes[1])) {
+            return TessBaseAPI.OEM_CUBE_ONLY;
+        } else if (ocrEngineModeName.equals(ocrEngineModes[2])) {
+            return TessBaseAPI.OEM_TESSERACT_CUBE_COMBINED;
+        }
+        return TessBaseAPI.OEM_TESSERACT_ONLY;
+    }
+
+    static OcrEngineProfile getOcrEngineProfile(Resources resources, SharedPreferences prefs) {
+        String[] ocrEngineProfiles = resources.getStringArray(R.array.ocrengineprofiles);
+        String ocrEngineProfileName = prefs.getString(PreferencesActivity.KEY_OCR_ENGINE_PROFILE, ocrEngineProfiles[0]);
+        if (ocrEngineProfileName.equals(ocrEngineProfiles[1])) {
+            return OcrEngineProfile.MRZ_FAST;
+        }
+        return OcrEngineProfile.STANDARD;
+    }
+
     private void setDefaultPreferences() {
         prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
@@ -984,6 +1125,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
         prefs.edit().putBoolean(PreferencesActivity.KEY_DISABLE_CONTINUOUS_FOCUS, CaptureActivity.DEFAULT_DISABLE_CONTINUOUS_FOCUS).commit();
 
+        prefs.edit().putBoolean(PreferencesActivity.KEY_CAMERA2, CaptureActivity.DEFAULT_TOGGLE_CAMERA2).commit();
+
         prefs.edit().putBoolean(PreferencesActivity.KEY_PLAY_BEEP, CaptureActivity.DEFAULT_TOGGLE_BEEP).commit();
 
 
@@ -995,6 +1138,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
         prefs.edit().putString(PreferencesActivity.KEY_PAGE_SEGMENTATION_MODE, CaptureActivity.DEFAULT_PAGE_SEGMENTATION_MODE).commit();
 
+        prefs.edit().putString(PreferencesActivity.KEY_DECODE_WORKERS, CaptureActivity.DEFAULT_DECODE_WORKERS).commit();
+
+        prefs.edit().putString(PreferencesActivity.KEY_THRESHOLDING_METHOD, CaptureActivity.DEFAULT_THRESHOLDING_METHOD).commit();
+
+        prefs.edit().putString(PreferencesActivity.KEY_OCR_ENGINE_PROFILE, CaptureActivity.DEFAULT_OCR_ENGINE_PROFILE).commit();
+
         prefs.edit().putBoolean(PreferencesActivity.KEY_REVERSE_IMAGE, CaptureActivity.DEFAULT_TOGGLE_REVERSED_IMAGE).commit();
 
         prefs.edit().putBoolean(PreferencesActivity.KEY_TOGGLE_LIGHT, CaptureActivity.DEFAULT_TOGGLE_LIGHT).commit();
@@ -2,11 +2,14 @@ package flynn.pro.mrz;
 
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Gravity;
 import android.widget.Toast;
 
 import flynn.pro.mrz.camera.CameraManager;
+import flynn.pro.mrz.metrics.PipelineMetrics;
+import flynn.pro.mrz.metrics.Stage;
 
 
 final class CaptureActivityHandler extends Handler {
@@ -14,7 +17,7 @@ final class CaptureActivityHandler extends Handler {
   private static final String TAG = CaptureActivityHandler.class.getSimpleName();
   
   private final CaptureActivity activity;
-  private final DecodeThread decodeThread;
+  private final DecodeDispatcher decodeDispatcher;
   private static State state;
   private final CameraManager cameraManager;
 
@@ -33,8 +36,7 @@ final class CaptureActivityHandler extends Handler {
 
     cameraManager.startPreview();
     
-    decodeThread = new DecodeThread(activity);
-    decodeThread.start();
+    decodeDispatcher = new DecodeDispatcher(activity, cameraManager, activity.getBaseApis());
     
     if (isContinuousModeActive) {
       state = State.CONTINUOUS;
@@ -61,7 +63,7 @@ final class CaptureActivityHandler extends Handler {
         restartOcrPreview();
         break;
       case R.id.ocr_continuous_decode_failed:
-        DecodeHandler.resetDecodeState();        
+        recordDispatch(message);
         try {
           activity.handleOcrContinuousDecode((OcrResultFailure) message.obj);
         } catch (NullPointerException e) {
@@ -72,7 +74,7 @@ final class CaptureActivityHandler extends Handler {
         }
         break;
       case R.id.ocr_continuous_decode_succeeded:
-        DecodeHandler.resetDecodeState();
+        recordDispatch(message);
         try {
           activity.handleOcrContinuousDecode((OcrResult) message.obj);
         } catch (NullPointerException e) {
@@ -97,10 +99,16 @@ final class CaptureActivityHandler extends Handler {
     }
   }
   
+  private static void recordDispatch(Message message) {
+    PipelineMetrics.get().record(Stage.UI_DISPATCH,
+        (SystemClock.uptimeMillis() - message.getWhen()) * 1000L);
+  }
+
   void stop() {
     
     Log.d(TAG, "Setting state to CONTINUOUS_PAUSED.");
     state = State.CONTINUOUS_PAUSED;
+    decodeDispatcher.pause();
     removeMessages(R.id.ocr_continuous_decode);
     removeMessages(R.id.ocr_decode);
     removeMessages(R.id.ocr_continuous_decode_failed);
@@ -122,9 +130,7 @@ final class CaptureActivityHandler extends Handler {
       cameraManager.stopPreview();
     }
     try {
-      decodeThread.join(500L);
-    } catch (InterruptedException e) {
-      Log.w(TAG, "Caught InterruptedException in quitSyncronously()", e);
+      decodeDispatcher.quitSynchronously();
     } catch (RuntimeException e) {
       Log.w(TAG, "Caught RuntimeException in quitSyncronously()", e);
     } catch (Exception e) {
@@ -147,13 +153,13 @@ final class CaptureActivityHandler extends Handler {
   private void restartOcrPreviewAndDecode() {
     cameraManager.startPreview();
     
-    cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_continuous_decode);
+    decodeDispatcher.requestFrames();
     activity.drawViewfinder();    
   }
 
   private void ocrDecode() {
     state = State.PREVIEW_PAUSED;
-    cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_decode);
+    decodeDispatcher.requestSingleDecode();
   }
   void hardwareShutterButtonClick() {
     if (state == State.PREVIEW) {
@@ -0,0 +1,164 @@
+package flynn.pro.mrz;
+
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import flynn.pro.mrz.camera.CameraManager;
+import flynn.pro.mrz.camera.PreviewFrame;
+import flynn.pro.mrz.metrics.Counter;
+import flynn.pro.mrz.metrics.PipelineMetrics;
+
+
+final class DecodeDispatcher extends Handler {
+
+  private static final String TAG = DecodeDispatcher.class.getSimpleName();
+
+  private static final long IDLE = -1L;
+  // Stands in for the result of a frame the quality gate turned away
+  private static final Object FRAME_REJECTED = new Object();
+
+  private final CaptureActivity activity;
+  private final CameraManager cameraManager;
+  private final DecodeThread[] workers;
+  private final long[] workerFrame;
+  private final int[] resultWhat;
+  private final Object[] results;
+  // One gate for all workers, so each frame is compared with the frame before it
+  private final OrderedQualityGate qualityGate = new OrderedQualityGate();
+  private long nextFrame;
+  private long nextResult;
+  private boolean paused;
+
+  DecodeDispatcher(CaptureActivity activity, CameraManager cameraManager, TessBaseAPI[] baseApis) {
+    this.activity = activity;
+    this.cameraManager = cameraManager;
+    workers = new DecodeThread[baseApis.length];
+    workerFrame = new long[baseApis.length];
+    resultWhat = new int[baseApis.length];
+    results = new Object[baseApis.length];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new DecodeThread(activity, this, baseApis[i], i, qualityGate);
+      workers[i].start();
+      workerFrame[i] = IDLE;
+    }
+    Log.d(TAG, "Started " + workers.length + " decode workers");
+  }
+
+  @Override
+  public void handleMessage(Message message) {
+    switch (message.what) {
+      case R.id.ocr_continuous_decode:
+        dispatchFrame((PreviewFrame) message.obj, message.arg1, message.arg2);
+        break;
+      case R.id.ocr_continuous_decode_succeeded:
+      case R.id.ocr_continuous_decode_failed:
+        completeFrame(message.arg1, message.what, message.obj);
+        break;
+      case R.id.ocr_continuous_decode_rejected:
+        completeFrame(message.arg1, message.what, FRAME_REJECTED);
+        break;
+    }
+  }
+
+  void requestFrames() {
+    paused = false;
+    requestNextFrame();
+  }
+
+  void requestSingleDecode() {
+    cameraManager.requestOcrDecode(workers[0].getHandler(), R.id.ocr_decode);
+  }
+
+  void pause() {
+    paused = true;
+  }
+
+  void quitSynchronously() {
+    paused = true;
+    qualityGate.close();
+    for (DecodeThread worker : workers) {
+      Message.obtain(worker.getHandler(), R.id.quit).sendToTarget();
+    }
+    for (DecodeThread worker : workers) {
+      try {
+        // A worker still recognizing after this keeps its engine until it exits
+        worker.join(500L);
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Interrupted while waiting for decode worker", e);
+      }
+    }
+    removeMessages(R.id.ocr_continuous_decode);
+    removeMessages(R.id.ocr_continuous_decode_succeeded);
+    removeMessages(R.id.ocr_continuous_decode_failed);
+    removeMessages(R.id.ocr_continuous_decode_rejected);
+  }
+
+  private void dispatchFrame(PreviewFrame frame, int width, int height) {
+    int worker = paused ? -1 : findIdleWorker();
+    if (worker < 0) {
+      PipelineMetrics.get().increment(Counter.FRAMES_DROPPED);
+      frame.release();
+      return;
+    }
+    // The worker hands the frame number to the quality gate, which checks frames in this order
+    Message.obtain(workers[worker].getHandler(), R.id.ocr_continuous_decode,
+        (int) nextFrame, 0, frame).sendToTarget();
+    workerFrame[worker] = nextFrame++;
+    requestNextFrame();
+  }
+
+  private void completeFrame(int worker, int what, Object result) {
+    resultWhat[worker] = what;
+    results[worker] = result;
+    // Hand results on in the order their frames arrived; a worker stays reserved until its
+    // result has been delivered, so at most one result per worker is ever waiting here.
+    boolean rejected = false;
+    int next;
+    while ((next = findWorkerHolding(nextResult)) >= 0 && results[next] != null) {
+      Object nextResultObj = results[next];
+      results[next] = null;
+      workerFrame[next] = IDLE;
+      nextResult++;
+      Handler handler = activity.getHandler();
+      if (nextResultObj == FRAME_REJECTED) {
+        // Nothing to show; the last result stays on screen
+        rejected = true;
+      } else if (handler != null && !paused) {
+        Message.obtain(handler, resultWhat[next], nextResultObj).sendToTarget();
+      } else if (nextResultObj instanceof OcrResult) {
+        ((OcrResult) nextResultObj).recycle();
+      }
+    }
+    if (rejected && !paused) {
+      requestNextFrame();
+    }
+  }
+
+  private void requestNextFrame() {
+    if (findIdleWorker() >= 0) {
+      cameraManager.requestOcrDecode(this, R.id.ocr_continuous_decode);
+    }
+  }
+
+  private int findIdleWorker() {
+    for (int i = 0; i < workers.length; i++) {
+      if (workerFrame[i] == IDLE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int findWorkerHolding(long frame) {
+    for (int i = 0; i < workers.length; i++) {
+      if (workerFrame[i] == frame) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -1,31 +1,65 @@
 package flynn.pro.mrz;
 
-import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.googlecode.leptonica.android.Binarize;
 import com.googlecode.leptonica.android.Pix;
 import com.googlecode.leptonica.android.Pixa;
 import com.googlecode.leptonica.android.ReadFile;
-import com.googlecode.leptonica.android.WriteFile;
+import com.googlecode.leptonica.android.Rotate;
+import com.googlecode.tesseract.android.ResultIterator;
 import com.googlecode.tesseract.android.TessBaseAPI;
+import com.googlecode.tesseract.android.TessBaseAPI.PageIteratorLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import flynn.pro.mrz.camera.PreviewFrame;
+import flynn.pro.mrz.metrics.Counter;
+import flynn.pro.mrz.metrics.PipelineMetrics;
+import flynn.pro.mrz.metrics.Stage;
 
 
 final class DecodeHandler extends Handler {
 
+  static final boolean LOCALIZE_MRZ = true;
+  static final boolean GATE_FRAME_QUALITY = true;
+
+  private static final float MIN_DESKEW_DEGREES = 0.5f;
+
   private final CaptureActivity activity;
+  private final Handler dispatcher;
+  private final int workerIndex;
   private boolean running = true;
   private final TessBaseAPI baseApi;
-  private Bitmap bitmap;
-  private static boolean isDecodePending;
+  private final OcrFrameSession frameSession;
+  private final OrderedQualityGate qualityGate;
+  private final MrzLocalizer mrzLocalizer = new MrzLocalizer();
+  private final MrzTextNormalizer mrzTextNormalizer = new MrzTextNormalizer();
+  private final PipelineMetrics metrics = PipelineMetrics.get();
+  // The Leptonica images of the frame being decoded
+  private final NativeImageScope imageScope = new NativeImageScope();
+  private byte[] frameLuminance;
+  private byte[] bandLuminance;
+  private byte[] thresholdedLuminance;
+  private ThresholdingMethod thresholdingMethod;
+  private Thresholder thresholder;
   private long timeRequired;
 
-  DecodeHandler(CaptureActivity activity) {
+  DecodeHandler(CaptureActivity activity, Handler dispatcher, TessBaseAPI baseApi, int workerIndex,
+                OrderedQualityGate qualityGate) {
     this.activity = activity;
-    baseApi = activity.getBaseApi();
+    this.dispatcher = dispatcher;
+    this.baseApi = baseApi;
+    this.workerIndex = workerIndex;
+    this.qualityGate = qualityGate;
+    frameSession = new OcrFrameSession(baseApi);
   }
 
   @Override
@@ -35,67 +69,191 @@ final class DecodeHandler extends Handler {
     }
     switch (message.what) {        
     case R.id.ocr_continuous_decode:
-      if (!isDecodePending) {
-        isDecodePending = true;
-        ocrContinuousDecode((byte[]) message.obj, message.arg1, message.arg2);
-      }
+      metrics.record(Stage.DECODE_QUEUE, (SystemClock.uptimeMillis() - message.getWhen()) * 1000L);
+      ocrContinuousDecode((PreviewFrame) message.obj, message.arg1);
       break;
     case R.id.ocr_decode:
-      ocrDecode((byte[]) message.obj, message.arg1, message.arg2);
+      ocrDecode((PreviewFrame) message.obj);
       break;
     case R.id.quit:
       running = false;
+      imageScope.close();
+      frameSession.release();
       Looper.myLooper().quit();
       break;
     }
   }
 
-  static void resetDecodeState() {
-    isDecodePending = false;
-  }
-
-  private void ocrDecode(byte[] data, int width, int height) {
+  private void ocrDecode(PreviewFrame frame) {
     activity.displayProgressDialog();
     
-    new OcrRecognizeAsyncTask(activity, baseApi, data, width, height).execute();
+    new OcrRecognizeAsyncTask(activity, frameSession, frame).execute();
   }
-  private void ocrContinuousDecode(byte[] data, int width, int height) {   
-    PlanarYUVLuminanceSource source = activity.getCameraManager().buildLuminanceSource(data, width, height);
+  /**
+   * Decodes the given frame, numbered by the dispatcher in the order frames arrived.
+   */
+  private void ocrContinuousDecode(PreviewFrame frame, int frameNumber) {
+    long frameStart = System.nanoTime();
+    if (frame.isFocusing()) {
+      qualityGate.skip(frameNumber);
+      frame.release();
+      metrics.increment(Counter.FRAMES_FOCUSING);
+      sendContinuousOcrFailMessage();
+      return;
+    }
+    LuminanceSource source = activity.getCameraManager().buildLuminanceSource(frame);
     if (source == null) {
+      qualityGate.skip(frameNumber);
+      frame.release();
+      metrics.increment(Counter.FRAMES_FAILED);
       sendContinuousOcrFailMessage();
       return;
     }
-    bitmap = source.renderCroppedGreyscaleBitmap();
-    Pix thresholdedImage = Binarize.otsuAdaptiveThreshold(ReadFile.readBitmap(bitmap));
-    Log.e("OcrRecognizeAsyncTask", "thresholding completed. converting to bmp. size:" + bitmap.getWidth() + "x" + bitmap.getHeight());
-    bitmap = WriteFile.writeBitmap(thresholdedImage);
+    MrzLocalizer.Band band = null;
+    int width = source.getWidth();
+    int height = source.getHeight();
+    long stageStart = System.nanoTime();
+    frameLuminance = source.getMatrix(frameLuminance);
+    byte[] luminance = frameLuminance;
+    long cropNanos = System.nanoTime() - stageStart;
+    if (GATE_FRAME_QUALITY) {
+      stageStart = System.nanoTime();
+      FrameQualityGate.Verdict verdict = qualityGate.check(frameNumber, luminance, width, height);
+      metrics.recordSince(Stage.QUALITY_GATE, stageStart);
+      if (verdict != FrameQualityGate.Verdict.ACCEPTED) {
+        frame.release();
+        metrics.increment(verdict == FrameQualityGate.Verdict.BLURRED
+            ? Counter.FRAMES_BLURRED : Counter.FRAMES_MOVING);
+        Message.obtain(dispatcher, R.id.ocr_continuous_decode_rejected, workerIndex, 0)
+            .sendToTarget();
+        return;
+      }
+    } else {
+      qualityGate.skip(frameNumber);
+    }
+    if (LOCALIZE_MRZ) {
+      stageStart = System.nanoTime();
+      band = mrzLocalizer.localize(luminance, width, height);
+      stageStart = metrics.recordSince(Stage.MRZ_LOCALIZE, stageStart);
+      if (band == null) {
+        frame.release();
+        metrics.increment(Counter.FRAMES_WITHOUT_MRZ);
+        sendContinuousOcrFailMessage();
+        return;
+      }
+      LuminanceSource bandSource = source.crop(band.getLeft(), band.getTop(), band.getWidth(), band.getHeight());
+      bandLuminance = bandSource.getMatrix(bandLuminance);
+      luminance = bandLuminance;
+      width = band.getWidth();
+      height = band.getHeight();
+      // The framing rectangle and band copies count as one crop
+      stageStart = metrics.recordSince(Stage.LUMINANCE_CROP, stageStart - cropNanos);
+    } else {
+      stageStart = metrics.recordSince(Stage.LUMINANCE_CROP, System.nanoTime() - cropNanos);
+    }
+    frame.release();
 
-    OcrResult ocrResult = getOcrResult();
-    Handler handler = activity.getHandler();
-    if (handler == null) {
-      return;
+    Thresholder thresholder = getThresholder();
+    if (thresholder != null) {
+      // Java thresholders binarize before deskewing; the rotation keeps the image two-tone
+      thresholdedLuminance = thresholder.threshold(luminance, width, height, thresholdedLuminance);
+      luminance = thresholdedLuminance;
+      stageStart = metrics.recordSince(Stage.THRESHOLD, stageStart);
     }
 
-    if (ocrResult == null) {
-      try {
-        sendContinuousOcrFailMessage();
-      } catch (NullPointerException e) {
-        activity.stopHandler();
-      } finally {
-        bitmap.recycle();
-        baseApi.clear();
+    boolean deskew = band != null && Math.abs(band.getSkewDegrees()) >= MIN_DESKEW_DEGREES;
+    // An image made for this frame alone, or null if the engine reads the retained frame
+    Pix frameImage = null;
+    int regionLeft = band != null ? band.getLeft() : 0;
+    int regionTop = band != null ? band.getTop() : 0;
+    if (thresholder != null && !deskew) {
+      byte[] framePixels = luminance;
+      if (band != null) {
+        // Outside the band the frame stays grey, but the engine never reads there
+        for (int y = 0; y < height; y++) {
+          System.arraycopy(luminance, y * width, frameLuminance,
+              (regionTop + y) * source.getWidth() + regionLeft, width);
+        }
+        framePixels = frameLuminance;
       }
+      frameSession.loadFrame(framePixels, source.getWidth(), source.getHeight());
+      stageStart = metrics.recordSince(Stage.GREYSCALE_RENDER, stageStart);
+      frameSession.setRegion(regionLeft, regionTop, width, height);
+    } else {
+      Pix greyImage = imageScope.add(ReadFile.readBytes8(luminance, width, height));
+      stageStart = metrics.recordSince(Stage.GREYSCALE_RENDER, stageStart);
+      if (deskew) {
+        // Leptonica rotates clockwise for positive angles
+        Pix deskewedImage = imageScope.add(Rotate.rotate(greyImage, -band.getSkewDegrees()));
+        imageScope.free(greyImage);
+        greyImage = deskewedImage;
+        stageStart = metrics.recordSince(Stage.DESKEW, stageStart);
+      }
+      if (thresholder == null) {
+        frameImage = imageScope.add(Binarize.otsuAdaptiveThreshold(greyImage));
+        imageScope.free(greyImage);
+        stageStart = metrics.recordSince(Stage.THRESHOLD, stageStart);
+      } else {
+        frameImage = greyImage;
+      }
+      frameSession.setImage(frameImage);
+    }
+    metrics.recordSince(Stage.SET_IMAGE, stageStart);
+
+    // A localized band is a single block of text; only a whole frame needs layout analysis
+    baseApi.setPageSegMode(band != null
+        ? TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK : activity.getPageSegmentationMode());
+    OcrResult ocrResult = getOcrResult();
+    if (ocrResult == null) {
+      imageScope.close();
+      metrics.increment(Counter.FRAMES_FAILED);
+      sendContinuousOcrFailMessage();
       return;
     }
+    if (frameImage != null) {
+      ocrResult.setThresholdedImage(imageScope.detach(frameImage));
+      if (deskew) {
+        // The engine read the band rotated by the opposite of its skew
+        ocrResult.rotateBoundingBoxes(-band.getSkewDegrees(), frameImage.getWidth(),
+            frameImage.getHeight(), width, height);
+      }
+      if (band != null) {
+        ocrResult.offsetBoundingBoxes(regionLeft, regionTop);
+      }
+    } else {
+      // The engine reported frame coordinates; the result keeps its own copy of the band
+      ocrResult.setThresholdedImage(frameSession.copyRegion(regionLeft, regionTop, width, height));
+    }
+    imageScope.close();
+
+    stageStart = System.nanoTime();
+    MrzText mrzText = mrzTextNormalizer.normalize(ocrResult.getText(),
+        ocrResult.getSymbolConfidences());
+    // The result goes to the UI thread, and only an MRZ is voted on there
+    ocrResult.setMrzText(mrzText.getFormat() != null ? mrzText.copy() : null);
+    ocrResult.setText(mrzText.getText());
+    metrics.recordSince(Stage.MRZ_PARSE, stageStart);
+    if (band != null) {
+      ocrResult.setBitmapDimensions(new Point(source.getWidth(), source.getHeight()));
+    }
+    metrics.increment(Counter.FRAMES_DECODED);
+    metrics.recordSince(Stage.DECODE_TOTAL, frameStart);
+    Message message = Message.obtain(dispatcher, R.id.ocr_continuous_decode_succeeded,
+        workerIndex, 0, ocrResult);
+    message.sendToTarget();
+  }
 
-    try {
-      Message message = Message.obtain(handler, R.id.ocr_continuous_decode_succeeded, ocrResult);
-      message.sendToTarget();
-    } catch (NullPointerException e) {
-      activity.stopHandler();
-    } finally {
-      baseApi.clear();
+  /**
+   * Returns this worker's thresholder for the method currently chosen in the preferences, or
+   * null if Leptonica binarizes.
+   */
+  private Thresholder getThresholder() {
+    ThresholdingMethod method = activity.getThresholdingMethod();
+    if (method != thresholdingMethod) {
+      thresholdingMethod = method;
+      thresholder = method.newThresholder();
     }
+    return thresholder;
   }
 
   @SuppressWarnings("unused")
@@ -105,42 +263,23 @@ final class DecodeHandler extends Handler {
     long start = System.currentTimeMillis();
 
     try {     
-      baseApi.setImage(ReadFile.readBitmap(bitmap));
+      long stageStart = System.nanoTime();
       textResult = baseApi.getUTF8Text();
+      stageStart = metrics.recordSince(Stage.RECOGNIZE_TEXT, stageStart);
       timeRequired = System.currentTimeMillis() - start;
       if (textResult == null || textResult.equals("")) {
         return null;
       }
       ocrResult = new OcrResult();
-      ocrResult.setWordConfidences(baseApi.wordConfidences());
       ocrResult.setMeanConfidence( baseApi.meanConfidence());
-      if (ViewfinderView.DRAW_REGION_BOXES) {
-        Pixa regions = baseApi.getRegions();
-        ocrResult.setRegionBoundingBoxes(regions.getBoxRects());
-        regions.recycle();
-      }
-      if (ViewfinderView.DRAW_TEXTLINE_BOXES) {
-        Pixa textlines = baseApi.getTextlines();
-        ocrResult.setTextlineBoundingBoxes(textlines.getBoxRects());
-        textlines.recycle();
-      }
-      if (ViewfinderView.DRAW_STRIP_BOXES) {
-        Pixa strips = baseApi.getStrips();
-        ocrResult.setStripBoundingBoxes(strips.getBoxRects());
-        strips.recycle();
-      }
-      Pixa words = baseApi.getWords();
-      ocrResult.setWordBoundingBoxes(words.getBoxRects());
-      words.recycle();
-      
-//      if (ViewfinderView.DRAW_CHARACTER_BOXES || ViewfinderView.DRAW_CHARACTER_TEXT) {
-//        ocrResult.setCharacterBoundingBoxes(baseApi.getCharacters().getBoxRects());
-//      }
+      extractLayout(baseApi, ocrResult, activity.getContinuousResultDetail(), textResult.length(),
+          imageScope);
+      metrics.recordSince(Stage.BOX_EXTRACTION, stageStart);
     } catch (RuntimeException e) {
       Log.e("OcrRecognizeAsyncTask", "Caught RuntimeException in request to Tesseract. Setting state to CONTINUOUS_STOPPED.");
       e.printStackTrace();
       try {
-        baseApi.clear();
+        frameSession.release();
         activity.stopHandler();
       } catch (NullPointerException e1) {
         // Continue
@@ -148,18 +287,78 @@ final class DecodeHandler extends Handler {
       return null;
     }
     timeRequired = System.currentTimeMillis() - start;
-    ocrResult.setBitmap(bitmap);
     ocrResult.setText(textResult);
     ocrResult.setRecognitionTimeRequired(timeRequired);
     return ocrResult;
   }
   
-  private void sendContinuousOcrFailMessage() {
-    Handler handler = activity.getHandler();
-    if (handler != null) {
-      Message message = Message.obtain(handler, R.id.ocr_continuous_decode_failed, new OcrResultFailure(timeRequired));
-      message.sendToTarget();
+  /**
+   * Fills in the boxes and confidences the given detail level calls for. Region, text line and
+   * strip boxes are only extracted if the viewfinder draws them. If maxSymbols is positive, up
+   * to that many symbol confidences are extracted too, whatever the level. The box arrays are
+   * freed as soon as their boxes are read, or by the scope if reading them fails.
+   */
+  static void extractLayout(TessBaseAPI baseApi, OcrResult ocrResult,
+                            OcrResult.DetailLevel detail, int maxSymbols,
+                            NativeImageScope imageScope) {
+    ocrResult.setDetailLevel(detail);
+    if (detail.compareTo(OcrResult.DetailLevel.LINES) >= 0) {
+      if (ViewfinderView.DRAW_REGION_BOXES) {
+        Pixa regions = imageScope.add(baseApi.getRegions());
+        ocrResult.setRegionBoundingBoxes(regions.getBoxRects());
+        imageScope.free(regions);
+      }
+      if (ViewfinderView.DRAW_TEXTLINE_BOXES) {
+        Pixa textlines = imageScope.add(baseApi.getTextlines());
+        ocrResult.setTextlineBoundingBoxes(textlines.getBoxRects());
+        imageScope.free(textlines);
+      }
+      if (ViewfinderView.DRAW_STRIP_BOXES) {
+        Pixa strips = imageScope.add(baseApi.getStrips());
+        ocrResult.setStripBoundingBoxes(strips.getBoxRects());
+        imageScope.free(strips);
+      }
+    }
+    if (detail.compareTo(OcrResult.DetailLevel.WORDS) >= 0) {
+      ocrResult.setWordConfidences(baseApi.wordConfidences());
+      Pixa words = imageScope.add(baseApi.getWords());
+      ocrResult.setWordBoundingBoxes(words.getBoxRects());
+      imageScope.free(words);
     }
+    boolean characterBoxes = detail == OcrResult.DetailLevel.SYMBOLS;
+    if (maxSymbols > 0 || characterBoxes) {
+      extractSymbols(baseApi, ocrResult, maxSymbols, characterBoxes);
+    }
+  }
+
+  private static void extractSymbols(TessBaseAPI baseApi, OcrResult ocrResult, int maxSymbols,
+                                     boolean characterBoxes) {
+    float[] confidences = maxSymbols > 0 ? new float[maxSymbols] : null;
+    List<Rect> boxes = characterBoxes ? new ArrayList<Rect>() : null;
+    ResultIterator iterator = baseApi.getResultIterator();
+    int count = 0;
+    iterator.begin();
+    do {
+      if (confidences != null && count < maxSymbols) {
+        confidences[count] = iterator.confidence(PageIteratorLevel.RIL_SYMBOL);
+      }
+      if (boxes != null) {
+        int[] box = iterator.getBoundingBox(PageIteratorLevel.RIL_SYMBOL);
+        boxes.add(new Rect(box[0], box[1], box[2], box[3]));
+      } else if (count + 1 >= maxSymbols) {
+        break;
+      }
+      count++;
+    } while (iterator.next(PageIteratorLevel.RIL_SYMBOL));
+    iterator.delete();
+    ocrResult.setSymbolConfidences(confidences);
+    ocrResult.setCharacterBoundingBoxes(boxes);
+  }
+
+  private void sendContinuousOcrFailMessage() {
+    Message message = Message.obtain(dispatcher, R.id.ocr_continuous_decode_failed,
+        workerIndex, 0, new OcrResultFailure(timeRequired));
+    message.sendToTarget();
   }
 
 }
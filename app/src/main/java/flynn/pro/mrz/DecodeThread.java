@@ -3,18 +3,31 @@ package flynn.pro.mrz;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.googlecode.tesseract.android.TessBaseAPI;
+
 import java.util.concurrent.CountDownLatch;
 
 
 final class DecodeThread extends Thread {
 
   private final CaptureActivity activity;
+  private final Handler dispatcher;
+  private final TessBaseAPI baseApi;
+  private final int workerIndex;
+  private final OrderedQualityGate qualityGate;
   private Handler handler;
   private final CountDownLatch handlerInitLatch;
 
-  DecodeThread(CaptureActivity activity) {
+  DecodeThread(CaptureActivity activity, Handler dispatcher, TessBaseAPI baseApi, int workerIndex,
+               OrderedQualityGate qualityGate) {
+    super("DecodeThread-" + workerIndex);
     this.activity = activity;
+    this.dispatcher = dispatcher;
+    this.baseApi = baseApi;
+    this.workerIndex = workerIndex;
+    this.qualityGate = qualityGate;
     handlerInitLatch = new CountDownLatch(1);
+    OcrEngineProvider.get(activity).retain();
   }
 
   Handler getHandler() {
@@ -27,9 +40,13 @@ final class DecodeThread extends Thread {
 
   @Override
   public void run() {
-    Looper.prepare();
-    handler = new DecodeHandler(activity);
-    handlerInitLatch.countDown();
-    Looper.loop();
+    try {
+      Looper.prepare();
+      handler = new DecodeHandler(activity, dispatcher, baseApi, workerIndex, qualityGate);
+      handlerInitLatch.countDown();
+      Looper.loop();
+    } finally {
+      OcrEngineProvider.get(activity).release();
+    }
   }
 }
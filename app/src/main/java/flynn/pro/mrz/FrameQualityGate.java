@@ -0,0 +1,122 @@
+package flynn.pro.mrz;
+
+
+/**
+ * Cheap pre-filter that turns away frames Tesseract is unlikely to read: frames much blurrier
+ * than the sharpest recent ones, and frames that differ a lot from the previous one because the
+ * camera or the document is moving.
+ *
+ * Sharpness is the mean squared central-difference gradient (a Tenengrad-style measure) over a
+ * grid sampled every few pixels. The bar is a fraction of a peak that decays frame by frame, so
+ * it adapts to the lighting and the document, and a run of soft frames eventually lowers it
+ * instead of starving the decoder. Motion is the mean absolute difference against the previous
+ * frame of the grid samples averaged over blocks, which keeps sensor noise from reading as
+ * motion.
+ *
+ * Instances keep state between calls and are not thread safe; feed one gate every frame of a
+ * stream, in order. Decode workers share one through {@link OrderedQualityGate}.
+ */
+public final class FrameQualityGate {
+
+  public enum Verdict {
+    ACCEPTED,
+    BLURRED,
+    MOVING
+  }
+
+  private static final int GRID_STEP = 4;
+  private static final int BLOCK_SAMPLES = 4;
+  private static final float PEAK_DECAY = 0.97f;
+  private static final float MIN_SHARPNESS_FRACTION = 0.55f;
+  private static final int MAX_MEAN_DIFFERENCE = 4;
+
+  private int[] blockSums = new int[0];
+  private int[] previousBlockSums = new int[0];
+  private int previousWidth;
+  private int previousHeight;
+  private float peakSharpness;
+  private float sharpness;
+  private int meanDifference;
+
+  /**
+   * Scores the given width x height luminance matrix and decides whether it is worth
+   * recognizing.
+   */
+  public Verdict check(byte[] luminance, int width, int height) {
+    int columns = Math.max(0, (width - 2 + GRID_STEP - 1) / GRID_STEP);
+    int rows = Math.max(0, (height - 2 + GRID_STEP - 1) / GRID_STEP);
+    if (columns == 0 || rows == 0) {
+      return Verdict.ACCEPTED;
+    }
+    int blockColumns = (columns + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES;
+    int blocks = blockColumns * ((rows + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES);
+    boolean comparable = width == previousWidth && height == previousHeight;
+    if (blockSums.length < blocks) {
+      blockSums = new int[blocks];
+      previousBlockSums = new int[blocks];
+      comparable = false;
+    }
+    for (int i = 0; i < blocks; i++) {
+      blockSums[i] = 0;
+    }
+
+    long gradientEnergy = 0;
+    for (int row = 0, y = 1; row < rows; row++, y += GRID_STEP) {
+      int offset = y * width;
+      int blockRowStart = row / BLOCK_SAMPLES * blockColumns;
+      for (int column = 0, x = 1; column < columns; column++, x += GRID_STEP) {
+        int center = offset + x;
+        int gx = (luminance[center + 1] & 0xff) - (luminance[center - 1] & 0xff);
+        int gy = (luminance[center + width] & 0xff) - (luminance[center - width] & 0xff);
+        gradientEnergy += gx * gx + gy * gy;
+        blockSums[blockRowStart + column / BLOCK_SAMPLES] += luminance[center] & 0xff;
+      }
+    }
+
+    long difference = 0;
+    for (int i = 0; i < blocks; i++) {
+      difference += Math.abs(blockSums[i] - previousBlockSums[i]);
+    }
+    int[] swap = previousBlockSums;
+    previousBlockSums = blockSums;
+    blockSums = swap;
+    previousWidth = width;
+    previousHeight = height;
+
+    // Edge blocks may hold fewer samples; averaging them as full blocks errs towards stillness
+    sharpness = (float) gradientEnergy / (columns * rows);
+    meanDifference = comparable
+        ? (int) (difference / ((long) blocks * BLOCK_SAMPLES * BLOCK_SAMPLES)) : 0;
+    peakSharpness = Math.max(sharpness, peakSharpness * PEAK_DECAY);
+
+    if (meanDifference > MAX_MEAN_DIFFERENCE) {
+      return Verdict.MOVING;
+    }
+    if (sharpness < peakSharpness * MIN_SHARPNESS_FRACTION) {
+      return Verdict.BLURRED;
+    }
+    return Verdict.ACCEPTED;
+  }
+
+  /**
+   * Sharpness of the last checked frame.
+   */
+  public float getSharpness() {
+    return sharpness;
+  }
+
+  /**
+   * Mean absolute grey level difference between the last two checked frames, or 0 if they
+   * could not be compared.
+   */
+  public int getMeanDifference() {
+    return meanDifference;
+  }
+
+  public void reset() {
+    previousWidth = 0;
+    previousHeight = 0;
+    peakSharpness = 0f;
+  }
+
+}
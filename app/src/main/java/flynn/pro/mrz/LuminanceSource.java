@@ -17,6 +17,22 @@ public abstract class LuminanceSource {
 
   public abstract byte[] getMatrix();
 
+  /**
+   * Like {@link #getMatrix()}, but fills the given array when it holds at least
+   * width * height bytes instead of allocating one. Never returns the source's own data.
+   */
+  public byte[] getMatrix(byte[] reuse) {
+    int width = getWidth();
+    int height = getHeight();
+    byte[] matrix = reuse != null && reuse.length >= width * height
+        ? reuse : new byte[width * height];
+    byte[] row = null;
+    for (int y = 0; y < height; y++) {
+      row = getRow(y, row);
+      System.arraycopy(row, 0, matrix, y * width, width);
+    }
+    return matrix;
+  }
 
   public final int getWidth() {
     return width;
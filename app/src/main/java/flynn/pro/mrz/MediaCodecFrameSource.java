@@ -0,0 +1,143 @@
+package flynn.pro.mrz;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import flynn.pro.mrz.batch.VideoFrameSource;
+
+
+/**
+ * Frames of a recorded video, decoded by the platform's {@link MediaCodec} into buffers. Only
+ * the luma plane is copied out, which every YUV 4:2:0 layout a decoder hands back stores first,
+ * row by row; frames passed over are released without copying at all.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public final class MediaCodecFrameSource implements VideoFrameSource {
+
+  private static final long TIMEOUT_MICROS = 10000L;
+  private static final String KEY_STRIDE = "stride";
+
+  private final MediaExtractor extractor;
+  private final MediaCodec codec;
+  private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+  private final int width;
+  private final int height;
+  private ByteBuffer[] inputBuffers;
+  private ByteBuffer[] outputBuffers;
+  private int stride;
+  private boolean inputDone;
+  private boolean outputDone;
+  private long timestampMicros;
+
+  public MediaCodecFrameSource(File file) throws IOException {
+    extractor = new MediaExtractor();
+    extractor.setDataSource(file.getAbsolutePath());
+    MediaFormat format = null;
+    for (int i = 0; i < extractor.getTrackCount(); i++) {
+      MediaFormat trackFormat = extractor.getTrackFormat(i);
+      if (trackFormat.getString(MediaFormat.KEY_MIME).startsWith("video/")) {
+        extractor.selectTrack(i);
+        format = trackFormat;
+        break;
+      }
+    }
+    if (format == null) {
+      extractor.release();
+      throw new IOException("No video track in " + file);
+    }
+    width = format.getInteger(MediaFormat.KEY_WIDTH);
+    height = format.getInteger(MediaFormat.KEY_HEIGHT);
+    stride = width;
+    try {
+      codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+    } catch (IOException | RuntimeException e) {
+      extractor.release();
+      throw e;
+    }
+    codec.configure(format, null, null, 0);
+    codec.start();
+    inputBuffers = codec.getInputBuffers();
+    outputBuffers = codec.getOutputBuffers();
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public boolean nextFrame(byte[] luminance) throws IOException {
+    while (!outputDone) {
+      if (!inputDone) {
+        queueInput();
+      }
+      int index = codec.dequeueOutputBuffer(info, TIMEOUT_MICROS);
+      if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+        outputBuffers = codec.getOutputBuffers();
+      } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+        MediaFormat format = codec.getOutputFormat();
+        stride = format.containsKey(KEY_STRIDE) ? format.getInteger(KEY_STRIDE) : width;
+      } else if (index >= 0) {
+        outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        boolean hasFrame = info.size > 0;
+        if (hasFrame && luminance != null) {
+          copyLuminance(outputBuffers[index], luminance);
+        }
+        codec.releaseOutputBuffer(index, false);
+        if (hasFrame) {
+          timestampMicros = info.presentationTimeUs;
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void queueInput() {
+    int index = codec.dequeueInputBuffer(TIMEOUT_MICROS);
+    if (index < 0) {
+      return;
+    }
+    int size = extractor.readSampleData(inputBuffers[index], 0);
+    if (size < 0) {
+      codec.queueInputBuffer(index, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+      inputDone = true;
+    } else {
+      codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+      extractor.advance();
+    }
+  }
+
+  private void copyLuminance(ByteBuffer buffer, byte[] luminance) {
+    // Decoders pad rows out to their stride; the slice height only matters past the luma plane
+    for (int y = 0; y < height; y++) {
+      buffer.position(info.offset + y * stride);
+      buffer.get(luminance, y * width, width);
+    }
+  }
+
+  @Override
+  public long getTimestampMicros() {
+    return timestampMicros;
+  }
+
+  @Override
+  public void close() {
+    codec.stop();
+    codec.release();
+    extractor.release();
+  }
+
+}
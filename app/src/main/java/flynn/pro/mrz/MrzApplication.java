@@ -0,0 +1,28 @@
+package flynn.pro.mrz;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+
+
+/**
+ * Starts loading the OCR engines as soon as the process starts, while the capture screen is
+ * still being laid out.
+ */
+public class MrzApplication extends Application {
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    OcrEngineProvider.get(this).prewarm();
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      OcrFrameSession.trimMemory();
+      BitmapPool.get().clear();
+    }
+  }
+
+}
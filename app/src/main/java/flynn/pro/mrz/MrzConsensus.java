@@ -0,0 +1,107 @@
+package flynn.pro.mrz;
+
+
+/**
+ * Votes on every MRZ character position over the last few frames, weighting each frame's
+ * character by Tesseract's confidence in it, and reports the voted MRZ as soon as it passes all
+ * of its check digits. A frame that gets one or two characters wrong still contributes every
+ * character it got right. A voted MRZ that still fails its check digits goes through
+ * {@link MrzCorrector} before it is given up on.
+ *
+ * Not thread safe; feed it from the thread that receives decode results in frame order.
+ */
+public final class MrzConsensus {
+
+  static final int DEFAULT_HISTORY = 6;
+
+  private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ<";
+  private static final int MAX_LENGTH = 3 * 30;
+
+  private final int history;
+  private final char[][] frames;
+  private final float[][] weights;
+  private final float[] votes = new float[ALPHABET.length()];
+  private final char[] voted = new char[MAX_LENGTH];
+  private final float[] support = new float[MAX_LENGTH];
+  private final MrzCorrector corrector = new MrzCorrector();
+  private MrzFormat format;
+  private int frameCount;
+  private int nextFrame;
+
+  public MrzConsensus() {
+    this(DEFAULT_HISTORY);
+  }
+
+  public MrzConsensus(int history) {
+    this.history = history;
+    frames = new char[history][MAX_LENGTH];
+    weights = new float[history][MAX_LENGTH];
+  }
+
+  public void reset() {
+    format = null;
+    frameCount = 0;
+    nextFrame = 0;
+  }
+
+  /**
+   * Adds one frame of MRZ characters, concatenated without line separators, with one
+   * confidence (0-100) per character. Frames whose layout differs from the frames already held
+   * start a new vote. Returns the voted MRZ lines joined by newlines if it passes every check
+   * digit, or null otherwise.
+   */
+  public String add(char[] mrz, float[] confidences, MrzFormat frameFormat) {
+    if (frameFormat != format) {
+      reset();
+      format = frameFormat;
+    }
+    int length = format.getLength();
+    System.arraycopy(mrz, 0, frames[nextFrame], 0, length);
+    System.arraycopy(confidences, 0, weights[nextFrame], 0, length);
+    nextFrame = (nextFrame + 1) % history;
+    if (frameCount < history) {
+      frameCount++;
+    }
+
+    for (int position = 0; position < length; position++) {
+      voted[position] = vote(position);
+    }
+    if (!format.isValid(voted) && !corrector.correct(voted, format, support)) {
+      return null;
+    }
+    int lineLength = format.getLineLength();
+    StringBuilder result = new StringBuilder(length + format.getLineCount());
+    for (int line = 0; line < format.getLineCount(); line++) {
+      if (line > 0) {
+        result.append('\n');
+      }
+      result.append(voted, line * lineLength, lineLength);
+    }
+    return result.toString();
+  }
+
+  private char vote(int position) {
+    for (int i = 0; i < votes.length; i++) {
+      votes[i] = 0f;
+    }
+    for (int frame = 0; frame < frameCount; frame++) {
+      int symbol = ALPHABET.indexOf(frames[frame][position]);
+      if (symbol >= 0) {
+        // Never let a zero confidence silence a frame completely
+        votes[symbol] += Math.max(weights[frame][position], 1f);
+      }
+    }
+    int best = ALPHABET.length() - 1;
+    float total = 0f;
+    for (int i = 0; i < votes.length; i++) {
+      total += votes[i];
+      if (votes[i] > votes[best]) {
+        best = i;
+      }
+    }
+    // The winner's margin over everything else; the corrector touches the weakest winners first
+    support[position] = 2f * votes[best] - total;
+    return ALPHABET.charAt(best);
+  }
+
+}
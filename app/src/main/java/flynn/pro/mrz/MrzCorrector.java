@@ -0,0 +1,254 @@
+package flynn.pro.mrz;
+
+import java.util.Arrays;
+
+/**
+ * Repairs the OCR-B confusions Tesseract typically makes on an MRZ (O/0, I/1, B/8, S/5, Z/2 and
+ * friends) using what each position is allowed to contain and the ICAO check digits.
+ *
+ * Positions that may only hold digits or only letters are coerced first. Each checked field
+ * that still fails is then searched for the smallest set of confusion swaps on its
+ * alphanumeric positions that satisfies its check digit. Since a check digit only rules out
+ * nine in ten wrong candidates, several repairs often qualify; the one touching the characters
+ * Tesseract was least sure of wins, and a field whose repairs cannot be told apart is left
+ * failing rather than guessed.
+ */
+public final class MrzCorrector {
+
+  private static final char ALPHA = 'A';
+  private static final char NUMERIC = 'N';
+  private static final char ALPHANUMERIC = 'X';
+
+  private static final String LETTERS_READ_AS_DIGITS = "OQDUILZSGTB";
+  private static final String DIGITS_FOR_LETTERS = "00001125678";
+  private static final String DIGITS_READ_AS_LETTERS = "01245678";
+  private static final String LETTERS_FOR_DIGITS = "OIZASGTB";
+
+  private static final String[] CHARACTER_CLASSES = new String[MrzFormat.values().length];
+  static {
+    for (MrzFormat format : MrzFormat.values()) {
+      CHARACTER_CLASSES[format.ordinal()] = buildCharacterClasses(format);
+    }
+  }
+
+  private final int[] candidates = new int[MrzFormat.TD1.getLength()];
+  private float[] confidences;
+
+  /**
+   * Corrects the concatenated MRZ characters in place. Returns true if every check digit of
+   * the result passes.
+   */
+  public boolean correct(char[] mrz, MrzFormat format) {
+    return correct(mrz, format, null);
+  }
+
+  /**
+   * Like {@link #correct(char[], MrzFormat)}, using per-character confidences (any scale,
+   * higher is surer) to choose between repairs that all satisfy a check digit.
+   */
+  public boolean correct(char[] mrz, MrzFormat format, float[] confidences) {
+    this.confidences = confidences;
+    String classes = CHARACTER_CLASSES[format.ordinal()];
+    for (int i = 0; i < format.getLength(); i++) {
+      mrz[i] = coerce(mrz[i], classes.charAt(i));
+    }
+
+    for (int field = 0; field < format.getCheckedFieldCount(); field++) {
+      int[] range = format.getCheckedField(field);
+      if (!format.isFieldValid(mrz, range) && !repair(mrz, format, classes, range)) {
+        return false;
+      }
+    }
+    if (format.hasComposite() && !format.isCompositeValid(mrz)) {
+      return repairComposite(mrz, format, classes);
+    }
+    return true;
+  }
+
+  private boolean repair(char[] mrz, MrzFormat format, String classes, int[] field) {
+    int count = 0;
+    for (int i = field[0]; i < field[1]; i++) {
+      if (classes.charAt(i) == ALPHANUMERIC && alternative(mrz[i]) != 0) {
+        candidates[count++] = i;
+      }
+    }
+
+    // Single swaps first, then pairs; give up when the best repair is not clear-cut.
+    int solutionA = -1;
+    int solutionB = -1;
+    boolean ambiguous = false;
+    float best = Float.MAX_VALUE;
+    for (int a = 0; a < count; a++) {
+      if (isValidWith(mrz, format, field, candidates[a], -1)) {
+        float cost = confidence(candidates[a]);
+        if (solutionA < 0 || cost < best) {
+          solutionA = a;
+          best = cost;
+          ambiguous = false;
+        } else if (cost == best) {
+          ambiguous = true;
+        }
+      }
+    }
+    if (solutionA < 0) {
+      for (int a = 0; a < count; a++) {
+        for (int b = a + 1; b < count; b++) {
+          if (isValidWith(mrz, format, field, candidates[a], candidates[b])) {
+            float cost = confidence(candidates[a]) + confidence(candidates[b]);
+            if (solutionA < 0 || cost < best) {
+              solutionA = a;
+              solutionB = b;
+              best = cost;
+              ambiguous = false;
+            } else if (cost == best) {
+              ambiguous = true;
+            }
+          }
+        }
+      }
+    }
+    if (solutionA < 0 || ambiguous) {
+      return false;
+    }
+    swap(mrz, candidates[solutionA]);
+    if (solutionB >= 0) {
+      swap(mrz, candidates[solutionB]);
+    }
+    return true;
+  }
+
+  private boolean repairComposite(char[] mrz, MrzFormat format, String classes) {
+    // Every checked field is valid by now, so only the unchecked optional data can be at fault.
+    int count = 0;
+    for (int i = 0; i < format.getLength(); i++) {
+      if (classes.charAt(i) == ALPHANUMERIC && !isInCheckedField(format, i)
+          && alternative(mrz[i]) != 0) {
+        candidates[count++] = i;
+      }
+    }
+    int solution = -1;
+    for (int a = 0; a < count; a++) {
+      swap(mrz, candidates[a]);
+      boolean valid = format.isCompositeValid(mrz);
+      swap(mrz, candidates[a]);
+      if (valid) {
+        if (solution >= 0) {
+          return false;
+        }
+        solution = a;
+      }
+    }
+    if (solution < 0) {
+      return false;
+    }
+    swap(mrz, candidates[solution]);
+    return true;
+  }
+
+  private float confidence(int index) {
+    return confidences == null ? 0f : confidences[index];
+  }
+
+  private static boolean isValidWith(char[] mrz, MrzFormat format, int[] field, int first,
+                                     int second) {
+    swap(mrz, first);
+    if (second >= 0) {
+      swap(mrz, second);
+    }
+    boolean valid = format.isFieldValid(mrz, field);
+    if (second >= 0) {
+      swap(mrz, second);
+    }
+    swap(mrz, first);
+    return valid;
+  }
+
+  private static boolean isInCheckedField(MrzFormat format, int index) {
+    for (int field = 0; field < format.getCheckedFieldCount(); field++) {
+      int[] range = format.getCheckedField(field);
+      if (index >= range[0] && index <= range[2]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Swaps the character at index with its confusion partner; applying it twice restores it. */
+  private static void swap(char[] mrz, int index) {
+    mrz[index] = alternative(mrz[index]);
+  }
+
+  private static char alternative(char c) {
+    switch (c) {
+      case '0': return 'O';
+      case 'O': return '0';
+      case '1': return 'I';
+      case 'I': return '1';
+      case '8': return 'B';
+      case 'B': return '8';
+      case '5': return 'S';
+      case 'S': return '5';
+      case '2': return 'Z';
+      case 'Z': return '2';
+      case '6': return 'G';
+      case 'G': return '6';
+      default: return 0;
+    }
+  }
+
+  private static char coerce(char c, char characterClass) {
+    if (characterClass == NUMERIC && c >= 'A' && c <= 'Z') {
+      int i = LETTERS_READ_AS_DIGITS.indexOf(c);
+      return i >= 0 ? DIGITS_FOR_LETTERS.charAt(i) : c;
+    }
+    if (characterClass == ALPHA && c >= '0' && c <= '9') {
+      int i = DIGITS_READ_AS_LETTERS.indexOf(c);
+      return i >= 0 ? LETTERS_FOR_DIGITS.charAt(i) : c;
+    }
+    return c;
+  }
+
+  private static String buildCharacterClasses(MrzFormat format) {
+    char[] classes = new char[format.getLength()];
+    // Document codes, issuing states, names, nationalities and sex are alphabetic; everything
+    // under a check digit is alphanumeric unless it is a date. Optional data is alphanumeric.
+    Arrays.fill(classes, ALPHA);
+    for (int field = 0; field < format.getCheckedFieldCount(); field++) {
+      int[] range = format.getCheckedField(field);
+      Arrays.fill(classes, range[0], range[1], ALPHANUMERIC);
+      classes[range[2]] = NUMERIC;
+    }
+    int line = format.getLineLength();
+    switch (format) {
+      case TD1:
+        fill(classes, line + 0, line + 6, NUMERIC);
+        fill(classes, line + 8, line + 14, NUMERIC);
+        fill(classes, 15, line, ALPHANUMERIC);
+        fill(classes, line + 18, line + 29, ALPHANUMERIC);
+        classes[line + 29] = NUMERIC;
+        break;
+      case TD2:
+      case MRV_B:
+      case TD3:
+      case MRV_A:
+        fill(classes, line + 13, line + 19, NUMERIC);
+        fill(classes, line + 21, line + 27, NUMERIC);
+        int optionalEnd = format.hasComposite() ? 2 * line - 1 : 2 * line;
+        for (int i = line + 28; i < optionalEnd; i++) {
+          if (classes[i] == ALPHA) {
+            classes[i] = ALPHANUMERIC;
+          }
+        }
+        if (format.hasComposite()) {
+          classes[2 * line - 1] = NUMERIC;
+        }
+        break;
+    }
+    return new String(classes);
+  }
+
+  private static void fill(char[] classes, int start, int end, char characterClass) {
+    Arrays.fill(classes, start, end, characterClass);
+  }
+
+}
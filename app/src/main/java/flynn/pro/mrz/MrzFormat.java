@@ -0,0 +1,162 @@
+package flynn.pro.mrz;
+
+
+/**
+ * ICAO 9303 machine readable zone layouts and their check digits.
+ *
+ * An MRZ is handled as its lines concatenated without separators, so position {@code p} of
+ * line {@code l} is at index {@code l * lineLength + p}.
+ */
+public enum MrzFormat {
+
+  /** ID cards, 3 lines of 30 characters. */
+  TD1(3, 30, new int[][] {
+      {5, 14, 14},
+      {30, 36, 36},
+      {38, 44, 44},
+  }, new int[][] {{5, 30}, {30, 37}, {38, 45}, {48, 59}}, 59),
+
+  /** Official travel documents, 2 lines of 36 characters. */
+  TD2(2, 36, new int[][] {
+      {36, 45, 45},
+      {49, 55, 55},
+      {57, 63, 63},
+  }, new int[][] {{36, 46}, {49, 56}, {57, 71}}, 71),
+
+  /** Passports, 2 lines of 44 characters. */
+  TD3(2, 44, new int[][] {
+      {44, 53, 53},
+      {57, 63, 63},
+      {65, 71, 71},
+      {72, 86, 86},
+  }, new int[][] {{44, 54}, {57, 64}, {65, 87}}, 87),
+
+  /** Type A visas, 2 lines of 44 characters without a composite check digit. */
+  MRV_A(2, 44, new int[][] {
+      {44, 53, 53},
+      {57, 63, 63},
+      {65, 71, 71},
+  }, null, -1),
+
+  /** Type B visas, 2 lines of 36 characters without a composite check digit. */
+  MRV_B(2, 36, new int[][] {
+      {36, 45, 45},
+      {49, 55, 55},
+      {57, 63, 63},
+  }, null, -1);
+
+  private static final int[] WEIGHTS = {7, 3, 1};
+
+  private final int lineCount;
+  private final int lineLength;
+  private final int[][] checkedFields;
+  private final int[][] compositeRanges;
+  private final int compositeCheckDigit;
+
+  MrzFormat(int lineCount, int lineLength, int[][] checkedFields, int[][] compositeRanges,
+            int compositeCheckDigit) {
+    this.lineCount = lineCount;
+    this.lineLength = lineLength;
+    this.checkedFields = checkedFields;
+    this.compositeRanges = compositeRanges;
+    this.compositeCheckDigit = compositeCheckDigit;
+  }
+
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  public int getLineLength() {
+    return lineLength;
+  }
+
+  public int getLength() {
+    return lineCount * lineLength;
+  }
+
+  /**
+   * Returns the format for the given line layout, telling visas from passports and TD2 documents
+   * by the leading 'V' of the first line. Returns null for a layout no format uses.
+   */
+  public static MrzFormat forLayout(int lineCount, int lineLength, char firstCharacter) {
+    if (lineCount == 3 && lineLength == 30) {
+      return TD1;
+    }
+    if (lineCount == 2 && lineLength == 36) {
+      return firstCharacter == 'V' ? MRV_B : TD2;
+    }
+    if (lineCount == 2 && lineLength == 44) {
+      return firstCharacter == 'V' ? MRV_A : TD3;
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if every check digit of the concatenated MRZ characters matches.
+   */
+  public boolean isValid(char[] mrz) {
+    for (int[] field : checkedFields) {
+      if (!isFieldValid(mrz, field)) {
+        return false;
+      }
+    }
+    return compositeRanges == null || isCompositeValid(mrz);
+  }
+
+  int getCheckedFieldCount() {
+    return checkedFields.length;
+  }
+
+  /** Start (inclusive), end (exclusive) and check digit index of the given checked field. */
+  int[] getCheckedField(int field) {
+    return checkedFields[field];
+  }
+
+  boolean isFieldValid(char[] mrz, int[] field) {
+    char check = mrz[field[2]];
+    if (check == '<' && this == TD3 && field[0] == 72) {
+      // An empty personal number may carry a filler instead of a check digit
+      return checkDigit(mrz, field[0], field[1]) == 0;
+    }
+    return check == (char) ('0' + checkDigit(mrz, field[0], field[1]));
+  }
+
+  boolean hasComposite() {
+    return compositeRanges != null;
+  }
+
+  boolean isCompositeValid(char[] mrz) {
+    int sum = 0;
+    int weight = 0;
+    for (int[] range : compositeRanges) {
+      for (int i = range[0]; i < range[1]; i++) {
+        sum += characterValue(mrz[i]) * WEIGHTS[weight];
+        weight = (weight + 1) % 3;
+      }
+    }
+    return mrz[compositeCheckDigit] == (char) ('0' + sum % 10);
+  }
+
+  /**
+   * ICAO 9303 check digit over mrz[start, end): digits count as their value, letters A-Z as
+   * 10-35 and fillers as 0, weighted 7, 3, 1 repeating.
+   */
+  public static int checkDigit(char[] mrz, int start, int end) {
+    int sum = 0;
+    for (int i = start, weight = 0; i < end; i++, weight = (weight + 1) % 3) {
+      sum += characterValue(mrz[i]) * WEIGHTS[weight];
+    }
+    return sum % 10;
+  }
+
+  static int characterValue(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'A' && c <= 'Z') {
+      return c - 'A' + 10;
+    }
+    return 0;
+  }
+
+}
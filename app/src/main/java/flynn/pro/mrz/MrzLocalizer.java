@@ -0,0 +1,286 @@
+package flynn.pro.mrz;
+
+
+/**
+ * Finds the 2 or 3 OCR-B lines of a machine readable zone in a luminance image, so that only
+ * that band has to go through Tesseract.
+ *
+ * Rows are scored by the number of strong horizontal intensity transitions they contain. MRZ
+ * lines are dense, evenly spaced runs of such rows spanning most of the image width. The skew
+ * of the band is estimated by shearing the transition map and keeping the angle with the
+ * sharpest row profile.
+ *
+ * Instances keep their working arrays between calls and are not thread safe; use one per
+ * decode worker.
+ */
+public final class MrzLocalizer {
+
+  private static final int EDGE_THRESHOLD = 24;
+  private static final int SAMPLE_STEP = 2;
+  private static final float ROW_THRESHOLD_FRACTION = 0.35f;
+  private static final float MIN_ROW_DENSITY = 0.08f;
+  private static final float MIN_BAND_WIDTH_FRACTION = 0.6f;
+  private static final int MAX_CANDIDATE_LINES = 32;
+  private static final float MAX_SKEW_DEGREES = 5f;
+  private static final float SKEW_STEP_DEGREES = 0.5f;
+
+  private final float[] skewTangents;
+  private final float[] skewDegrees;
+  private final int[] lineTop = new int[MAX_CANDIDATE_LINES];
+  private final int[] lineBottom = new int[MAX_CANDIDATE_LINES];
+  private final Band band = new Band();
+  private int[] rowEnergy = new int[0];
+  private int[] smoothedEnergy = new int[0];
+  private int[] columnEnergy = new int[0];
+  private int[] skewProfile = new int[0];
+
+  public MrzLocalizer() {
+    int steps = (int) (2 * MAX_SKEW_DEGREES / SKEW_STEP_DEGREES) + 1;
+    skewTangents = new float[steps];
+    skewDegrees = new float[steps];
+    for (int i = 0; i < steps; i++) {
+      skewDegrees[i] = -MAX_SKEW_DEGREES + i * SKEW_STEP_DEGREES;
+      skewTangents[i] = (float) Math.tan(Math.toRadians(skewDegrees[i]));
+    }
+  }
+
+  /**
+   * Returns the MRZ band found in the given width x height luminance matrix, or null if the
+   * image does not contain anything that looks like 2 or 3 MRZ lines. The returned band is
+   * reused by the next call.
+   */
+  public Band localize(byte[] luminance, int width, int height) {
+    if (width < 4 * SAMPLE_STEP || height < 8) {
+      return null;
+    }
+    ensureCapacity(width, height);
+    computeRowEnergy(luminance, width, height);
+    int lineCount = findLines(width, height);
+    if (lineCount < 2) {
+      return null;
+    }
+
+    for (int i = lineCount - 1; i >= 1; i--) {
+      // Prefer three line TD1 zones, then two line TD2/TD3 zones, searching from the bottom up
+      // since that is where the MRZ sits on every document.
+      for (int lines = 3; lines >= 2; lines--) {
+        int first = i - lines + 1;
+        if (first < 0 || !isEvenlySpaced(first, lines)) {
+          continue;
+        }
+        if (buildBand(luminance, width, height, first, lines)) {
+          return band;
+        }
+      }
+    }
+    return null;
+  }
+
+  private void ensureCapacity(int width, int height) {
+    if (rowEnergy.length < height) {
+      rowEnergy = new int[height];
+      smoothedEnergy = new int[height];
+    }
+    if (columnEnergy.length < width) {
+      columnEnergy = new int[width];
+    }
+    int profileLength = height + (int) Math.ceil(width * skewTangents[skewTangents.length - 1]) * 2 + 1;
+    if (skewProfile.length < profileLength) {
+      skewProfile = new int[profileLength];
+    }
+  }
+
+  private void computeRowEnergy(byte[] luminance, int width, int height) {
+    int limit = width - SAMPLE_STEP;
+    for (int y = 0, offset = 0; y < height; y++, offset += width) {
+      int count = 0;
+      for (int x = 0; x < limit; x += SAMPLE_STEP) {
+        int d = (luminance[offset + x + SAMPLE_STEP] & 0xff) - (luminance[offset + x] & 0xff);
+        if (d > EDGE_THRESHOLD || d < -EDGE_THRESHOLD) {
+          count++;
+        }
+      }
+      rowEnergy[y] = count;
+    }
+
+    int radius = Math.max(1, height / 100);
+    int sum = 0;
+    for (int y = 0; y < radius && y < height; y++) {
+      sum += rowEnergy[y];
+    }
+    for (int y = 0; y < height; y++) {
+      int add = y + radius;
+      int remove = y - radius - 1;
+      if (add < height) {
+        sum += rowEnergy[add];
+      }
+      if (remove >= 0) {
+        sum -= rowEnergy[remove];
+      }
+      smoothedEnergy[y] = sum / (2 * radius + 1);
+    }
+  }
+
+  private int findLines(int width, int height) {
+    int max = 0;
+    for (int y = 0; y < height; y++) {
+      if (smoothedEnergy[y] > max) {
+        max = smoothedEnergy[y];
+      }
+    }
+    int threshold = Math.max((int) (max * ROW_THRESHOLD_FRACTION),
+        (int) (width / SAMPLE_STEP * MIN_ROW_DENSITY));
+    int minLineHeight = Math.max(3, height / 40);
+
+    int lines = 0;
+    int start = -1;
+    for (int y = 0; y <= height; y++) {
+      boolean text = y < height && smoothedEnergy[y] >= threshold;
+      if (text && start < 0) {
+        start = y;
+      } else if (!text && start >= 0) {
+        if (y - start >= minLineHeight) {
+          if (lines == MAX_CANDIDATE_LINES) {
+            return lines;
+          }
+          lineTop[lines] = start;
+          lineBottom[lines] = y;
+          lines++;
+        }
+        start = -1;
+      }
+    }
+    return lines;
+  }
+
+  private boolean isEvenlySpaced(int first, int lines) {
+    int firstHeight = lineBottom[first] - lineTop[first];
+    for (int i = first + 1; i < first + lines; i++) {
+      int lineHeight = lineBottom[i] - lineTop[i];
+      if (lineHeight * 5 < firstHeight * 3 || lineHeight * 3 > firstHeight * 5) {
+        return false;
+      }
+      int gap = lineTop[i] - lineBottom[i - 1];
+      if (gap * 2 > firstHeight * 3) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean buildBand(byte[] luminance, int width, int height, int first, int lines) {
+    int top = lineTop[first];
+    int bottom = lineBottom[first + lines - 1];
+    int lineHeight = (bottom - top) / (2 * lines - 1);
+
+    int limit = width - SAMPLE_STEP;
+    for (int x = 0; x < limit; x += SAMPLE_STEP) {
+      columnEnergy[x] = 0;
+    }
+    for (int y = top, offset = top * width; y < bottom; y++, offset += width) {
+      for (int x = 0; x < limit; x += SAMPLE_STEP) {
+        int d = (luminance[offset + x + SAMPLE_STEP] & 0xff) - (luminance[offset + x] & 0xff);
+        if (d > EDGE_THRESHOLD || d < -EDGE_THRESHOLD) {
+          columnEnergy[x]++;
+        }
+      }
+    }
+    int left = -1;
+    int right = -1;
+    for (int x = 0; x < limit; x += SAMPLE_STEP) {
+      if (columnEnergy[x] > 0) {
+        if (left < 0) {
+          left = x;
+        }
+        right = x + SAMPLE_STEP;
+      }
+    }
+    if (left < 0 || right - left < width * MIN_BAND_WIDTH_FRACTION) {
+      return false;
+    }
+
+    int padY = Math.max(2, lineHeight / 2);
+    int padX = Math.max(2, lineHeight);
+    band.left = Math.max(0, left - padX);
+    band.right = Math.min(width, right + padX);
+    band.top = Math.max(0, top - padY);
+    band.bottom = Math.min(height, bottom + padY);
+    band.lineCount = lines;
+    band.skewDegrees = estimateSkew(luminance, width, band);
+    return true;
+  }
+
+  private float estimateSkew(byte[] luminance, int width, Band band) {
+    int bandWidth = band.right - band.left;
+    int shift = (int) Math.ceil(bandWidth * skewTangents[skewTangents.length - 1]);
+    int profileLength = band.bottom - band.top + 2 * shift + 1;
+    int limit = band.right - SAMPLE_STEP;
+
+    long bestScore = -1;
+    float bestDegrees = 0f;
+    for (int a = 0; a < skewTangents.length; a++) {
+      float tangent = skewTangents[a];
+      for (int i = 0; i < profileLength; i++) {
+        skewProfile[i] = 0;
+      }
+      for (int y = band.top, offset = band.top * width; y < band.bottom; y++, offset += width) {
+        int row = y - band.top + shift;
+        for (int x = band.left; x < limit; x += 2 * SAMPLE_STEP) {
+          int d = (luminance[offset + x + SAMPLE_STEP] & 0xff) - (luminance[offset + x] & 0xff);
+          if (d > EDGE_THRESHOLD || d < -EDGE_THRESHOLD) {
+            skewProfile[row - (int) ((x - band.left) * tangent)]++;
+          }
+        }
+      }
+      long score = 0;
+      for (int i = 0; i < profileLength; i++) {
+        score += (long) skewProfile[i] * skewProfile[i];
+      }
+      if (score > bestScore) {
+        bestScore = score;
+        bestDegrees = skewDegrees[a];
+      }
+    }
+    return bestDegrees;
+  }
+
+  /**
+   * Bounds of a located MRZ, in the coordinates of the luminance matrix it was found in.
+   */
+  public static final class Band {
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+    private int lineCount;
+    private float skewDegrees;
+
+    public int getLeft() {
+      return left;
+    }
+
+    public int getTop() {
+      return top;
+    }
+
+    public int getWidth() {
+      return right - left;
+    }
+
+    public int getHeight() {
+      return bottom - top;
+    }
+
+    public int getLineCount() {
+      return lineCount;
+    }
+
+    /**
+     * Angle of the text lines, positive when they descend to the right (a clockwise skew).
+     */
+    public float getSkewDegrees() {
+      return skewDegrees;
+    }
+  }
+
+}
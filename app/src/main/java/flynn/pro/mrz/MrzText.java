@@ -0,0 +1,79 @@
+package flynn.pro.mrz;
+
+
+/**
+ * The MRZ lines recognized in one frame, normalized by {@link MrzTextNormalizer}. A normalizer
+ * fills in the same instance on every call, so whatever keeps the lines beyond the next call,
+ * or hands them to another thread, keeps a {@link #copy()}.
+ */
+public final class MrzText {
+
+  private CharSequence text;
+  private MrzFormat format;
+  private int lineCount;
+  private int lineLength;
+  private char[] characters;
+  private float[] confidences;
+
+  MrzText() {
+  }
+
+  void set(CharSequence text, MrzFormat format, int lineCount, int lineLength,
+           char[] characters, float[] confidences) {
+    this.text = text;
+    this.format = format;
+    this.lineCount = lineCount;
+    this.lineLength = lineLength;
+    this.characters = characters;
+    this.confidences = confidences;
+  }
+
+  /**
+   * Returns a copy that owns its text and arrays.
+   */
+  public MrzText copy() {
+    MrzText copy = new MrzText();
+    copy.set(text.toString(), format, lineCount, lineLength,
+        characters != null ? characters.clone() : null,
+        confidences != null ? confidences.clone() : null);
+    return copy;
+  }
+
+  /**
+   * The kept lines, each followed by a newline, for display.
+   */
+  public String getText() {
+    return text.toString();
+  }
+
+  /**
+   * The layout the kept lines form, or null if they do not form a known MRZ layout.
+   */
+  public MrzFormat getFormat() {
+    return format;
+  }
+
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  public int getLineLength() {
+    return lineLength;
+  }
+
+  /**
+   * The kept lines concatenated without separators, or null if there is no format.
+   */
+  public char[] getCharacters() {
+    return characters;
+  }
+
+  /**
+   * Tesseract's confidence (0-100) in each of {@link #getCharacters()}, or null if there is no
+   * format.
+   */
+  public float[] getConfidences() {
+    return confidences;
+  }
+
+}
@@ -0,0 +1,98 @@
+package flynn.pro.mrz;
+
+
+/**
+ * Turns Tesseract's text for an MRZ band into {@link MrzText} in one pass over the characters.
+ * Lines of 10 characters or fewer are dropped and whitespace is stripped. Lowercase letters and
+ * the usual misreadings of the '&lt;' filler are mapped back onto the MRZ alphabet, and the kept
+ * lines are classified by their count and length.
+ *
+ * Instances keep their working buffers, and the {@link MrzText} they return, between calls and
+ * are not thread safe; use one per decode worker.
+ */
+public final class MrzTextNormalizer {
+
+  private static final int MIN_LINE_LENGTH = 11;
+
+  private final StringBuilder text = new StringBuilder(3 * (44 + 1));
+  private char[] characters = new char[0];
+  private float[] confidences = new float[0];
+  private char[] mrzCharacters = new char[0];
+  private float[] mrzConfidences = new float[0];
+  private final MrzText mrzText = new MrzText();
+
+  /**
+   * Normalizes the given Tesseract text. Symbol confidences, if not null, hold one entry per
+   * non-whitespace character of the text, in order. The returned text is this normalizer's and
+   * changes on the next call.
+   */
+  public MrzText normalize(String rawText, float[] symbolConfidences) {
+    int rawLength = rawText.length();
+    if (characters.length < rawLength) {
+      characters = new char[rawLength];
+      confidences = new float[rawLength];
+    }
+    text.setLength(0);
+
+    int length = 0;
+    int lineStart = 0;
+    int lineCount = 0;
+    int lineLength = -1;
+    boolean uniform = true;
+    int symbol = 0;
+    for (int i = 0; i <= rawLength; i++) {
+      char c = i < rawLength ? rawText.charAt(i) : '\n';
+      if (c == '\n') {
+        int current = length - lineStart;
+        if (current >= MIN_LINE_LENGTH) {
+          text.append(characters, lineStart, current).append('\n');
+          uniform &= lineLength < 0 || current == lineLength;
+          lineLength = current;
+          lineCount++;
+        } else {
+          length = lineStart;
+        }
+        lineStart = length;
+      } else if (!Character.isWhitespace(c)) {
+        characters[length] = map(c);
+        confidences[length] = symbolConfidences != null && symbol < symbolConfidences.length
+            ? symbolConfidences[symbol] : 0f;
+        length++;
+        symbol++;
+      }
+    }
+
+    MrzFormat format = uniform && length > 0
+        ? MrzFormat.forLayout(lineCount, lineLength, characters[0]) : null;
+    if (format == null) {
+      mrzText.set(text, null, lineCount, uniform ? lineLength : -1, null, null);
+      return mrzText;
+    }
+    // Every frame of one document has the same length, so these are rarely reallocated
+    if (mrzCharacters.length != length) {
+      mrzCharacters = new char[length];
+      mrzConfidences = new float[length];
+    }
+    System.arraycopy(characters, 0, mrzCharacters, 0, length);
+    System.arraycopy(confidences, 0, mrzConfidences, 0, length);
+    mrzText.set(text, format, lineCount, lineLength, mrzCharacters, mrzConfidences);
+    return mrzText;
+  }
+
+  private static char map(char c) {
+    if (c >= 'a' && c <= 'z') {
+      return (char) (c - 'a' + 'A');
+    }
+    switch (c) {
+      case '\u00ab': // left guillemet
+      case '\u2039': // single left angle quotation mark
+      case '(':
+      case '[':
+      case '{':
+        return '<';
+      default:
+        return c;
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+package flynn.pro.mrz;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.Pixa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import flynn.pro.mrz.metrics.Gauge;
+import flynn.pro.mrz.metrics.PipelineMetrics;
+
+
+/**
+ * Frees the Leptonica images a decode allocates, however it ends. Images added to a scope are
+ * recycled when it closes unless they were detached first, which hands them to an owner that
+ * outlives the decode, such as an {@link OcrResult}; that owner frees them with
+ * {@link #recycle(Pix)}. Every image the pipeline allocates is counted in the
+ * {@link Gauge#NATIVE_IMAGES} and {@link Gauge#NATIVE_IMAGE_BYTES} gauges until it is freed, so
+ * a leak shows as a level that keeps rising over a long session.
+ *
+ * A scope is not thread safe; the counts are.
+ */
+final class NativeImageScope {
+
+  private static final PipelineMetrics METRICS = PipelineMetrics.get();
+
+  private final List<Object> images = new ArrayList<>(4);
+
+  /**
+   * Counts a newly allocated image, which the caller goes on to own, and returns it.
+   */
+  static Pix track(Pix pix) {
+    if (pix != null) {
+      METRICS.add(Gauge.NATIVE_IMAGES, 1L);
+      METRICS.add(Gauge.NATIVE_IMAGE_BYTES, byteCount(pix));
+    }
+    return pix;
+  }
+
+  /**
+   * Counts a newly allocated image array and returns it. Only the array is counted; the images
+   * in it belong to the engine that filled it.
+   */
+  static Pixa track(Pixa pixa) {
+    if (pixa != null) {
+      METRICS.add(Gauge.NATIVE_IMAGES, 1L);
+    }
+    return pixa;
+  }
+
+  /**
+   * Frees an image counted by {@link #track(Pix)}.
+   */
+  static void recycle(Pix pix) {
+    METRICS.add(Gauge.NATIVE_IMAGES, -1L);
+    METRICS.add(Gauge.NATIVE_IMAGE_BYTES, -byteCount(pix));
+    pix.recycle();
+  }
+
+  static void recycle(Pixa pixa) {
+    METRICS.add(Gauge.NATIVE_IMAGES, -1L);
+    pixa.recycle();
+  }
+
+  /**
+   * Counts a newly allocated image and frees it when the scope closes. Returns it, or null if
+   * Leptonica returned null.
+   */
+  Pix add(Pix pix) {
+    if (pix != null) {
+      images.add(track(pix));
+    }
+    return pix;
+  }
+
+  Pixa add(Pixa pixa) {
+    if (pixa != null) {
+      images.add(track(pixa));
+    }
+    return pixa;
+  }
+
+  /**
+   * Frees an image of this scope before the scope closes.
+   */
+  void free(Pix pix) {
+    if (remove(pix)) {
+      recycle(pix);
+    }
+  }
+
+  void free(Pixa pixa) {
+    if (remove(pixa)) {
+      recycle(pixa);
+    }
+  }
+
+  /**
+   * Takes an image out of the scope without freeing it, and returns it to its new owner.
+   */
+  Pix detach(Pix pix) {
+    remove(pix);
+    return pix;
+  }
+
+  /**
+   * Frees every image still in the scope. The scope can be used again afterwards.
+   */
+  void close() {
+    for (int i = images.size() - 1; i >= 0; i--) {
+      Object image = images.get(i);
+      if (image instanceof Pix) {
+        recycle((Pix) image);
+      } else {
+        recycle((Pixa) image);
+      }
+    }
+    images.clear();
+  }
+
+  private boolean remove(Object image) {
+    // Identity, not equality, decides which image is meant
+    for (int i = images.size() - 1; i >= 0; i--) {
+      if (images.get(i) == image) {
+        images.remove(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Bytes of pixel data in pix, with Leptonica's rows padded to whole 32 bit words.
+   */
+  private static long byteCount(Pix pix) {
+    return ((long) pix.getWidth() * pix.getDepth() + 31) / 32 * 4 * pix.getHeight();
+  }
+
+}
@@ -0,0 +1,77 @@
+package flynn.pro.mrz;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.io.File;
+
+
+/**
+ * How the Tesseract engines are set up, chosen in the preferences so the profiles can be
+ * compared on the same documents.
+ *
+ * The standard profile reads with the full language model and the character lists and page
+ * segmentation mode from the preferences. The MRZ profile loads no dictionaries, reads only the
+ * characters an MRZ can hold, one block at a time, and checks words against the MRZ patterns.
+ * Tesseract only takes dictionary settings while it loads a language, so that profile reads a
+ * language file of its own whose built-in config carries them.
+ */
+enum OcrEngineProfile {
+  STANDARD,
+  MRZ_FAST;
+
+  static final String MRZ_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789<";
+
+  private static final String MRZ_LANGUAGE_SUFFIX = "_mrz";
+  private static final String USER_PATTERNS_SUFFIX = ".user-patterns";
+
+  private static final String[] MRZ_INIT_VARIABLES = {
+      "load_system_dawg", TessBaseAPI.VAR_FALSE,
+      "load_freq_dawg", TessBaseAPI.VAR_FALSE,
+      "load_unambig_dawg", TessBaseAPI.VAR_FALSE,
+      "load_punc_dawg", TessBaseAPI.VAR_FALSE,
+      "load_number_dawg", TessBaseAPI.VAR_FALSE,
+      "load_bigram_dawg", TessBaseAPI.VAR_FALSE,
+      "tessedit_enable_doc_dict", TessBaseAPI.VAR_FALSE,
+      "language_model_penalty_non_dict_word", "0",
+      "language_model_penalty_non_freq_dict_word", "0",
+  };
+
+  /**
+   * Returns the language the engines load for the given language code.
+   */
+  String getLanguage(String languageCode) {
+    return this == MRZ_FAST ? languageCode + MRZ_LANGUAGE_SUFFIX : languageCode;
+  }
+
+  /**
+   * Returns the config to build into this profile's language file, or null if the profile
+   * reads the language as it is shipped.
+   */
+  String getInitConfig(File languageDataDirectory, String languageCode) {
+    if (this != MRZ_FAST) {
+      return null;
+    }
+    StringBuilder config = new StringBuilder();
+    for (int i = 0; i < MRZ_INIT_VARIABLES.length; i += 2) {
+      config.append(MRZ_INIT_VARIABLES[i]).append(' ').append(MRZ_INIT_VARIABLES[i + 1]).append('\n');
+    }
+    File patterns = new File(languageDataDirectory, languageCode + USER_PATTERNS_SUFFIX);
+    if (patterns.isFile()) {
+      config.append("user_patterns_file ").append(patterns.getAbsolutePath()).append('\n');
+    }
+    return config.toString();
+  }
+
+  /**
+   * Sets the variables that can change after the engine is loaded. The standard profile leaves
+   * them to the preferences.
+   */
+  void configure(TessBaseAPI baseApi) {
+    if (this == MRZ_FAST) {
+      baseApi.setPageSegMode(TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK);
+      baseApi.setVariable(TessBaseAPI.VAR_CHAR_BLACKLIST, "");
+      baseApi.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, MRZ_CHARACTERS);
+    }
+  }
+
+}
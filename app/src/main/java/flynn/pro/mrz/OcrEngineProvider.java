@@ -0,0 +1,279 @@
+package flynn.pro.mrz;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Owns the Tesseract engines for the whole process, so they outlive the activity that uses
+ * them. Engines are initialized one configuration at a time on a background thread, starting
+ * as the process starts; asking for the configuration that is loaded, or loading, returns the
+ * same future, and asking for another one ends the previous engines first.
+ *
+ * Whatever recognizes with the engines retains them for as long as it does, and the previous
+ * engines are only ended once every use has been released. A decode worker that outlives the
+ * wait for it to quit keeps its engine until it exits.
+ */
+final class OcrEngineProvider {
+
+  private static final String TAG = OcrEngineProvider.class.getSimpleName();
+
+  // Tesseract looks for <language>.traineddata under tessdata in the data path it is given
+  private static final String LANGUAGE_DATA_ASSETS = "MRZ_STORAGE_LOCATION";
+  private static final String LANGUAGE_DATA_DIRECTORY = "tessdata";
+  private static final String LANGUAGE_DATA_SUFFIX = ".traineddata";
+
+  private static OcrEngineProvider instance;
+
+  private final Context context;
+  private final ExecutorService executor;
+  private final File languageDataDirectory;
+  private final AssetExtractor languageDataExtractor;
+  private final Object engineUse = new Object();
+  // Uses of the handed out engines not yet released, guarded by engineUse
+  private int enginesInUse;
+  private Future<TessBaseAPI[]> engines;
+  private String languageCode;
+  private int ocrEngineMode;
+  private int engineCount;
+  private OcrEngineProfile profile;
+  // Touched only on the executor thread
+  private boolean languageDataInstalled;
+  private volatile String status = "";
+
+  private OcrEngineProvider(Context context) {
+    this.context = context.getApplicationContext();
+    languageDataDirectory = new File(this.context.getCacheDir(), LANGUAGE_DATA_DIRECTORY);
+    languageDataExtractor =
+        new AssetExtractor(this.context, LANGUAGE_DATA_ASSETS, languageDataDirectory);
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "OcrEngineInit");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+      }
+    });
+  }
+
+  static synchronized OcrEngineProvider get(Context context) {
+    if (instance == null) {
+      instance = new OcrEngineProvider(context);
+    }
+    return instance;
+  }
+
+  /**
+   * Starts loading engines for the configuration last saved in the preferences, so the capture
+   * screen finds them ready.
+   */
+  void prewarm() {
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    acquire(prefs.getString(PreferencesActivity.KEY_SOURCE_LANGUAGE_PREFERENCE,
+                            CaptureActivity.DEFAULT_SOURCE_LANGUAGE_CODE),
+            CaptureActivity.getOcrEngineMode(context.getResources(), prefs),
+            CaptureActivity.getDecodeWorkerCount(context.getResources(), prefs),
+            CaptureActivity.getOcrEngineProfile(context.getResources(), prefs));
+  }
+
+  /**
+   * Returns engines initialized for the given language, mode and profile, one per decode
+   * worker. The future fails with an IOException if the language data is missing or Tesseract
+   * rejects it.
+   */
+  synchronized Future<TessBaseAPI[]> acquire(final String languageCode, final int ocrEngineMode,
+                                             final int engineCount,
+                                             final OcrEngineProfile profile) {
+    if (engines != null && languageCode.equals(this.languageCode)
+        && ocrEngineMode == this.ocrEngineMode && engineCount == this.engineCount
+        && profile == this.profile && !hasFailed(engines)) {
+      return engines;
+    }
+    final Future<TessBaseAPI[]> previous = engines;
+    this.languageCode = languageCode;
+    this.ocrEngineMode = ocrEngineMode;
+    this.engineCount = engineCount;
+    this.profile = profile;
+    engines = executor.submit(new Callable<TessBaseAPI[]>() {
+      @Override
+      public TessBaseAPI[] call() throws IOException {
+        // The executor runs one task at a time, so the previous engines are done loading
+        if (previous != null) {
+          end(previous);
+        }
+        return initEngines(languageCode, ocrEngineMode, engineCount, profile);
+      }
+    });
+    return engines;
+  }
+
+  /**
+   * Initializes engines that belong to the caller alone, for work that runs beside the capture
+   * screen, and waits for them. The caller must end them.
+   */
+  TessBaseAPI[] newEngines(final String languageCode, final int ocrEngineMode,
+                           final int engineCount, final OcrEngineProfile profile)
+      throws IOException, InterruptedException {
+    Future<TessBaseAPI[]> future = executor.submit(new Callable<TessBaseAPI[]>() {
+      @Override
+      public TessBaseAPI[] call() throws IOException {
+        return initEngines(languageCode, ocrEngineMode, engineCount, profile);
+      }
+    });
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static boolean hasFailed(Future<TessBaseAPI[]> future) {
+    if (!future.isDone()) {
+      return false;
+    }
+    try {
+      future.get();
+      return false;
+    } catch (ExecutionException | InterruptedException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Marks the engines handed out by {@link #acquire} as in use until a matching
+   * {@link #release()}.
+   */
+  void retain() {
+    synchronized (engineUse) {
+      enginesInUse++;
+    }
+  }
+
+  void release() {
+    synchronized (engineUse) {
+      enginesInUse--;
+      engineUse.notifyAll();
+    }
+  }
+
+  private void end(Future<TessBaseAPI[]> future) {
+    TessBaseAPI[] baseApis;
+    try {
+      baseApis = future.get();
+    } catch (ExecutionException | InterruptedException e) {
+      // Nothing was left running
+      return;
+    }
+    synchronized (engineUse) {
+      while (enginesInUse > 0) {
+        try {
+          engineUse.wait();
+        } catch (InterruptedException e) {
+          // Leaking the engines beats ending one that is still recognizing
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+    for (TessBaseAPI baseApi : baseApis) {
+      baseApi.end();
+    }
+  }
+
+  /**
+   * What the loading thread is doing, for a progress dialog.
+   */
+  String getStatus() {
+    return status;
+  }
+
+  private TessBaseAPI[] initEngines(String languageCode, int ocrEngineMode, int engineCount,
+                                    OcrEngineProfile profile) throws IOException {
+    long start = System.currentTimeMillis();
+    if (!languageDataInstalled) {
+      extractLanguageData();
+    }
+    TessBaseAPI[] baseApis = startEngines(languageCode, ocrEngineMode, engineCount, profile);
+    if (baseApis == null) {
+      // The cache may have been cleared since the data was extracted
+      Log.w(TAG, "Tesseract rejected the language data, extracting it again");
+      languageDataExtractor.invalidate();
+      extractLanguageData();
+      baseApis = startEngines(languageCode, ocrEngineMode, engineCount, profile);
+    }
+    if (baseApis == null) {
+      throw new IOException("Could not initialize Tesseract for " + languageCode);
+    }
+    Log.i(TAG, engineCount + " OCR engines for " + languageCode + " (" + profile + ") ready in "
+        + (System.currentTimeMillis() - start) + " ms");
+    return baseApis;
+  }
+
+  private TessBaseAPI[] startEngines(String languageCode, int ocrEngineMode, int engineCount,
+                                     OcrEngineProfile profile) throws IOException {
+    String language = profile.getLanguage(languageCode);
+    if (!language.equals(languageCode)) {
+      writeProfileLanguage(languageCode, language, profile);
+    }
+    TessBaseAPI[] baseApis = new TessBaseAPI[engineCount];
+    for (int i = 0; i < baseApis.length; i++) {
+      status = "Initializing OCR engine " + (i + 1) + " of " + engineCount + "...";
+      baseApis[i] = new TessBaseAPI();
+      if (!baseApis[i].init(context.getCacheDir() + File.separator, language, ocrEngineMode)) {
+        for (int j = 0; j <= i; j++) {
+          baseApis[j].end();
+        }
+        return null;
+      }
+      profile.configure(baseApis[i]);
+    }
+    return baseApis;
+  }
+
+  /**
+   * Builds the profile's copy of the language data, unless one newer than the extracted data
+   * is already there.
+   */
+  private void writeProfileLanguage(String languageCode, String language,
+                                    OcrEngineProfile profile) throws IOException {
+    File source = new File(languageDataDirectory, languageCode + LANGUAGE_DATA_SUFFIX);
+    File destination = new File(languageDataDirectory, language + LANGUAGE_DATA_SUFFIX);
+    if (!source.isFile()) {
+      // Tesseract will fail on the missing language and the data will be extracted again
+      return;
+    }
+    if (destination.lastModified() >= source.lastModified()) {
+      return;
+    }
+    status = "Preparing language data...";
+    TraineddataConfigWriter.write(source, destination,
+        profile.getInitConfig(languageDataDirectory, languageCode));
+  }
+
+  private void extractLanguageData() throws IOException {
+    status = "Checking for data installation...";
+    languageDataExtractor.extract(new AssetExtractor.Listener() {
+      @Override
+      public void onProgress(int percent) {
+        status = "Extracting language data... " + percent + "%";
+      }
+    });
+    languageDataInstalled = true;
+  }
+
+}
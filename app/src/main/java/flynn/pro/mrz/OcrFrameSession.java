@@ -0,0 +1,105 @@
+package flynn.pro.mrz;
+
+import com.googlecode.leptonica.android.Box;
+import com.googlecode.leptonica.android.Clip;
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.ReadFile;
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * Keeps the image a Tesseract engine reads from one frame to the next. Frames of the same size
+ * are copied into the same 8 bpp Pix, which the engine already holds, and the part to read is
+ * picked with setRectangle, which drops the previous results without tearing down the engine's
+ * image or its adaptive classifier the way clear() does. Tesseract keeps a clone of the Pix it
+ * is given, sharing the pixels, so new pixels reach it without another setImage.
+ *
+ * The Pix is only freed when the frame size changes, when the app is asked to trim memory, or
+ * when the session is released. Not thread safe; one per engine.
+ */
+final class OcrFrameSession {
+
+  private static volatile int trimGeneration;
+
+  private final TessBaseAPI baseApi;
+  private Pix frameImage;
+  private boolean frameImageSet;
+  private int generation = trimGeneration;
+
+  OcrFrameSession(TessBaseAPI baseApi) {
+    this.baseApi = baseApi;
+  }
+
+  /**
+   * Makes every session free its image before the next frame.
+   */
+  static void trimMemory() {
+    trimGeneration++;
+  }
+
+  TessBaseAPI getEngine() {
+    return baseApi;
+  }
+
+  /**
+   * Copies a width x height 8 bpp frame into the retained image, reallocating it only if the
+   * size changed.
+   */
+  void loadFrame(byte[] pixels, int width, int height) {
+    if (generation != trimGeneration) {
+      generation = trimGeneration;
+      release();
+    }
+    if (frameImage != null
+        && (frameImage.getWidth() != width || frameImage.getHeight() != height
+            || !ReadFile.replaceBytes8(frameImage, pixels, width, height))) {
+      release();
+    }
+    if (frameImage == null) {
+      frameImage = NativeImageScope.track(ReadFile.readBytes8(pixels, width, height));
+    }
+  }
+
+  /**
+   * Points the engine at a region of the frame last loaded.
+   */
+  void setRegion(int left, int top, int width, int height) {
+    if (!frameImageSet) {
+      baseApi.setImage(frameImage);
+      frameImageSet = true;
+    }
+    baseApi.setRectangle(left, top, width, height);
+  }
+
+  /**
+   * Hands the engine an image of its own instead of the retained one. The caller keeps
+   * ownership of the Pix.
+   */
+  void setImage(Pix image) {
+    baseApi.setImage(image);
+    frameImageSet = false;
+  }
+
+  /**
+   * Returns a copy of a region of the frame last loaded, for a result to keep and free with
+   * {@link NativeImageScope#recycle(Pix)}.
+   */
+  Pix copyRegion(int left, int top, int width, int height) {
+    Box box = new Box(left, top, width, height);
+    Pix copy = NativeImageScope.track(Clip.clipRectangle(frameImage, box));
+    box.recycle();
+    return copy;
+  }
+
+  /**
+   * Drops the engine's results and image and frees the retained Pix.
+   */
+  void release() {
+    baseApi.clear();
+    frameImageSet = false;
+    if (frameImage != null) {
+      NativeImageScope.recycle(frameImage);
+      frameImage = null;
+    }
+  }
+
+}
@@ -1,7 +1,5 @@
 package flynn.pro.mrz;
 
-import android.graphics.Bitmap;
-import android.graphics.Rect;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
@@ -10,107 +8,100 @@ import android.util.Log;
 import com.googlecode.leptonica.android.Binarize;
 import com.googlecode.leptonica.android.Pix;
 import com.googlecode.leptonica.android.ReadFile;
-import com.googlecode.leptonica.android.WriteFile;
-import com.googlecode.tesseract.android.ResultIterator;
 import com.googlecode.tesseract.android.TessBaseAPI;
-import com.googlecode.tesseract.android.TessBaseAPI.PageIteratorLevel;
 
-import java.util.ArrayList;
+import flynn.pro.mrz.camera.CameraManager;
+import flynn.pro.mrz.camera.PreviewFrame;
 
 
 final class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean> {
 
 
   private CaptureActivity activity;
+  private OcrFrameSession frameSession;
   private TessBaseAPI baseApi;
-  private byte[] data;
-  private int width;
-  private int height;
+  private PreviewFrame frame;
   private OcrResult ocrResult;
   private long timeRequired;
 
-  OcrRecognizeAsyncTask(CaptureActivity activity, TessBaseAPI baseApi, byte[] data, int width, int height) {
+  OcrRecognizeAsyncTask(CaptureActivity activity, OcrFrameSession frameSession, PreviewFrame frame) {
     this.activity = activity;
-    this.baseApi = baseApi;
-    this.data = data;
-    this.width = width;
-    this.height = height;
+    this.frameSession = frameSession;
+    this.baseApi = frameSession.getEngine();
+    this.frame = frame;
+    // Created by a decode worker, which holds the engine until this task has it too
+    OcrEngineProvider.get(activity).retain();
   }
 
   @Override
   protected Boolean doInBackground(Void... arg0) {
+    try {
+      return recognize();
+    } finally {
+      OcrEngineProvider.get(activity).release();
+    }
+  }
+
+  private boolean recognize() {
     long start = System.currentTimeMillis();
-    Bitmap bitmap = activity.getCameraManager().buildLuminanceSource(data, width, height).renderCroppedGreyscaleBitmap();
+    CameraManager cameraManager = activity.getCameraManager();
+    LuminanceSource source = cameraManager.buildLuminanceSource(frame);
+    byte[] luminance = source.getMatrix();
     String textResult;
 
-    //      if (PERFORM_FISHER_THRESHOLDING) {
-    //        Pix thresholdedImage = Thresholder.fisherAdaptiveThreshold(ReadFile.readBitmap(bitmap), 48, 48, 0.1F, 2.5F);
-    //        Log.e("OcrRecognizeAsyncTask", "thresholding completed. converting to bmp. size:" + bitmap.getWidth() + "x" + bitmap.getHeight());
-    //        bitmap = WriteFile.writeBitmap(thresholdedImage);
-    //      }
-    //      if (PERFORM_OTSU_THRESHOLDING) {
-            Pix thresholdedImage = Binarize.otsuAdaptiveThreshold(ReadFile.readBitmap(bitmap));
-            Log.e("OcrRecognizeAsyncTask", "thresholding completed. converting to bmp. size:" + bitmap.getWidth() + "x" + bitmap.getHeight());
-            bitmap = WriteFile.writeBitmap(thresholdedImage);
-    //      }
-    //      if (PERFORM_SOBEL_THRESHOLDING) {
-    //        Pix thresholdedImage = Thresholder.sobelEdgeThreshold(ReadFile.readBitmap(bitmap), 64);
-    //        Log.e("OcrRecognizeAsyncTask", "thresholding completed. converting to bmp. size:" + bitmap.getWidth() + "x" + bitmap.getHeight());
-    //        bitmap = WriteFile.writeBitmap(thresholdedImage);
-    //      }
+    NativeImageScope imageScope = new NativeImageScope();
+    Thresholder thresholder = activity.getThresholdingMethod().newThresholder();
+    Pix thresholdedImage;
+    if (thresholder != null) {
+      luminance = thresholder.threshold(luminance, source.getWidth(), source.getHeight(), null);
+      thresholdedImage = imageScope.add(
+          ReadFile.readBytes8(luminance, source.getWidth(), source.getHeight()));
+    } else {
+      Pix greyImage = imageScope.add(
+          ReadFile.readBytes8(luminance, source.getWidth(), source.getHeight()));
+      thresholdedImage = imageScope.add(Binarize.otsuAdaptiveThreshold(greyImage));
+      imageScope.free(greyImage);
+    }
+    // The full frame's matrix may be the preview buffer itself
+    frame.release();
 
     try {     
-      baseApi.setImage(ReadFile.readBitmap(bitmap));
+      // The worker that made this task may have left its engine set up for a band
+      baseApi.setPageSegMode(activity.getPageSegmentationMode());
+      frameSession.setImage(thresholdedImage);
       textResult = baseApi.getUTF8Text();
       timeRequired = System.currentTimeMillis() - start;
 
       // Check for failure to recognize text
       if (textResult == null || textResult.equals("")) {
+        imageScope.close();
         return false;
       }
       ocrResult = new OcrResult();
-      ocrResult.setWordConfidences(baseApi.wordConfidences());
       ocrResult.setMeanConfidence( baseApi.meanConfidence());
-      ocrResult.setRegionBoundingBoxes(baseApi.getRegions().getBoxRects());
-      ocrResult.setTextlineBoundingBoxes(baseApi.getTextlines().getBoxRects());
-      ocrResult.setWordBoundingBoxes(baseApi.getWords().getBoxRects());
-      ocrResult.setStripBoundingBoxes(baseApi.getStrips().getBoxRects());
-
-
-      String[] textResultTmpArr = textResult.split("\n");
-      textResult = "";
-      for (int i=0;i<textResultTmpArr.length;i++){
-        if(textResultTmpArr[i].length() > 10){
-          textResult += textResultTmpArr[i]+'\n';
-        }
-      }
+      // The result screen only annotates words
+      DecodeHandler.extractLayout(baseApi, ocrResult, OcrResult.DetailLevel.WORDS, 0,
+          imageScope);
+
 
-      // Iterate through the results.
-      final ResultIterator iterator = baseApi.getResultIterator();
-      int[] lastBoundingBox;
-      ArrayList<Rect> charBoxes = new ArrayList<Rect>();
-      iterator.begin();
-      do {
-          lastBoundingBox = iterator.getBoundingBox(PageIteratorLevel.RIL_SYMBOL);
-          Rect lastRectBox = new Rect(lastBoundingBox[0], lastBoundingBox[1],
-                  lastBoundingBox[2], lastBoundingBox[3]);
-          charBoxes.add(lastRectBox);
-      } while (iterator.next(PageIteratorLevel.RIL_SYMBOL));
-      iterator.delete();
-      ocrResult.setCharacterBoundingBoxes(charBoxes);
+      MrzText mrzText = new MrzTextNormalizer().normalize(textResult, null);
+      ocrResult.setMrzText(mrzText);
+      textResult = mrzText.getText();
 
     } catch (RuntimeException e) {
       Log.e("OcrRecognizeAsyncTask", "Caught RuntimeException in request to Tesseract. Setting state to CONTINUOUS_STOPPED.");
       e.printStackTrace();
       try {
-        baseApi.clear();
+        frameSession.release();
         activity.stopHandler();
       } catch (NullPointerException e1) {
       }
+      imageScope.close();
       return false;
     }
     timeRequired = System.currentTimeMillis() - start;
-    ocrResult.setBitmap(bitmap);
+    ocrResult.setThresholdedImage(imageScope.detach(thresholdedImage));
+    imageScope.close();
     ocrResult.setText(textResult);
     ocrResult.setRecognitionTimeRequired(timeRequired);
     return true;
@@ -132,8 +123,5 @@ final class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean> {
       }
       activity.getProgressDialog().dismiss();
     }
-    if (baseApi != null) {
-      baseApi.clear();
-    }
   }
 }
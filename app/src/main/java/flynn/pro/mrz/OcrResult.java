@@ -7,15 +7,50 @@ import android.graphics.Paint.Style;
 import android.graphics.Point;
 import android.graphics.Rect;
 
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.WriteFile;
+
 import java.util.List;
 
 
 public class OcrResult {
+
+  /**
+   * How much of Tesseract's layout analysis a result carries, each level including the boxes of
+   * the levels before it. Boxes below the level are left null.
+   */
+  public enum DetailLevel {
+    /** Text and confidences only. */
+    NONE,
+    /** Region, text line and strip boxes. */
+    LINES,
+    /** Word boxes and word confidences. */
+    WORDS,
+    /** Character boxes. */
+    SYMBOLS
+  }
+
   private Bitmap bitmap;
+  // Whether bitmap came from the BitmapPool, to go back there when the result is recycled
+  private boolean pooledBitmap;
+  private Pix thresholdedImage;
+  private Point bitmapDimensions;
+  private int boxOffsetX;
+  private int boxOffsetY;
+  // Clockwise rotation of the thresholded image, about the centres of the unrotated boxes'
+  // image and of the rotated one
+  private float boxRotation;
+  private float boxCenterX;
+  private float boxCenterY;
+  private float imageCenterX;
+  private float imageCenterY;
   private String text;
+  private MrzText mrzText;
+  private DetailLevel detailLevel = DetailLevel.SYMBOLS;
   
   private int[] wordConfidences;
   private int meanConfidence;
+  private float[] symbolConfidences;
 
   private List<Rect> regionBoundingBoxes;
   private List<Rect> textlineBoundingBoxes;
@@ -49,21 +84,60 @@ public class OcrResult {
     this.characterBoundingBoxes = characterBoundingBoxes;
     this.recognitionTimeRequired = recognitionTimeRequired;
     this.timestamp = System.currentTimeMillis();
-    
-    this.paint = new Paint();
   }
 
   public OcrResult() {
     timestamp = System.currentTimeMillis();
-    this.paint = new Paint();
   }
 
+  /**
+   * Returns the thresholded image with the word boxes drawn on it, rendered on first use into
+   * a pooled bitmap that stays the result's until {@link #recycle()}.
+   */
   public Bitmap getBitmap() {
+    if (bitmap == null && thresholdedImage != null) {
+      bitmap = renderBitmap(thresholdedImage);
+      pooledBitmap = true;
+    }
+    if (bitmap == null) {
+      return null;
+    }
     return getAnnotatedBitmap();
   }
   
+  private static Bitmap renderBitmap(Pix image) {
+    BitmapPool pool = BitmapPool.get();
+    int width = image.getWidth();
+    int height = image.getHeight();
+    byte[] grey = pool.acquireBytes(width * height);
+    int[] pixels = pool.acquireInts(width * height);
+    // Leptonica converts 1 bpp images to 8 bpp on the way out
+    WriteFile.writeBytes8(image, grey);
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = 0xFF000000 | ((grey[i] & 0xff) * 0x00010101);
+    }
+    Bitmap bitmap = pool.acquireBitmap(width, height);
+    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+    pool.release(grey);
+    pool.release(pixels);
+    return bitmap;
+  }
+
   private Bitmap getAnnotatedBitmap() {
+    if (wordBoundingBoxes == null) {
+      return bitmap;
+    }
+    if (paint == null) {
+      // Only results that are shown need one, not every continuous frame's
+      paint = new Paint();
+    }
     Canvas canvas = new Canvas(bitmap);
+    if (boxRotation != 0f) {
+      canvas.translate(imageCenterX, imageCenterY);
+      canvas.rotate(boxRotation);
+      canvas.translate(-boxCenterX, -boxCenterY);
+    }
+    canvas.translate(-boxOffsetX, -boxOffsetY);
     
     for (int i = 0; i < wordBoundingBoxes.size(); i++) {
       paint.setAlpha(0xFF);
@@ -81,6 +155,14 @@ public class OcrResult {
     return text;
   }
 
+  public DetailLevel getDetailLevel() {
+    return detailLevel;
+  }
+
+  public MrzText getMrzText() {
+    return mrzText;
+  }
+
   public int[] getWordConfidences() {
     return wordConfidences;
   }
@@ -89,11 +171,21 @@ public class OcrResult {
     return meanConfidence;
   }
 
+  public float[] getSymbolConfidences() {
+    return symbolConfidences;
+  }
+
   public long getRecognitionTimeRequired() {
     return recognitionTimeRequired;
   }
 
   public Point getBitmapDimensions() {
+    if (bitmapDimensions != null) {
+      return bitmapDimensions;
+    }
+    if (bitmap == null && thresholdedImage != null) {
+      return new Point(thresholdedImage.getWidth(), thresholdedImage.getHeight());
+    }
     return new Point(bitmap.getWidth(), bitmap.getHeight()); 
   }
   
@@ -123,12 +215,112 @@ public class OcrResult {
   
   public void setBitmap(Bitmap bitmap) {
     this.bitmap = bitmap;
+    pooledBitmap = false;
   }
   
+  public void setBitmapDimensions(Point bitmapDimensions) {
+    this.bitmapDimensions = bitmapDimensions;
+  }
+
+  public void offsetBoundingBoxes(int dx, int dy) {
+    boxOffsetX += dx;
+    boxOffsetY += dy;
+    offset(regionBoundingBoxes, dx, dy);
+    offset(textlineBoundingBoxes, dx, dy);
+    offset(wordBoundingBoxes, dx, dy);
+    offset(stripBoundingBoxes, dx, dy);
+    offset(characterBoundingBoxes, dx, dy);
+  }
+
+  private static void offset(List<Rect> boxes, int dx, int dy) {
+    if (boxes != null) {
+      for (int i = 0; i < boxes.size(); i++) {
+        boxes.get(i).offset(dx, dy);
+      }
+    }
+  }
+
+  /**
+   * Maps boxes found in an image that was rotated clockwise by degrees about its centre, from a
+   * width x height image into one of imageWidth x imageHeight, back onto the unrotated image.
+   * Each box becomes the upright box around its corners. Boxes are rotated before they are
+   * offset.
+   */
+  public void rotateBoundingBoxes(float degrees, int imageWidth, int imageHeight,
+                                  int width, int height) {
+    boxRotation = degrees;
+    boxCenterX = width / 2f;
+    boxCenterY = height / 2f;
+    imageCenterX = imageWidth / 2f;
+    imageCenterY = imageHeight / 2f;
+    double radians = Math.toRadians(degrees);
+    float cos = (float) Math.cos(radians);
+    float sin = (float) Math.sin(radians);
+    rotate(regionBoundingBoxes, cos, sin);
+    rotate(textlineBoundingBoxes, cos, sin);
+    rotate(wordBoundingBoxes, cos, sin);
+    rotate(stripBoundingBoxes, cos, sin);
+    rotate(characterBoundingBoxes, cos, sin);
+  }
+
+  private void rotate(List<Rect> boxes, float cos, float sin) {
+    if (boxes == null) {
+      return;
+    }
+    for (int i = 0; i < boxes.size(); i++) {
+      Rect box = boxes.get(i);
+      float left = Float.MAX_VALUE;
+      float top = Float.MAX_VALUE;
+      float right = -Float.MAX_VALUE;
+      float bottom = -Float.MAX_VALUE;
+      for (int corner = 0; corner < 4; corner++) {
+        float dx = ((corner & 1) == 0 ? box.left : box.right) - imageCenterX;
+        float dy = ((corner & 2) == 0 ? box.top : box.bottom) - imageCenterY;
+        // Undoes the clockwise rotation, with y pointing down
+        float x = dx * cos + dy * sin + boxCenterX;
+        float y = dy * cos - dx * sin + boxCenterY;
+        left = Math.min(left, x);
+        top = Math.min(top, y);
+        right = Math.max(right, x);
+        bottom = Math.max(bottom, y);
+      }
+      box.set((int) Math.floor(left), (int) Math.floor(top),
+          (int) Math.ceil(right), (int) Math.ceil(bottom));
+    }
+  }
+
+  public void setThresholdedImage(Pix thresholdedImage) {
+    this.thresholdedImage = thresholdedImage;
+  }
+
+  /**
+   * Frees the thresholded image and hands a rendered bitmap back to the pool. The result's
+   * bitmap must no longer be on screen.
+   */
+  public void recycle() {
+    if (bitmap != null && pooledBitmap) {
+      BitmapPool.get().release(bitmap);
+      bitmap = null;
+      pooledBitmap = false;
+    }
+    if (thresholdedImage != null) {
+      NativeImageScope.recycle(thresholdedImage);
+      thresholdedImage = null;
+    }
+  }
+
   public void setText(String text) {
     this.text = text;
   }
 
+  public void setDetailLevel(DetailLevel detailLevel) {
+    this.detailLevel = detailLevel;
+  }
+
+  public void setMrzText(MrzText mrzText) {
+    this.mrzText = mrzText;
+  }
+
   public void setWordConfidences(int[] wordConfidences) {
     this.wordConfidences = wordConfidences;
   }
@@ -137,6 +329,10 @@ public class OcrResult {
     this.meanConfidence = meanConfidence;
   }
 
+  public void setSymbolConfidences(float[] symbolConfidences) {
+    this.symbolConfidences = symbolConfidences;
+  }
+
   public void setRecognitionTimeRequired(long recognitionTimeRequired) {
     this.recognitionTimeRequired = recognitionTimeRequired;
   }
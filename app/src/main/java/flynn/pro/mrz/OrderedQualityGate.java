@@ -0,0 +1,68 @@
+package flynn.pro.mrz;
+
+
+/**
+ * One {@link FrameQualityGate} shared by the decode workers. Frames are checked in the order the
+ * dispatcher numbered them, whichever worker reaches its frame first, so the motion check always
+ * compares a frame with the one before it and the sharpness peak follows the whole stream.
+ *
+ * A worker must hand every numbered frame to either {@link #check} or {@link #skip}, early in
+ * its decode, or the workers holding later frames wait for it. Thread safe.
+ */
+final class OrderedQualityGate {
+
+  private final FrameQualityGate gate = new FrameQualityGate();
+  private int nextFrame;
+  private boolean closed;
+
+  /**
+   * Checks the given frame once every frame numbered before it has been checked or skipped.
+   * Frames reaching a closed gate are accepted unchecked.
+   */
+  synchronized FrameQualityGate.Verdict check(int frame, byte[] luminance, int width, int height) {
+    if (!awaitTurn(frame)) {
+      return FrameQualityGate.Verdict.ACCEPTED;
+    }
+    try {
+      return gate.check(luminance, width, height);
+    } finally {
+      advance();
+    }
+  }
+
+  /**
+   * Lets the frames after the given one through without checking it.
+   */
+  synchronized void skip(int frame) {
+    if (awaitTurn(frame)) {
+      advance();
+    }
+  }
+
+  /**
+   * Stops ordering, releasing any worker waiting for its turn.
+   */
+  synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  private boolean awaitTurn(int frame) {
+    while (!closed && frame != nextFrame) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        // Workers are only interrupted when shutting down; nothing is worth ordering then
+        Thread.currentThread().interrupt();
+        close();
+      }
+    }
+    return !closed;
+  }
+
+  private void advance() {
+    nextFrame++;
+    notifyAll();
+  }
+
+}
@@ -1,15 +1,13 @@
 package flynn.pro.mrz;
 
-import android.graphics.Bitmap;
-
 
+/**
+ * The luminance at the front of a planar YUV array such as an NV21 preview frame. Reading,
+ * cropping, rotation and mirroring are those of the {@link ByteBufferLuminanceSource} it wraps.
+ */
 public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
-  private final byte[] yuvData;
-  private final int dataWidth;
-  private final int dataHeight;
-  private final int left;
-  private final int top;
+  private final ByteBufferLuminanceSource source;
 
   public PlanarYUVLuminanceSource(byte[] yuvData,
                                   int dataWidth,
@@ -20,60 +18,23 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
                                   int height,
                                   boolean reverseHorizontal) {
     super(width, height);
-
-    if (left + width > dataWidth || top + height > dataHeight) {
-      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
-    }
-
-    this.yuvData = yuvData;
-    this.dataWidth = dataWidth;
-    this.dataHeight = dataHeight;
-    this.left = left;
-    this.top = top;
-    if (reverseHorizontal) {
-      reverseHorizontal(width, height);
-    }
+    source = ByteBufferLuminanceSource.fromNv21(yuvData, dataWidth, dataHeight, left, top, width,
+        height, reverseHorizontal);
   }
 
   @Override
   public byte[] getRow(int y, byte[] row) {
-    if (y < 0 || y >= getHeight()) {
-      throw new IllegalArgumentException("Requested row is outside the image: " + y);
-    }
-    int width = getWidth();
-    if (row == null || row.length < width) {
-      row = new byte[width];
-    }
-    int offset = (y + top) * dataWidth + left;
-    System.arraycopy(yuvData, offset, row, 0, width);
-    return row;
+    return source.getRow(y, row);
   }
 
   @Override
   public byte[] getMatrix() {
-    int width = getWidth();
-    int height = getHeight();
-
-    if (width == dataWidth && height == dataHeight) {
-      return yuvData;
-    }
-
-    int area = width * height;
-    byte[] matrix = new byte[area];
-    int inputOffset = top * dataWidth + left;
-
-    if (width == dataWidth) {
-      System.arraycopy(yuvData, inputOffset, matrix, 0, area);
-      return matrix;
-    }
+    return source.getMatrix();
+  }
 
-    byte[] yuv = yuvData;
-    for (int y = 0; y < height; y++) {
-      int outputOffset = y * width;
-      System.arraycopy(yuv, inputOffset, matrix, outputOffset, width);
-      inputOffset += dataWidth;
-    }
-    return matrix;
+  @Override
+  public byte[] getMatrix(byte[] reuse) {
+    return source.getMatrix(reuse);
   }
 
   @Override
@@ -83,47 +44,25 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
   @Override
   public LuminanceSource crop(int left, int top, int width, int height) {
-    return new PlanarYUVLuminanceSource(yuvData,
-                                        dataWidth,
-                                        dataHeight,
-                                        this.left + left,
-                                        this.top + top,
-                                        width,
-                                        height,
-                                        false);
+    return source.crop(left, top, width, height);
   }
 
-  public Bitmap renderCroppedGreyscaleBitmap() {
-    int width = getWidth();
-    int height = getHeight();
-    int[] pixels = new int[width * height];
-    byte[] yuv = yuvData;
-    int inputOffset = top * dataWidth + left;
-
-    for (int y = 0; y < height; y++) {
-      int outputOffset = y * width;
-      for (int x = 0; x < width; x++) {
-        int grey = yuv[inputOffset + x] & 0xff;
-        pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
-      }
-      inputOffset += dataWidth;
-    }
+  @Override
+  public boolean isRotateSupported() {
+    return true;
+  }
 
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-    return bitmap;
+  @Override
+  public LuminanceSource rotateCounterClockwise() {
+    return source.rotateCounterClockwise();
   }
 
-  private void reverseHorizontal(int width, int height) {
-    byte[] yuvData = this.yuvData;
-        for (int y = 0, rowStart = top * dataWidth + left; y < height; y++, rowStart += dataWidth) {
-          int middle = rowStart + width / 2;
-          for (int x1 = rowStart, x2 = rowStart + width - 1; x1 < middle; x1++, x2--) {
-            byte temp = yuvData[x1];
-            yuvData[x1] = yuvData[x2];
-            yuvData[x2] = temp;
-      }
-    }
+  /**
+   * Renders the cropped luminance as opaque ARGB_8888 pixels, reusing the given array if it is
+   * large enough, ready for {@code Bitmap.setPixels} or {@code Bitmap.createBitmap}.
+   */
+  public int[] renderCroppedGreyscale(int[] pixels) {
+    return source.renderGreyscale(pixels);
   }
 
 }
@@ -18,6 +18,9 @@ public class PreferencesActivity extends PreferenceActivity implements
   public static final String KEY_CONTINUOUS_PREVIEW = "preference_capture_continuous";
   public static final String KEY_PAGE_SEGMENTATION_MODE = "preference_page_segmentation_mode";
   public static final String KEY_OCR_ENGINE_MODE = "preference_ocr_engine_mode";
+  public static final String KEY_DECODE_WORKERS = "preference_decode_workers";
+  public static final String KEY_THRESHOLDING_METHOD = "preference_thresholding_method";
+  public static final String KEY_OCR_ENGINE_PROFILE = "preference_ocr_engine_profile";
   public static final String KEY_CHARACTER_BLACKLIST = "preference_character_blacklist";
   public static final String KEY_CHARACTER_WHITELIST = "preference_character_whitelist";
   public static final String KEY_TOGGLE_LIGHT = "preference_toggle_light";
@@ -25,6 +28,7 @@ public class PreferencesActivity extends PreferenceActivity implements
   
   public static final String KEY_AUTO_FOCUS = "preferences_auto_focus";
   public static final String KEY_DISABLE_CONTINUOUS_FOCUS = "preferences_disable_continuous_focus";
+  public static final String KEY_CAMERA2 = "preferences_camera2";
   public static final String KEY_HELP_VERSION_SHOWN = "preferences_help_version_shown";
   public static final String KEY_NOT_OUR_RESULTS_SHOWN = "preferences_not_our_results_shown";
   public static final String KEY_REVERSE_IMAGE = "preferences_reverse_image";
@@ -41,6 +45,9 @@ public class PreferencesActivity extends PreferenceActivity implements
   private EditTextPreference editTextPreferenceCharacterBlacklist;
   private EditTextPreference editTextPreferenceCharacterWhitelist;
   private ListPreference listPreferencePageSegmentationMode;
+  private ListPreference listPreferenceDecodeWorkers;
+  private ListPreference listPreferenceThresholdingMethod;
+  private ListPreference listPreferenceOcrEngineProfile;
   
   private static SharedPreferences sharedPreferences;
 
@@ -58,6 +65,9 @@ public class PreferencesActivity extends PreferenceActivity implements
     editTextPreferenceCharacterBlacklist = (EditTextPreference) getPreferenceScreen().findPreference(KEY_CHARACTER_BLACKLIST);
     editTextPreferenceCharacterWhitelist = (EditTextPreference) getPreferenceScreen().findPreference(KEY_CHARACTER_WHITELIST);
     listPreferencePageSegmentationMode = (ListPreference) getPreferenceScreen().findPreference(KEY_PAGE_SEGMENTATION_MODE);
+    listPreferenceDecodeWorkers = (ListPreference) getPreferenceScreen().findPreference(KEY_DECODE_WORKERS);
+    listPreferenceThresholdingMethod = (ListPreference) getPreferenceScreen().findPreference(KEY_THRESHOLDING_METHOD);
+    listPreferenceOcrEngineProfile = (ListPreference) getPreferenceScreen().findPreference(KEY_OCR_ENGINE_PROFILE);
     
     initTranslationTargetList();
     
@@ -79,6 +89,12 @@ public class PreferencesActivity extends PreferenceActivity implements
     } else if (key.equals(KEY_TARGET_LANGUAGE_PREFERENCE)) {
     } else if (key.equals(KEY_PAGE_SEGMENTATION_MODE)) {
       listPreferencePageSegmentationMode.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_PAGE_SEGMENTATION_MODE));
+    } else if (key.equals(KEY_DECODE_WORKERS)) {
+      listPreferenceDecodeWorkers.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_DECODE_WORKERS));
+    } else if (key.equals(KEY_THRESHOLDING_METHOD)) {
+      listPreferenceThresholdingMethod.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_THRESHOLDING_METHOD));
+    } else if (key.equals(KEY_OCR_ENGINE_PROFILE)) {
+      listPreferenceOcrEngineProfile.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_OCR_ENGINE_PROFILE));
     } else if (key.equals(KEY_OCR_ENGINE_MODE)) {
       listPreferenceOcrEngineMode.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_OCR_ENGINE_MODE));
     } else if (key.equals(KEY_CHARACTER_BLACKLIST)) {  
@@ -131,6 +147,9 @@ public class PreferencesActivity extends PreferenceActivity implements
     listPreferenceTranslator.setSummary(sharedPreferences.getString(KEY_TRANSLATOR, CaptureActivity.DEFAULT_TRANSLATOR));
     listPreferencePageSegmentationMode.setSummary(sharedPreferences.getString(KEY_PAGE_SEGMENTATION_MODE, CaptureActivity.DEFAULT_PAGE_SEGMENTATION_MODE));
     listPreferenceOcrEngineMode.setSummary(sharedPreferences.getString(KEY_OCR_ENGINE_MODE, CaptureActivity.DEFAULT_OCR_ENGINE_MODE));
+    listPreferenceDecodeWorkers.setSummary(sharedPreferences.getString(KEY_DECODE_WORKERS, CaptureActivity.DEFAULT_DECODE_WORKERS));
+    listPreferenceThresholdingMethod.setSummary(sharedPreferences.getString(KEY_THRESHOLDING_METHOD, CaptureActivity.DEFAULT_THRESHOLDING_METHOD));
+    listPreferenceOcrEngineProfile.setSummary(sharedPreferences.getString(KEY_OCR_ENGINE_PROFILE, CaptureActivity.DEFAULT_OCR_ENGINE_PROFILE));
     editTextPreferenceCharacterBlacklist.setSummary(sharedPreferences.getString(KEY_CHARACTER_BLACKLIST, OcrCharacterHelper.getDefaultBlacklist(listPreferenceSourceLanguage.getValue())));
     editTextPreferenceCharacterWhitelist.setSummary(sharedPreferences.getString(KEY_CHARACTER_WHITELIST, OcrCharacterHelper.getDefaultWhitelist(listPreferenceSourceLanguage.getValue())));
     
@@ -0,0 +1,185 @@
+package flynn.pro.mrz;
+
+
+/**
+ * Local adaptive thresholding after Sauvola, or after Wolf and Jolion, with the window mean and
+ * standard deviation taken from integral images of the luminance and its square, so every pixel
+ * costs the same whatever the window size.
+ *
+ * Sauvola sets the threshold at {@code m * (1 + k * (s / 128 - 1))}: flat areas, such as glare
+ * on a laminate, fall well below their own mean and come out white, while text keeps its
+ * contrast against a background that changes across the page. Wolf's variant normalizes the
+ * deviation by the largest one in the image and pulls towards the darkest pixel instead, which
+ * holds up better when the whole band is low in contrast.
+ *
+ * The window is about half the height of the image, which for an MRZ band is a little over two
+ * character heights. Instances reuse their integral images and are not thread safe.
+ */
+public final class SauvolaThresholder implements Thresholder {
+
+  private static final float SAUVOLA_K = 0.34f;
+  private static final float WOLF_K = 0.5f;
+  private static final float DYNAMIC_RANGE = 128.0f;
+  private static final int MIN_RADIUS = 4;
+  // Window sums of squares overflow an int beyond 181 x 181 pixels
+  private static final int MAX_RADIUS = 90;
+
+  private final float k;
+  private final boolean wolf;
+  private int[] sums = new int[0];
+  private int[] squareSums = new int[0];
+  private int[] windowLeft = new int[0];
+  private int[] windowRight = new int[0];
+  private float[] inverseColumns = new float[0];
+
+  private SauvolaThresholder(float k, boolean wolf) {
+    this.k = k;
+    this.wolf = wolf;
+  }
+
+  public static SauvolaThresholder sauvola() {
+    return new SauvolaThresholder(SAUVOLA_K, false);
+  }
+
+  public static SauvolaThresholder wolf() {
+    return new SauvolaThresholder(WOLF_K, true);
+  }
+
+  @Override
+  public byte[] threshold(byte[] luminance, int width, int height, byte[] output) {
+    int area = width * height;
+    if (output == null || output.length < area) {
+      output = new byte[area];
+    }
+    if (area == 0) {
+      return output;
+    }
+    int integralArea = (width + 1) * (height + 1);
+    if (sums.length < integralArea) {
+      sums = new int[integralArea];
+      squareSums = new int[integralArea];
+    }
+    if (windowLeft.length < width) {
+      windowLeft = new int[width];
+      windowRight = new int[width];
+      inverseColumns = new float[width];
+    }
+    int darkest = integrate(luminance, width, height);
+    int radius = Math.max(MIN_RADIUS, Math.min(MAX_RADIUS, height / 4));
+    for (int x = 0; x < width; x++) {
+      windowLeft[x] = Math.max(0, x - radius);
+      windowRight[x] = Math.min(width, x + radius + 1);
+      inverseColumns[x] = 1.0f / (windowRight[x] - windowLeft[x]);
+    }
+    float maxDeviation = wolf ? Math.max(1.0f, maxDeviation(width, height, radius)) : 0.0f;
+
+    // Both thresholds have the form base + slope * s, so a pixel is light when
+    // p - base > slope * s, which with both sides positive can be squared to skip the root
+    int[] sums = this.sums;
+    int[] squareSums = this.squareSums;
+    int[] windowLeft = this.windowLeft;
+    int[] windowRight = this.windowRight;
+    float[] inverseColumns = this.inverseColumns;
+    float k = this.k;
+    int stride = width + 1;
+    for (int y = 0; y < height; y++) {
+      int top = Math.max(0, y - radius);
+      int bottom = Math.min(height, y + radius + 1);
+      float inverseRows = 1.0f / (bottom - top);
+      top *= stride;
+      bottom *= stride;
+      for (int x = 0, offset = y * width; x < width; x++, offset++) {
+        int left = windowLeft[x];
+        int right = windowRight[x];
+        float inverseCount = inverseColumns[x] * inverseRows;
+        int sum = sums[bottom + right] - sums[bottom + left] - sums[top + right] + sums[top + left];
+        // The corners may have wrapped, but the window total always fits
+        int squareSum = squareSums[bottom + right] - squareSums[bottom + left]
+            - squareSums[top + right] + squareSums[top + left];
+        float mean = sum * inverseCount;
+        float variance = squareSum * inverseCount - mean * mean;
+        float base;
+        float slope;
+        if (wolf) {
+          float contrast = k * (mean - darkest);
+          base = mean - contrast;
+          slope = contrast / maxDeviation;
+        } else {
+          base = mean * (1.0f - k);
+          slope = mean * k / DYNAMIC_RANGE;
+        }
+        float excess = (luminance[offset] & 0xff) - base;
+        boolean light = excess > 0.0f
+            && (variance <= 0.0f || excess * excess > slope * slope * variance);
+        output[offset] = light ? (byte) 0xff : 0;
+      }
+    }
+    return output;
+  }
+
+  /**
+   * Fills the integral images, with a row and column of zeros in front, and returns the darkest
+   * luminance.
+   */
+  private int integrate(byte[] luminance, int width, int height) {
+    int[] sums = this.sums;
+    int[] squareSums = this.squareSums;
+    int stride = width + 1;
+    for (int x = 0; x < stride; x++) {
+      sums[x] = 0;
+      squareSums[x] = 0;
+    }
+    int darkest = 255;
+    for (int y = 0; y < height; y++) {
+      int above = y * stride + 1;
+      int here = above + stride;
+      sums[here - 1] = 0;
+      squareSums[here - 1] = 0;
+      int rowSum = 0;
+      int rowSquareSum = 0;
+      for (int x = 0, input = y * width; x < width; x++, input++) {
+        int value = luminance[input] & 0xff;
+        if (value < darkest) {
+          darkest = value;
+        }
+        rowSum += value;
+        rowSquareSum += value * value;
+        sums[here + x] = sums[above + x] + rowSum;
+        squareSums[here + x] = squareSums[above + x] + rowSquareSum;
+      }
+    }
+    return darkest;
+  }
+
+  private float maxDeviation(int width, int height, int radius) {
+    int[] sums = this.sums;
+    int[] squareSums = this.squareSums;
+    int[] windowLeft = this.windowLeft;
+    int[] windowRight = this.windowRight;
+    float[] inverseColumns = this.inverseColumns;
+    int stride = width + 1;
+    float maxVariance = 0.0f;
+    for (int y = 0; y < height; y++) {
+      int top = Math.max(0, y - radius);
+      int bottom = Math.min(height, y + radius + 1);
+      float inverseRows = 1.0f / (bottom - top);
+      top *= stride;
+      bottom *= stride;
+      for (int x = 0; x < width; x++) {
+        int left = windowLeft[x];
+        int right = windowRight[x];
+        float inverseCount = inverseColumns[x] * inverseRows;
+        int sum = sums[bottom + right] - sums[bottom + left] - sums[top + right] + sums[top + left];
+        int squareSum = squareSums[bottom + right] - squareSums[bottom + left]
+            - squareSums[top + right] + squareSums[top + left];
+        float mean = sum * inverseCount;
+        float variance = squareSum * inverseCount - mean * mean;
+        if (variance > maxVariance) {
+          maxVariance = variance;
+        }
+      }
+    }
+    return (float) Math.sqrt(maxVariance);
+  }
+
+}
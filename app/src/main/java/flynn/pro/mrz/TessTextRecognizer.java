@@ -0,0 +1,35 @@
+package flynn.pro.mrz;
+
+import com.googlecode.leptonica.android.Pix;
+import com.googlecode.leptonica.android.ReadFile;
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import flynn.pro.mrz.batch.TextRecognizer;
+
+
+/**
+ * A Tesseract engine reading MRZ bands for the batch scanner. The caller keeps ownership of
+ * the engine and ends it.
+ */
+final class TessTextRecognizer implements TextRecognizer {
+
+  private final TessBaseAPI baseApi;
+
+  TessTextRecognizer(TessBaseAPI baseApi) {
+    this.baseApi = baseApi;
+    baseApi.setPageSegMode(TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK);
+  }
+
+  @Override
+  public String recognize(byte[] image, int width, int height) {
+    Pix pix = NativeImageScope.track(ReadFile.readBytes8(image, width, height));
+    try {
+      baseApi.setImage(pix);
+      return baseApi.getUTF8Text();
+    } finally {
+      baseApi.clear();
+      NativeImageScope.recycle(pix);
+    }
+  }
+
+}
@@ -0,0 +1,16 @@
+package flynn.pro.mrz;
+
+
+/**
+ * Turns a luminance matrix into black text on a white background, in plain Java so it can run
+ * and be measured off the device.
+ */
+public interface Thresholder {
+
+  /**
+   * Writes 0 for dark and 255 for light pixels of the given width x height luminance into
+   * output, reusing it if it is large enough, and returns it.
+   */
+  byte[] threshold(byte[] luminance, int width, int height, byte[] output);
+
+}
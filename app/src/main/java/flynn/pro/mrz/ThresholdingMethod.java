@@ -0,0 +1,29 @@
+package flynn.pro.mrz;
+
+
+/**
+ * The binarizers the preferences offer. Leptonica's adaptive Otsu runs natively on the grey
+ * Pix; the others are {@link Thresholder}s that run on the luminance before it becomes a Pix.
+ * Only a Thresholder lets a decode worker copy the frame into the Pix its engine already holds,
+ * since Leptonica's Otsu makes two new images every frame, so Sauvola is the default.
+ */
+enum ThresholdingMethod {
+  LEPTONICA_OTSU,
+  SAUVOLA,
+  WOLF;
+
+  /**
+   * Returns a new thresholder for this method, or null for Leptonica's.
+   */
+  Thresholder newThresholder() {
+    switch (this) {
+      case SAUVOLA:
+        return SauvolaThresholder.sauvola();
+      case WOLF:
+        return SauvolaThresholder.wolf();
+      default:
+        return null;
+    }
+  }
+
+}
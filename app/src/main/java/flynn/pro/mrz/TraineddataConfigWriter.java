@@ -0,0 +1,142 @@
+package flynn.pro.mrz;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+
+/**
+ * Copies a Tesseract .traineddata file with lines added to its built-in config, which Tesseract
+ * reads before it loads the dictionaries, unlike variables set through the API.
+ *
+ * A .traineddata file starts with the number of components and a table of their offsets, -1
+ * for a missing one, followed by the components in table order. The config comes first, so
+ * only it and the offsets change; the rest is copied as it is.
+ */
+final class TraineddataConfigWriter {
+
+  private static final int CONFIG_COMPONENT = 0;
+  // Tesseract takes larger counts as a sign the file was written with the other byte order
+  private static final int MAX_COMPONENTS = 1000;
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final long TRANSFER_CHUNK = 1024 * 1024;
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private TraineddataConfigWriter() {
+  }
+
+  /**
+   * Writes source with config appended to its own config to destination, replacing it
+   * atomically. Settings in config win over the ones already there.
+   */
+  static void write(File source, File destination, String config) throws IOException {
+    File temp = new File(destination.getPath() + TEMP_SUFFIX);
+    FileInputStream in = new FileInputStream(source);
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      FileChannel input = in.getChannel();
+      FileChannel output = out.getChannel();
+      long fileLength = input.size();
+
+      ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(input, count, 0);
+      int components = count.getInt(0);
+      if (components < 0 || components > MAX_COMPONENTS) {
+        count.order(ByteOrder.BIG_ENDIAN);
+        components = count.getInt(0);
+      }
+      if (components <= CONFIG_COMPONENT || components > MAX_COMPONENTS) {
+        throw new IOException(source + " is not a traineddata file");
+      }
+      long headerLength = 4 + 8L * components;
+      ByteBuffer table = ByteBuffer.allocate(8 * components).order(count.order());
+      readFully(input, table, 4);
+      long[] offsets = new long[components];
+      for (int i = 0; i < components; i++) {
+        offsets[i] = table.getLong(8 * i);
+      }
+
+      // The config runs up to the next component present, or to the end of the file
+      long restStart = fileLength;
+      for (int i = CONFIG_COMPONENT + 1; i < components; i++) {
+        if (offsets[i] != -1) {
+          restStart = offsets[i];
+          break;
+        }
+      }
+      long configStart = offsets[CONFIG_COMPONENT] != -1 ? offsets[CONFIG_COMPONENT] : restStart;
+      if (configStart < headerLength || restStart < configStart || restStart > fileLength) {
+        throw new IOException(source + " has a corrupt offset table");
+      }
+      ByteBuffer oldConfig = ByteBuffer.allocate((int) (restStart - configStart));
+      readFully(input, oldConfig, configStart);
+      StringBuilder newConfig = new StringBuilder(new String(oldConfig.array(), ASCII));
+      if (newConfig.length() > 0 && newConfig.charAt(newConfig.length() - 1) != '\n') {
+        newConfig.append('\n');
+      }
+      newConfig.append(config);
+      byte[] configBytes = newConfig.toString().getBytes(ASCII);
+
+      long shift = headerLength + configBytes.length - restStart;
+      offsets[CONFIG_COMPONENT] = headerLength;
+      for (int i = CONFIG_COMPONENT + 1; i < components; i++) {
+        if (offsets[i] != -1) {
+          offsets[i] += shift;
+        }
+      }
+      ByteBuffer header = ByteBuffer.allocate((int) headerLength).order(count.order());
+      header.putInt(components);
+      for (long offset : offsets) {
+        header.putLong(offset);
+      }
+      header.flip();
+      writeFully(output, header);
+      writeFully(output, ByteBuffer.wrap(configBytes));
+
+      long copied = 0;
+      long restLength = fileLength - restStart;
+      while (copied < restLength) {
+        long transferred = input.transferTo(restStart + copied,
+            Math.min(TRANSFER_CHUNK, restLength - copied), output);
+        if (transferred <= 0) {
+          throw new IOException("Short copy of " + source);
+        }
+        copied += transferred;
+      }
+      out.getFD().sync();
+    } catch (IOException e) {
+      out.close();
+      temp.delete();
+      throw e;
+    } finally {
+      out.close();
+      in.close();
+    }
+    if (!temp.renameTo(destination)) {
+      temp.delete();
+      throw new IOException("Couldn't rename " + temp + " to " + destination);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of traineddata file");
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+}
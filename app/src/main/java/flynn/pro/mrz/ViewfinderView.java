@@ -32,6 +32,13 @@ public final class ViewfinderView extends View {
   static final boolean DRAW_WORD_TEXT = false;
   static final boolean DRAW_CHARACTER_TEXT = false;
 
+  /** The least result detail that still has every box the flags above draw. */
+  static final OcrResult.DetailLevel OVERLAY_DETAIL =
+      DRAW_CHARACTER_BOXES || DRAW_CHARACTER_TEXT ? OcrResult.DetailLevel.SYMBOLS
+          : DRAW_WORD_BOXES || DRAW_WORD_TEXT ? OcrResult.DetailLevel.WORDS
+          : DRAW_REGION_BOXES || DRAW_TEXTLINE_BOXES || DRAW_STRIP_BOXES ? OcrResult.DetailLevel.LINES
+          : OcrResult.DetailLevel.NONE;
+
   private CameraManager cameraManager;
   private final Paint paint;
   private final int maskColor;
@@ -82,13 +89,17 @@ public final class ViewfinderView extends View {
     if (resultText != null) {
       Point bitmapSize = resultText.getBitmapDimensions();
       previewFrame = cameraManager.getFramingRectInPreview();
-      if (bitmapSize.x == previewFrame.width() && bitmapSize.y == previewFrame.height()) {
+      // Results come upright, so a turned screen sees the preview rectangle turned as well
+      boolean turned = cameraManager.getFrameRotation() % 180 != 0;
+      int previewWidth = turned ? previewFrame.height() : previewFrame.width();
+      int previewHeight = turned ? previewFrame.width() : previewFrame.height();
+      if (bitmapSize.x == previewWidth && bitmapSize.y == previewHeight) {
 
 
-        float scaleX = frame.width() / (float) previewFrame.width();
-        float scaleY = frame.height() / (float) previewFrame.height();
+        float scaleX = frame.width() / (float) previewWidth;
+        float scaleY = frame.height() / (float) previewHeight;
 
-        if (DRAW_REGION_BOXES) {
+        if (DRAW_REGION_BOXES && resultText.getRegionBoundingBoxes() != null) {
           regionBoundingBoxes = resultText.getRegionBoundingBoxes();
           for (int i = 0; i < regionBoundingBoxes.size(); i++) {
             paint.setAlpha(0xA0);
@@ -103,7 +114,7 @@ public final class ViewfinderView extends View {
           }      
         }
 
-        if (DRAW_TEXTLINE_BOXES) {
+        if (DRAW_TEXTLINE_BOXES && resultText.getTextlineBoundingBoxes() != null) {
           textlineBoundingBoxes = resultText.getTextlineBoundingBoxes();
           paint.setAlpha(0xA0);
           paint.setColor(Color.RED);
@@ -118,7 +129,7 @@ public final class ViewfinderView extends View {
           }
         }
 
-        if (DRAW_STRIP_BOXES) {
+        if (DRAW_STRIP_BOXES && resultText.getStripBoundingBoxes() != null) {
           stripBoundingBoxes = resultText.getStripBoundingBoxes();
           paint.setAlpha(0xFF);
           paint.setColor(Color.YELLOW);
@@ -137,7 +148,7 @@ public final class ViewfinderView extends View {
           wordBoundingBoxes = resultText.getWordBoundingBoxes();
         }
 
-        if (DRAW_WORD_BOXES) {
+        if (DRAW_WORD_BOXES && wordBoundingBoxes != null) {
           paint.setAlpha(0xFF);
           paint.setColor(0xFF00CCFF);
           paint.setStyle(Style.STROKE);
@@ -152,7 +163,7 @@ public final class ViewfinderView extends View {
           }
         }  
 
-        if (DRAW_WORD_TEXT) { 
+        if (DRAW_WORD_TEXT && wordBoundingBoxes != null) { 
           words = resultText.getText().replace("\n"," ").split(" ");
           int[] wordConfidences = resultText.getWordConfidences();          
           for (int i = 0; i < wordBoundingBoxes.size(); i++) {
@@ -0,0 +1,130 @@
+package flynn.pro.mrz.batch;
+
+import java.io.IOException;
+
+import flynn.pro.mrz.LuminanceSource;
+import flynn.pro.mrz.MrzCorrector;
+import flynn.pro.mrz.MrzFormat;
+import flynn.pro.mrz.MrzLocalizer;
+import flynn.pro.mrz.MrzText;
+import flynn.pro.mrz.MrzTextNormalizer;
+import flynn.pro.mrz.SauvolaThresholder;
+import flynn.pro.mrz.Thresholder;
+import flynn.pro.mrz.metrics.Stage;
+
+
+/**
+ * Everything a still image or a video frame goes through once its luminance is in memory: the
+ * MRZ band is located, cropped, binarized with Sauvola, deskewed, recognized and normalized, as
+ * the app's decode workers do with a Java thresholder. The localizer, thresholder and
+ * normalizer keep their buffers between images; use one reader per worker, with an engine of
+ * its own.
+ */
+final class BandReader {
+
+  // Skews below this are left to Tesseract, as in the app
+  private static final float MIN_DESKEW_DEGREES = 0.5f;
+
+  private final TextRecognizer recognizer;
+  private final MrzLocalizer localizer = new MrzLocalizer();
+  private final Thresholder thresholder = SauvolaThresholder.sauvola();
+  private final MrzTextNormalizer normalizer = new MrzTextNormalizer();
+  private final MrzCorrector corrector = new MrzCorrector();
+  private byte[] bandLuminance;
+  private byte[] thresholdedLuminance;
+  private byte[] deskewedLuminance;
+  private int deskewedWidth;
+  private int deskewedHeight;
+
+  BandReader(TextRecognizer recognizer) {
+    this.recognizer = recognizer;
+  }
+
+  /**
+   * Reads the MRZ lines of source, whose luminance matrix has already been read into
+   * luminance, recording each stage's time in result. Returns null if no band was found or
+   * nothing was read in it. The lines are the normalizer's until the next read.
+   */
+  MrzText read(LuminanceSource source, byte[] luminance, BatchResult result, long stageStart)
+      throws IOException {
+    MrzLocalizer.Band band = localizer.localize(luminance, source.getWidth(), source.getHeight());
+    stageStart = result.record(Stage.MRZ_LOCALIZE, stageStart);
+    if (band == null) {
+      return null;
+    }
+    int width = band.getWidth();
+    int height = band.getHeight();
+    LuminanceSource bandSource = source.crop(band.getLeft(), band.getTop(), width, height);
+    bandLuminance = bandSource.getMatrix(bandLuminance);
+    stageStart = result.record(Stage.LUMINANCE_CROP, stageStart);
+
+    thresholdedLuminance =
+        thresholder.threshold(bandLuminance, width, height, thresholdedLuminance);
+    stageStart = result.record(Stage.THRESHOLD, stageStart);
+
+    byte[] pixels = thresholdedLuminance;
+    if (Math.abs(band.getSkewDegrees()) >= MIN_DESKEW_DEGREES) {
+      deskew(-band.getSkewDegrees(), width, height);
+      pixels = deskewedLuminance;
+      width = deskewedWidth;
+      height = deskewedHeight;
+      stageStart = result.record(Stage.DESKEW, stageStart);
+    }
+
+    String text = recognizer.recognize(pixels, width, height);
+    stageStart = result.record(Stage.RECOGNIZE_TEXT, stageStart);
+    if (text == null || text.isEmpty()) {
+      return null;
+    }
+    MrzText mrzText = normalizer.normalize(text, null);
+    result.record(Stage.MRZ_PARSE, stageStart);
+    return mrzText;
+  }
+
+  /**
+   * Turns the thresholded band clockwise by degrees about its centre into a white image large
+   * enough to hold all of it, sampling the nearest pixel the way Leptonica's rotation does in
+   * the app, so the result stays two-tone.
+   */
+  private void deskew(float degrees, int width, int height) {
+    double radians = Math.toRadians(degrees);
+    float cos = (float) Math.cos(radians);
+    float sin = (float) Math.sin(radians);
+    float absCos = Math.abs(cos);
+    float absSin = Math.abs(sin);
+    deskewedWidth = (int) Math.ceil(width * absCos + height * absSin);
+    deskewedHeight = (int) Math.ceil(width * absSin + height * absCos);
+    int area = deskewedWidth * deskewedHeight;
+    if (deskewedLuminance == null || deskewedLuminance.length < area) {
+      deskewedLuminance = new byte[area];
+    }
+    byte[] input = thresholdedLuminance;
+    byte[] output = deskewedLuminance;
+    float centerX = width / 2f;
+    float centerY = height / 2f;
+    float deskewedCenterX = deskewedWidth / 2f;
+    float deskewedCenterY = deskewedHeight / 2f;
+    for (int y = 0, offset = 0; y < deskewedHeight; y++) {
+      float dy = y + 0.5f - deskewedCenterY;
+      for (int x = 0; x < deskewedWidth; x++, offset++) {
+        float dx = x + 0.5f - deskewedCenterX;
+        // The pixel the clockwise turn brought here, with y pointing down
+        int sourceX = (int) Math.floor(dx * cos + dy * sin + centerX);
+        int sourceY = (int) Math.floor(dy * cos - dx * sin + centerY);
+        output[offset] = sourceX >= 0 && sourceX < width && sourceY >= 0 && sourceY < height
+            ? input[sourceY * width + sourceX] : (byte) 0xff;
+      }
+    }
+  }
+
+  /**
+   * Returns whether the MRZ passes its check digits, repairing its characters in place first
+   * if it does not.
+   */
+  boolean correct(MrzText mrzText) {
+    MrzFormat format = mrzText.getFormat();
+    char[] characters = mrzText.getCharacters();
+    return format.isValid(characters) || corrector.correct(characters, format);
+  }
+
+}
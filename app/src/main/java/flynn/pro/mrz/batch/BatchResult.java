@@ -0,0 +1,133 @@
+package flynn.pro.mrz.batch;
+
+import java.io.File;
+import java.util.Arrays;
+
+import flynn.pro.mrz.MrzFormat;
+import flynn.pro.mrz.metrics.Stage;
+
+
+/**
+ * What the batch scanner made of one image or video file, with the time each stage took.
+ */
+public final class BatchResult {
+
+  public enum Status {
+    /** An MRZ was read and every check digit passes, possibly after correction. */
+    VALID,
+    /** MRZ lines were read but some check digit still fails. */
+    INVALID,
+    /** No MRZ was found, or the text read there is not laid out like one. */
+    NO_MRZ,
+    /** The file could not be read as an image. */
+    UNREADABLE,
+    /** Recognition failed. */
+    FAILED
+  }
+
+  /** The stages a batch scan times, in pipeline order. */
+  public static final Stage[] STAGES = {
+      Stage.IMAGE_DECODE,
+      Stage.MRZ_LOCALIZE,
+      Stage.LUMINANCE_CROP,
+      Stage.THRESHOLD,
+      Stage.RECOGNIZE_TEXT,
+      Stage.MRZ_PARSE,
+      Stage.DECODE_TOTAL,
+  };
+
+  private final File file;
+  private final long[] micros = new long[Stage.values().length];
+  private Status status = Status.FAILED;
+  private MrzFormat format;
+  private String[] lines;
+  private String error;
+
+  BatchResult(File file) {
+    this.file = file;
+    Arrays.fill(micros, -1L);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * The format of the MRZ read, or null if the status is not {@link Status#VALID} or
+   * {@link Status#INVALID}.
+   */
+  public MrzFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * The MRZ lines read, corrected where the check digits allowed it, or null if the status is
+   * not {@link Status#VALID} or {@link Status#INVALID}.
+   */
+  public String[] getLines() {
+    return lines;
+  }
+
+  /**
+   * Why the image was unreadable or recognition failed, or null.
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Microseconds the given stage took, or -1 if the image never reached it.
+   */
+  public long getMicros(Stage stage) {
+    return micros[stage.ordinal()];
+  }
+
+  long record(Stage stage, long startNanos) {
+    long now = System.nanoTime();
+    micros[stage.ordinal()] = (now - startNanos) / 1000L;
+    return now;
+  }
+
+  /**
+   * Like {@link #record}, but adds to the time already recorded for the stage.
+   */
+  long add(Stage stage, long startNanos) {
+    long now = System.nanoTime();
+    micros[stage.ordinal()] = Math.max(micros[stage.ordinal()], 0L) + (now - startNanos) / 1000L;
+    return now;
+  }
+
+  /**
+   * Adds the stage times of another result to this one's, for results that cover many frames.
+   */
+  void addTimes(BatchResult other) {
+    for (int i = 0; i < micros.length; i++) {
+      if (other.micros[i] >= 0) {
+        micros[i] = Math.max(micros[i], 0L) + other.micros[i];
+      }
+    }
+  }
+
+  void setMrz(MrzFormat format, char[] characters, boolean valid) {
+    this.format = format;
+    lines = new String[format.getLineCount()];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = new String(characters, i * format.getLineLength(), format.getLineLength());
+    }
+    status = valid ? Status.VALID : Status.INVALID;
+  }
+
+  void setStatus(Status status) {
+    this.status = status;
+  }
+
+  void fail(Status status, Throwable cause) {
+    this.status = status;
+    error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+  }
+
+}
@@ -0,0 +1,197 @@
+package flynn.pro.mrz.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import flynn.pro.mrz.metrics.Stage;
+
+
+/**
+ * Streams batch results as they come, one CSV row or one JSON object per line. Timings are in
+ * milliseconds and left empty, or null, for stages an image never reached.
+ */
+public abstract class BatchResultWriter implements Closeable {
+
+  public static final String FORMAT_CSV = "csv";
+  public static final String FORMAT_JSON_LINES = "jsonl";
+
+  protected final Writer out;
+
+  private BatchResultWriter(Writer out) {
+    this.out = out;
+  }
+
+  /**
+   * Returns a writer for {@link #FORMAT_CSV} or {@link #FORMAT_JSON_LINES}.
+   */
+  public static BatchResultWriter forFormat(String format, Writer out) throws IOException {
+    if (FORMAT_CSV.equals(format)) {
+      return new Csv(out);
+    }
+    if (FORMAT_JSON_LINES.equals(format)) {
+      return new JsonLines(out);
+    }
+    throw new IllegalArgumentException("Unknown result format " + format);
+  }
+
+  public abstract void write(BatchResult result) throws IOException;
+
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  private static String formatMillis(long micros) {
+    return String.format(Locale.US, "%.1f", micros / 1000.0);
+  }
+
+  private static String columnName(Stage stage) {
+    return stage.name().toLowerCase(Locale.US) + "_ms";
+  }
+
+  private static final class Csv extends BatchResultWriter {
+
+    Csv(Writer out) throws IOException {
+      super(out);
+      out.write("file,status,format,mrz,error");
+      for (Stage stage : BatchResult.STAGES) {
+        out.write(',');
+        out.write(columnName(stage));
+      }
+      out.write('\n');
+    }
+
+    @Override
+    public void write(BatchResult result) throws IOException {
+      writeField(result.getFile().getPath());
+      out.write(',');
+      out.write(result.getStatus().name());
+      out.write(',');
+      if (result.getFormat() != null) {
+        out.write(result.getFormat().name());
+      }
+      out.write(',');
+      if (result.getLines() != null) {
+        // MRZ lines never contain spaces
+        StringBuilder mrz = new StringBuilder();
+        for (String line : result.getLines()) {
+          if (mrz.length() > 0) {
+            mrz.append(' ');
+          }
+          mrz.append(line);
+        }
+        out.write(mrz.toString());
+      }
+      out.write(',');
+      if (result.getError() != null) {
+        writeField(result.getError());
+      }
+      for (Stage stage : BatchResult.STAGES) {
+        out.write(',');
+        long micros = result.getMicros(stage);
+        if (micros >= 0) {
+          out.write(formatMillis(micros));
+        }
+      }
+      out.write('\n');
+    }
+
+    private void writeField(String value) throws IOException {
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+          && value.indexOf('\r') < 0) {
+        out.write(value);
+        return;
+      }
+      out.write('"');
+      out.write(value.replace("\"", "\"\""));
+      out.write('"');
+    }
+  }
+
+  private static final class JsonLines extends BatchResultWriter {
+
+    JsonLines(Writer out) {
+      super(out);
+    }
+
+    @Override
+    public void write(BatchResult result) throws IOException {
+      out.write("{\"file\":");
+      writeString(result.getFile().getPath());
+      out.write(",\"status\":\"");
+      out.write(result.getStatus().name());
+      out.write("\",\"format\":");
+      if (result.getFormat() != null) {
+        writeString(result.getFormat().name());
+      } else {
+        out.write("null");
+      }
+      out.write(",\"mrz\":");
+      if (result.getLines() != null) {
+        out.write('[');
+        String[] lines = result.getLines();
+        for (int i = 0; i < lines.length; i++) {
+          if (i > 0) {
+            out.write(',');
+          }
+          writeString(lines[i]);
+        }
+        out.write(']');
+      } else {
+        out.write("null");
+      }
+      out.write(",\"error\":");
+      if (result.getError() != null) {
+        writeString(result.getError());
+      } else {
+        out.write("null");
+      }
+      for (Stage stage : BatchResult.STAGES) {
+        out.write(",\"");
+        out.write(columnName(stage));
+        out.write("\":");
+        long micros = result.getMicros(stage);
+        out.write(micros >= 0 ? formatMillis(micros) : "null");
+      }
+      out.write("}\n");
+    }
+
+    private void writeString(String value) throws IOException {
+      out.write('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        switch (c) {
+          case '"':
+            out.write("\\\"");
+            break;
+          case '\\':
+            out.write("\\\\");
+            break;
+          case '\n':
+            out.write("\\n");
+            break;
+          case '\r':
+            out.write("\\r");
+            break;
+          case '\t':
+            out.write("\\t");
+            break;
+          default:
+            if (c < 0x20) {
+              out.write(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+              out.write(c);
+            }
+        }
+      }
+      out.write('"');
+    }
+  }
+
+}
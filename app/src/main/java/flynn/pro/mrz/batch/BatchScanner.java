@@ -0,0 +1,165 @@
+package flynn.pro.mrz.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import flynn.pro.mrz.LuminanceSource;
+import flynn.pro.mrz.MrzText;
+import flynn.pro.mrz.metrics.Stage;
+
+
+/**
+ * Reads the MRZ of still images the way the camera pipeline reads preview frames: the band is
+ * located in the image's luminance, cropped, binarized, deskewed, recognized and checked against
+ * the ICAO check digits, with the same repairs.
+ *
+ * Images are scanned concurrently, one per worker, and each worker owns one of the engines the
+ * scanner was given. Only a few images per worker are in flight at a time, so folders of any
+ * size scan in bounded memory.
+ */
+public final class BatchScanner {
+
+  /** Longest side images are scaled down to before scanning. */
+  public static final int DEFAULT_MAX_IMAGE_DIMENSION = 2048;
+
+  private static final int IMAGES_IN_FLIGHT_PER_WORKER = 2;
+  private static final String[] IMAGE_SUFFIXES = {".jpg", ".jpeg", ".png"};
+
+  private final ImageDecoder decoder;
+  private final BlockingQueue<BandReader> readers;
+  private final int workerCount;
+
+  /**
+   * Creates a scanner with one worker per recognizer.
+   */
+  public BatchScanner(ImageDecoder decoder, List<? extends TextRecognizer> recognizers) {
+    if (recognizers.isEmpty()) {
+      throw new IllegalArgumentException("No recognizers");
+    }
+    this.decoder = decoder;
+    workerCount = recognizers.size();
+    readers = new ArrayBlockingQueue<>(workerCount);
+    for (TextRecognizer recognizer : recognizers) {
+      readers.add(new BandReader(recognizer));
+    }
+  }
+
+  /**
+   * Returns the JPEG and PNG files in a folder, in name order, or the file itself if it is one.
+   */
+  public static List<File> listImages(File input) throws IOException {
+    if (input.isFile()) {
+      return Arrays.asList(input);
+    }
+    File[] files = input.listFiles();
+    if (files == null) {
+      throw new IOException("Couldn't list " + input);
+    }
+    Arrays.sort(files);
+    List<File> images = new ArrayList<>(files.length);
+    for (File file : files) {
+      String name = file.getName().toLowerCase(Locale.US);
+      for (String suffix : IMAGE_SUFFIXES) {
+        if (file.isFile() && name.endsWith(suffix)) {
+          images.add(file);
+          break;
+        }
+      }
+    }
+    return images;
+  }
+
+  /**
+   * Scans the given files and writes a result for each to writer, in the order they finish.
+   * Returns the number of images whose MRZ passed its check digits.
+   */
+  public int scan(List<File> files, BatchResultWriter writer)
+      throws IOException, InterruptedException {
+    ExecutorService executor = newExecutor("BatchScan", workerCount);
+    CompletionService<BatchResult> completion = new ExecutorCompletionService<>(executor);
+    int valid = 0;
+    try {
+      Iterator<File> pending = files.iterator();
+      int submitted = 0;
+      for (int written = 0; written < files.size(); written++) {
+        while (pending.hasNext() && submitted - written < IMAGES_IN_FLIGHT_PER_WORKER * workerCount) {
+          final File file = pending.next();
+          completion.submit(new Callable<BatchResult>() {
+            @Override
+            public BatchResult call() throws InterruptedException {
+              return scan(file);
+            }
+          });
+          submitted++;
+        }
+        BatchResult result = completion.take().get();
+        writer.write(result);
+        if (result.getStatus() == BatchResult.Status.VALID) {
+          valid++;
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new IOException("Batch worker failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    writer.flush();
+    return valid;
+  }
+
+  static ExecutorService newExecutor(final String name, int threads) {
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, name + "-" + count.incrementAndGet());
+      }
+    });
+  }
+
+  private BatchResult scan(File file) throws InterruptedException {
+    BatchResult result = new BatchResult(file);
+    long start = System.nanoTime();
+    LuminanceSource source;
+    try {
+      source = decoder.decode(file);
+    } catch (IOException | RuntimeException e) {
+      result.fail(BatchResult.Status.UNREADABLE, e);
+      return result;
+    }
+    long stageStart = result.record(Stage.IMAGE_DECODE, start);
+    BandReader reader = readers.take();
+    try {
+      MrzText mrzText = reader.read(source, source.getMatrix(), result, stageStart);
+      if (mrzText == null || mrzText.getFormat() == null) {
+        result.setStatus(BatchResult.Status.NO_MRZ);
+      } else {
+        boolean valid = reader.correct(mrzText);
+        result.setMrz(mrzText.getFormat(), mrzText.getCharacters(), valid);
+      }
+    } catch (IOException | RuntimeException e) {
+      result.fail(BatchResult.Status.FAILED, e);
+    } finally {
+      readers.put(reader);
+    }
+    result.record(Stage.DECODE_TOTAL, start);
+    return result;
+  }
+
+}
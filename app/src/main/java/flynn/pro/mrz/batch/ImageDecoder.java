@@ -0,0 +1,21 @@
+package flynn.pro.mrz.batch;
+
+import java.io.File;
+import java.io.IOException;
+
+import flynn.pro.mrz.LuminanceSource;
+
+
+/**
+ * Reads a still image file into luminance, on whatever image library the platform has.
+ * Implementations must be safe to call from several batch workers at once.
+ */
+public interface ImageDecoder {
+
+  /**
+   * Returns the luminance of the given JPEG or PNG file, scaled down if either side is longer
+   * than the decoder's limit. Throws if the file cannot be read as an image.
+   */
+  LuminanceSource decode(File file) throws IOException;
+
+}
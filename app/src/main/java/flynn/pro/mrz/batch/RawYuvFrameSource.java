@@ -0,0 +1,106 @@
+package flynn.pro.mrz.batch;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Frames of a raw 4:2:0 YUV stream, such as ffmpeg writes with -pix_fmt yuv420p, nv12 or
+ * nv21. All of these store a full luma plane first and half as many chroma bytes after it, so
+ * only the luma is read and the chroma is skipped.
+ */
+public final class RawYuvFrameSource implements VideoFrameSource {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private final InputStream in;
+  private final int width;
+  private final int height;
+  private final float frameRate;
+  private int frameIndex = -1;
+
+  public RawYuvFrameSource(File file, int width, int height, float frameRate)
+      throws IOException {
+    this(new FileInputStream(file), width, height, frameRate);
+  }
+
+  public RawYuvFrameSource(InputStream in, int width, int height, float frameRate) {
+    this.in = new BufferedInputStream(in, BUFFER_SIZE);
+    this.width = width;
+    this.height = height;
+    this.frameRate = frameRate;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public boolean nextFrame(byte[] luminance) throws IOException {
+    int lumaSize = width * height;
+    int chromaSize = 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    if (luminance != null) {
+      int read = readFully(luminance, lumaSize);
+      if (read == 0) {
+        return false;
+      }
+      if (read < lumaSize) {
+        throw new EOFException("Truncated frame " + (frameIndex + 1));
+      }
+    } else if (skipFully(lumaSize) == 0) {
+      return false;
+    }
+    skipFully(chromaSize);
+    frameIndex++;
+    return true;
+  }
+
+  @Override
+  public long getTimestampMicros() {
+    return (long) (frameIndex * 1000000.0 / frameRate);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private int readFully(byte[] buffer, int length) throws IOException {
+    int total = 0;
+    while (total < length) {
+      int read = in.read(buffer, total, length - total);
+      if (read < 0) {
+        break;
+      }
+      total += read;
+    }
+    return total;
+  }
+
+  private long skipFully(long length) throws IOException {
+    long total = 0;
+    while (total < length) {
+      long skipped = in.skip(length - total);
+      if (skipped <= 0) {
+        // skip() may stop early without being at the end; read() tells the two apart
+        if (in.read() < 0) {
+          break;
+        }
+        skipped = 1;
+      }
+      total += skipped;
+    }
+    return total;
+  }
+
+}
@@ -0,0 +1,19 @@
+package flynn.pro.mrz.batch;
+
+import java.io.IOException;
+
+
+/**
+ * One OCR engine as the batch scanner uses it. Engines are not thread safe; the scanner gives
+ * each of its workers an engine of its own.
+ */
+public interface TextRecognizer {
+
+  /**
+   * Returns the text read from a width x height 8 bpp image held in the first width * height
+   * bytes of image, 0 for ink and 255 for paper, with one line of text per line of the image,
+   * or null if nothing was read.
+   */
+  String recognize(byte[] image, int width, int height) throws IOException;
+
+}
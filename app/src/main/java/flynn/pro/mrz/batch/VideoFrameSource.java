@@ -0,0 +1,28 @@
+package flynn.pro.mrz.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+
+/**
+ * Decoded frames of a video, in presentation order, on whatever decoder the platform has.
+ */
+public interface VideoFrameSource extends Closeable {
+
+  int getWidth();
+
+  int getHeight();
+
+  /**
+   * Moves to the next frame and copies its width x height luma plane into luminance, unless
+   * luminance is null, in which case the frame is passed over as cheaply as the decoder
+   * allows. Returns false at the end of the video.
+   */
+  boolean nextFrame(byte[] luminance) throws IOException;
+
+  /**
+   * Presentation time of the current frame, in microseconds from the start of the video.
+   */
+  long getTimestampMicros();
+
+}
@@ -0,0 +1,213 @@
+package flynn.pro.mrz.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import flynn.pro.mrz.FrameQualityGate;
+import flynn.pro.mrz.LuminanceSource;
+import flynn.pro.mrz.MrzConsensus;
+import flynn.pro.mrz.MrzText;
+import flynn.pro.mrz.PlanarYUVLuminanceSource;
+import flynn.pro.mrz.metrics.Stage;
+
+
+/**
+ * Reads the MRZ of a recorded video the way the camera pipeline reads a live preview, and
+ * stops at the first MRZ the frames agree on.
+ *
+ * Frames are decoded in order on the calling thread. Only every few frames is scanned; the
+ * others are passed over without copying their pixels. Scanned frames go through the
+ * {@link FrameQualityGate} first, then to the workers, each with an engine of its own, which
+ * read them as {@link PlanarYUVLuminanceSource}s. Results are voted on by an
+ * {@link MrzConsensus} in frame order, whatever order the workers finish in.
+ *
+ * Not thread safe; scan one video at a time.
+ */
+public final class VideoScanner {
+
+  /** Scanning one frame in three still sees a document held up for a second about ten times. */
+  public static final int DEFAULT_FRAME_STRIDE = 3;
+
+  private static final int FRAMES_IN_FLIGHT_PER_WORKER = 2;
+
+  private final BlockingQueue<BandReader> readers;
+  private final int workerCount;
+  private final int frameStride;
+  private int framesRead;
+  private int framesScanned;
+  private int framesRejected;
+  private int framesWithMrz;
+  private int votedFrame = -1;
+  private MrzText lastMrz;
+  private long mediaMicros;
+  private long elapsedMicros;
+
+  /**
+   * Creates a scanner with one worker per recognizer that scans one frame in frameStride.
+   */
+  public VideoScanner(List<? extends TextRecognizer> recognizers, int frameStride) {
+    if (recognizers.isEmpty() || frameStride < 1) {
+      throw new IllegalArgumentException("No recognizers, or a frame stride below 1");
+    }
+    workerCount = recognizers.size();
+    this.frameStride = frameStride;
+    readers = new ArrayBlockingQueue<>(workerCount);
+    for (TextRecognizer recognizer : recognizers) {
+      readers.add(new BandReader(recognizer));
+    }
+  }
+
+  /**
+   * Scans the frames of source until they agree on an MRZ that passes its check digits, or run
+   * out. Returns one result for the whole video, with the stage times summed over its frames.
+   * Without agreement the result holds the last MRZ read, as {@link BatchResult.Status#INVALID}.
+   */
+  public BatchResult scan(File file, VideoFrameSource source)
+      throws IOException, InterruptedException {
+    final BatchResult result = new BatchResult(file);
+    framesRead = 0;
+    framesScanned = 0;
+    framesRejected = 0;
+    framesWithMrz = 0;
+    votedFrame = -1;
+    lastMrz = null;
+    mediaMicros = 0L;
+    long start = System.nanoTime();
+
+    final int width = source.getWidth();
+    final int height = source.getHeight();
+    int framesInFlight = FRAMES_IN_FLIGHT_PER_WORKER * workerCount;
+    final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(framesInFlight);
+    for (int i = 0; i < framesInFlight; i++) {
+      frames.add(new byte[width * height]);
+    }
+    FrameQualityGate gate = new FrameQualityGate();
+    MrzConsensus consensus = new MrzConsensus();
+    ArrayDeque<Future<FrameResult>> pending = new ArrayDeque<>();
+    ExecutorService executor = BatchScanner.newExecutor("VideoScan", workerCount);
+    String voted = null;
+    try {
+      for (int index = 0; voted == null; index++) {
+        boolean scanned = index % frameStride == 0;
+        // A buffer is always free here, since fewer frames than buffers are ever in flight
+        final byte[] frame = scanned ? frames.take() : null;
+        long decodeStart = System.nanoTime();
+        if (!source.nextFrame(frame)) {
+          if (frame != null) {
+            frames.put(frame);
+          }
+          break;
+        }
+        result.add(Stage.IMAGE_DECODE, decodeStart);
+        framesRead++;
+        mediaMicros = source.getTimestampMicros();
+        if (!scanned) {
+          continue;
+        }
+        if (gate.check(frame, width, height) != FrameQualityGate.Verdict.ACCEPTED) {
+          framesRejected++;
+          frames.put(frame);
+          continue;
+        }
+        framesScanned++;
+        final int frameIndex = index;
+        pending.add(executor.submit(new Callable<FrameResult>() {
+          @Override
+          public FrameResult call() throws IOException, InterruptedException {
+            BandReader reader = readers.take();
+            try {
+              BatchResult times = new BatchResult(result.getFile());
+              LuminanceSource frameSource = new PlanarYUVLuminanceSource(frame, width, height,
+                  0, 0, width, height, false);
+              MrzText mrzText = reader.read(frameSource, frame, times, System.nanoTime());
+              // The reader goes back to the pool before the vote
+              return new FrameResult(frameIndex, mrzText != null ? mrzText.copy() : null, times);
+            } finally {
+              readers.put(reader);
+              frames.put(frame);
+            }
+          }
+        }));
+        while (voted == null && !pending.isEmpty()
+            && (pending.size() >= framesInFlight || pending.peek().isDone())) {
+          voted = vote(consensus, pending.poll().get(), result);
+        }
+      }
+      while (voted == null && !pending.isEmpty()) {
+        voted = vote(consensus, pending.poll().get(), result);
+      }
+    } catch (ExecutionException e) {
+      throw new IOException("Video worker failed", e.getCause());
+    } finally {
+      // Frames still in flight only matter until an MRZ is voted
+      executor.shutdownNow();
+    }
+
+    if (voted != null) {
+      result.setMrz(lastMrz.getFormat(), voted.replace("\n", "").toCharArray(), true);
+    } else if (lastMrz != null) {
+      result.setMrz(lastMrz.getFormat(), lastMrz.getCharacters(), false);
+    } else {
+      result.setStatus(BatchResult.Status.NO_MRZ);
+    }
+    elapsedMicros = (System.nanoTime() - start) / 1000L;
+    result.record(Stage.DECODE_TOTAL, start);
+    return result;
+  }
+
+  /**
+   * Adds a frame's times to the video's, and its MRZ, if any, to the vote. Returns the voted
+   * MRZ once there is one.
+   */
+  private String vote(MrzConsensus consensus, FrameResult frameResult, BatchResult result) {
+    result.addTimes(frameResult.times);
+    MrzText mrzText = frameResult.mrzText;
+    if (mrzText == null || mrzText.getFormat() == null) {
+      return null;
+    }
+    framesWithMrz++;
+    lastMrz = mrzText;
+    String voted = consensus.add(mrzText.getCharacters(), mrzText.getConfidences(),
+        mrzText.getFormat());
+    if (voted != null) {
+      votedFrame = frameResult.frameIndex;
+    }
+    return voted;
+  }
+
+  /**
+   * How the last scan went: frames decoded, scanned and turned away, and how fast, both in
+   * frames per second and against the video's own duration.
+   */
+  public String getSummary() {
+    double seconds = Math.max(elapsedMicros, 1L) / 1000000.0;
+    return String.format(Locale.US,
+        "%d frames read, %d scanned, %d blurred or moving, %d with MRZ lines; "
+            + "%.1f frames/s read, %.1f frames/s scanned, %.2fx real time; %s",
+        framesRead, framesScanned, framesRejected, framesWithMrz,
+        framesRead / seconds, framesScanned / seconds, mediaMicros / 1000000.0 / seconds,
+        votedFrame >= 0 ? "MRZ agreed on at frame " + votedFrame : "no MRZ agreed on");
+  }
+
+  private static final class FrameResult {
+    final int frameIndex;
+    final MrzText mrzText;
+    final BatchResult times;
+
+    FrameResult(int frameIndex, MrzText mrzText, BatchResult times) {
+      this.frameIndex = frameIndex;
+      this.mrzText = mrzText;
+      this.times = times;
+    }
+  }
+
+}
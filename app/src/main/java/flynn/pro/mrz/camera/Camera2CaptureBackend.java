@@ -0,0 +1,583 @@
+package flynn.pro.mrz.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import flynn.pro.mrz.CaptureActivity;
+import flynn.pro.mrz.PreferencesActivity;
+import flynn.pro.mrz.metrics.Counter;
+import flynn.pro.mrz.metrics.PipelineMetrics;
+import flynn.pro.mrz.metrics.Stage;
+
+/**
+ * Preview frames from camera2 through a YUV_420_888 {@link ImageReader}. The decoder reads the
+ * luminance plane straight out of the image, which goes back to the reader when its frame is
+ * released, and every frame carries the exposure time and focus state the camera reported
+ * for it. An image that arrives before its capture result waits for it, unless the next image
+ * comes first.
+ *
+ * Camera callbacks run on a thread of their own; the decoder releases frames from its
+ * workers.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2CaptureBackend implements CaptureBackend, ImageReader.OnImageAvailableListener,
+    PreviewFrame.Owner {
+
+  private static final String TAG = Camera2CaptureBackend.class.getSimpleName();
+
+  private static final int RESULT_HISTORY = 8;
+  private static final long OPEN_TIMEOUT_MS = 2500L;
+  private static final long AUTO_FOCUS_INTERVAL_MS = 3500L;
+
+  private final Context context;
+  private final CameraConfigurationManager configManager;
+  private final android.hardware.camera2.CameraManager cameraService;
+  private PreviewFrame[] frames = new PreviewFrame[0];
+  private final long[] resultTimestamps = new long[RESULT_HISTORY];
+  private final long[] resultExposures = new long[RESULT_HISTORY];
+  private final boolean[] resultFocusing = new boolean[RESULT_HISTORY];
+  private int nextResult;
+
+  private HandlerThread cameraThread;
+  private Handler cameraHandler;
+  private CameraDevice device;
+  private CameraCaptureSession session;
+  private CaptureRequest.Builder requestBuilder;
+  private ImageReader imageReader;
+  private final List<ImageReader> retiredImageReaders = new ArrayList<ImageReader>();
+  // An image a frame was requested for, waiting for its capture result
+  private Image pendingImage;
+  private Surface previewSurface;
+  private int autoFocusMode;
+  private boolean triggerAutoFocus;
+  private boolean previewing;
+  private Handler frameHandler;
+  private int frameMessage;
+  private long lastFrameNanos;
+
+  Camera2CaptureBackend(Context context, CameraConfigurationManager configManager) {
+    this.context = context;
+    this.configManager = configManager;
+    cameraService = (android.hardware.camera2.CameraManager)
+        context.getSystemService(Context.CAMERA_SERVICE);
+  }
+
+  @Override
+  public void open(SurfaceHolder holder, boolean initialize) throws IOException {
+    if (device != null) {
+      return;
+    }
+    try {
+      String cameraId = findBackCamera();
+      CameraCharacteristics characteristics = cameraService.getCameraCharacteristics(cameraId);
+      Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+      if (level == null || level == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+        // Legacy devices run camera2 on top of the old API; going through it directly is faster
+        throw new IOException("Camera " + cameraId + " only supports camera2 as a legacy shim");
+      }
+      Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+      if (sensorOrientation != null) {
+        configManager.setSensorOrientation(sensorOrientation);
+      }
+      if (initialize) {
+        initResolution(characteristics);
+      }
+      chooseAutoFocusMode(characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES));
+
+      cameraThread = new HandlerThread("Camera2");
+      cameraThread.start();
+      cameraHandler = new Handler(cameraThread.getLooper());
+      Point resolution = configManager.getCameraResolution();
+      // One image per decode worker, and one for the camera to fill meanwhile
+      int maxImages = CaptureActivity.getDecodeWorkerCount(context.getResources(),
+          PreferenceManager.getDefaultSharedPreferences(context)) + 1;
+      synchronized (this) {
+        if (frames.length < maxImages) {
+          // Frames of a retired reader may still be out, so the ring only ever grows
+          frames = Arrays.copyOf(frames, maxImages);
+        }
+      }
+      imageReader = ImageReader.newInstance(resolution.x, resolution.y,
+          ImageFormat.YUV_420_888, maxImages);
+      imageReader.setOnImageAvailableListener(this, cameraHandler);
+      holder.setFixedSize(resolution.x, resolution.y);
+      previewSurface = holder.getSurface();
+
+      final CountDownLatch opened = new CountDownLatch(1);
+      cameraService.openCamera(cameraId, new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice camera) {
+          synchronized (Camera2CaptureBackend.this) {
+            if (cameraHandler == null) {
+              // Closed while the camera was still opening
+              camera.close();
+              opened.countDown();
+              return;
+            }
+            device = camera;
+          }
+          createSession(camera);
+          opened.countDown();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+          Log.w(TAG, "Camera device disconnected");
+          onDeviceLost(camera);
+          opened.countDown();
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+          Log.e(TAG, "Camera device error " + error);
+          onDeviceLost(camera);
+          opened.countDown();
+        }
+      }, cameraHandler);
+      if (!opened.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS) || device == null) {
+        throw new IOException("Camera " + cameraId + " did not open");
+      }
+    } catch (CameraAccessException | SecurityException e) {
+      close();
+      throw new IOException(e);
+    } catch (InterruptedException e) {
+      close();
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Stops the backend if camera is the device in use, so that nothing runs against it after it
+   * was taken away or failed; otherwise just closes it.
+   */
+  private void onDeviceLost(CameraDevice camera) {
+    boolean inUse;
+    synchronized (this) {
+      inUse = device == camera;
+    }
+    if (inUse) {
+      close();
+    } else {
+      camera.close();
+    }
+  }
+
+  private String findBackCamera() throws CameraAccessException, IOException {
+    String[] cameraIds = cameraService.getCameraIdList();
+    if (cameraIds.length == 0) {
+      throw new IOException("No camera");
+    }
+    for (String cameraId : cameraIds) {
+      Integer facing = cameraService.getCameraCharacteristics(cameraId)
+          .get(CameraCharacteristics.LENS_FACING);
+      if (facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+        return cameraId;
+      }
+    }
+    return cameraIds[0];
+  }
+
+  private void initResolution(CameraCharacteristics characteristics) throws IOException {
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    if (map == null) {
+      throw new IOException("No stream configurations");
+    }
+    // The preview and the reader share the request, so only sizes both can take will do
+    List<Size> previewSizes = Arrays.asList(map.getOutputSizes(SurfaceHolder.class));
+    List<Point> sizes = new ArrayList<Point>();
+    for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+      if (previewSizes.contains(size)) {
+        sizes.add(new Point(size.getWidth(), size.getHeight()));
+      }
+    }
+    if (sizes.isEmpty()) {
+      throw new IOException("No preview size the image reader also supports");
+    }
+    configManager.initFromSupportedSizes(sizes, sizes.get(0));
+  }
+
+  private void chooseAutoFocusMode(int[] availableModes) {
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    boolean autoFocus = prefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true);
+    int mode = -1;
+    if (autoFocus) {
+      if (prefs.getBoolean(PreferencesActivity.KEY_DISABLE_CONTINUOUS_FOCUS, false)) {
+        mode = findMode(availableModes, CameraMetadata.CONTROL_AF_MODE_AUTO);
+      } else {
+        mode = findMode(availableModes,
+            CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO,
+            CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE,
+            CameraMetadata.CONTROL_AF_MODE_AUTO);
+      }
+    }
+    if (mode < 0) {
+      mode = findMode(availableModes,
+          CameraMetadata.CONTROL_AF_MODE_MACRO,
+          CameraMetadata.CONTROL_AF_MODE_EDOF);
+    }
+    autoFocusMode = mode < 0 ? CameraMetadata.CONTROL_AF_MODE_OFF : mode;
+    triggerAutoFocus = autoFocus && (autoFocusMode == CameraMetadata.CONTROL_AF_MODE_AUTO
+        || autoFocusMode == CameraMetadata.CONTROL_AF_MODE_MACRO);
+    Log.i(TAG, "Auto focus mode " + autoFocusMode + "; trigger auto focus? " + triggerAutoFocus);
+  }
+
+  private static int findMode(int[] availableModes, int... desiredModes) {
+    if (availableModes != null) {
+      for (int desiredMode : desiredModes) {
+        for (int availableMode : availableModes) {
+          if (availableMode == desiredMode) {
+            return desiredMode;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  private void createSession(CameraDevice camera) {
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    boolean torch = prefs.getBoolean(PreferencesActivity.KEY_TOGGLE_LIGHT, false);
+    try {
+      Surface readerSurface = imageReader.getSurface();
+      CaptureRequest.Builder builder = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      builder.addTarget(previewSurface);
+      builder.addTarget(readerSurface);
+      builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+      builder.set(CaptureRequest.CONTROL_AF_MODE, autoFocusMode);
+      builder.set(CaptureRequest.FLASH_MODE,
+          torch ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+      synchronized (this) {
+        requestBuilder = builder;
+      }
+      camera.createCaptureSession(Arrays.asList(previewSurface, readerSurface),
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession configured) {
+              synchronized (Camera2CaptureBackend.this) {
+                if (device == null) {
+                  configured.close();
+                  return;
+                }
+                session = configured;
+                if (previewing) {
+                  startRepeating();
+                }
+              }
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession failed) {
+              Log.e(TAG, "Could not configure the capture session");
+            }
+          }, cameraHandler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.e(TAG, "Could not create the capture session", e);
+    }
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return device != null;
+  }
+
+  @Override
+  public void close() {
+    CameraCaptureSession theSession;
+    CameraDevice theDevice;
+    HandlerThread theThread;
+    synchronized (this) {
+      previewing = false;
+      frameHandler = null;
+      theSession = session;
+      theDevice = device;
+      theThread = cameraThread;
+      session = null;
+      device = null;
+      requestBuilder = null;
+      cameraThread = null;
+      cameraHandler = null;
+      closePendingImage();
+      if (imageReader != null) {
+        if (hasFramesOut()) {
+          // Closing the reader frees the planes the decoder is still reading
+          retiredImageReaders.add(imageReader);
+        } else {
+          imageReader.close();
+        }
+        imageReader = null;
+      }
+    }
+    if (theSession != null) {
+      theSession.close();
+    }
+    if (theDevice != null) {
+      theDevice.close();
+    }
+    if (theThread != null) {
+      theThread.quitSafely();
+    }
+  }
+
+  @Override
+  public synchronized void startPreview() {
+    if (device != null && !previewing) {
+      previewing = true;
+      if (session != null) {
+        startRepeating();
+      }
+      if (triggerAutoFocus) {
+        cameraHandler.post(autoFocusTask);
+      }
+    }
+  }
+
+  private void startRepeating() {
+    try {
+      session.setRepeatingRequest(requestBuilder.build(), captureCallback, cameraHandler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.w(TAG, "Could not start the preview", e);
+    }
+  }
+
+  @Override
+  public synchronized void stopPreview() {
+    if (cameraHandler != null) {
+      cameraHandler.removeCallbacks(autoFocusTask);
+    }
+    if (session != null && previewing) {
+      try {
+        session.stopRepeating();
+      } catch (CameraAccessException | IllegalStateException e) {
+        Log.w(TAG, "Could not stop the preview", e);
+      }
+    }
+    previewing = false;
+    frameHandler = null;
+    closePendingImage();
+  }
+
+  @Override
+  public synchronized void requestFrame(Handler handler, int message) {
+    if (device != null && previewing) {
+      frameHandler = handler;
+      frameMessage = message;
+    }
+  }
+
+  @Override
+  public synchronized void requestAutoFocus(long delay) {
+    if (triggerAutoFocus && cameraHandler != null) {
+      cameraHandler.removeCallbacks(autoFocusTask);
+      cameraHandler.postDelayed(autoFocusTask, delay);
+    }
+  }
+
+  @Override
+  public void updateDisplayOrientation() {
+    // The preview surface follows the display by itself
+  }
+
+  private final Runnable autoFocusTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (Camera2CaptureBackend.this) {
+        if (session == null || !previewing) {
+          return;
+        }
+        try {
+          requestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+              CameraMetadata.CONTROL_AF_TRIGGER_START);
+          session.capture(requestBuilder.build(), captureCallback, cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+          Log.w(TAG, "Unexpected exception while focusing", e);
+        } finally {
+          requestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+              CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+        }
+        cameraHandler.postDelayed(this, AUTO_FOCUS_INTERVAL_MS);
+      }
+    }
+  };
+
+  private final CameraCaptureSession.CaptureCallback captureCallback =
+      new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+          Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+          if (timestamp == null) {
+            return;
+          }
+          Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+          Integer lensState = result.get(CaptureResult.LENS_STATE);
+          Integer autoFocusState = result.get(CaptureResult.CONTROL_AF_STATE);
+          boolean focusing =
+              (lensState != null && lensState == CameraMetadata.LENS_STATE_MOVING)
+              || (autoFocusState != null
+                  && (autoFocusState == CameraMetadata.CONTROL_AF_STATE_ACTIVE_SCAN
+                      || autoFocusState == CameraMetadata.CONTROL_AF_STATE_PASSIVE_SCAN));
+          synchronized (Camera2CaptureBackend.this) {
+            resultTimestamps[nextResult] = timestamp;
+            resultExposures[nextResult] =
+                exposure != null ? exposure : PreviewFrame.UNKNOWN_EXPOSURE;
+            resultFocusing[nextResult] = focusing;
+            nextResult = (nextResult + 1) % RESULT_HISTORY;
+            if (pendingImage != null && pendingImage.getTimestamp() == timestamp) {
+              Image image = pendingImage;
+              pendingImage = null;
+              deliverImage(image);
+            }
+          }
+        }
+      };
+
+  @Override
+  public void onImageAvailable(ImageReader reader) {
+    Image image;
+    try {
+      image = reader.acquireLatestImage();
+    } catch (IllegalStateException e) {
+      // Every image is still out with the decoder
+      PipelineMetrics.get().increment(Counter.FRAMES_DROPPED);
+      return;
+    }
+    if (image == null) {
+      return;
+    }
+    PipelineMetrics metrics = PipelineMetrics.get();
+    metrics.increment(Counter.FRAMES_DELIVERED);
+    if (lastFrameNanos != 0L) {
+      lastFrameNanos = metrics.recordSince(Stage.FRAME_ARRIVAL, lastFrameNanos);
+    } else {
+      lastFrameNanos = System.nanoTime();
+    }
+    synchronized (this) {
+      if (frameHandler == null) {
+        image.close();
+      } else if (pendingImage != null) {
+        // The waiting image's result is late; hand it on without one rather than stall
+        Image late = pendingImage;
+        pendingImage = null;
+        deliverImage(late);
+        image.close();
+      } else if (findCaptureResult(image.getTimestamp()) >= 0) {
+        deliverImage(image);
+      } else {
+        // Capture results usually arrive just after their images
+        pendingImage = image;
+      }
+    }
+  }
+
+  /**
+   * Sends an image to the handler that requested a frame, with its capture result if it has
+   * arrived.
+   */
+  private void deliverImage(Image image) {
+    Handler handler = frameHandler;
+    PreviewFrame frame = handler != null ? obtainFrame() : null;
+    if (frame == null) {
+      image.close();
+      return;
+    }
+    frameHandler = null;
+    Image.Plane luminance = image.getPlanes()[0];
+    frame.setLuminancePlane(luminance.getBuffer(), luminance.getRowStride(),
+        luminance.getPixelStride(), image.getWidth(), image.getHeight());
+    int result = findCaptureResult(image.getTimestamp());
+    if (result >= 0) {
+      frame.setCaptureResult(resultExposures[result], resultFocusing[result]);
+    }
+    frame.image = image;
+    handler.obtainMessage(frameMessage, image.getWidth(), image.getHeight(), frame)
+        .sendToTarget();
+  }
+
+  private void closePendingImage() {
+    if (pendingImage != null) {
+      pendingImage.close();
+      pendingImage = null;
+    }
+  }
+
+  private PreviewFrame obtainFrame() {
+    for (int i = 0; i < frames.length; i++) {
+      if (frames[i] == null) {
+        frames[i] = new PreviewFrame(this);
+      }
+      if (frames[i].image == null) {
+        return frames[i];
+      }
+    }
+    return null;
+  }
+
+  private boolean hasFramesOut() {
+    for (PreviewFrame frame : frames) {
+      if (frame != null && frame.image != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int findCaptureResult(long timestamp) {
+    for (int i = 0; i < RESULT_HISTORY; i++) {
+      if (resultTimestamps[i] == timestamp) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public synchronized void release(PreviewFrame frame) {
+    Image image = (Image) frame.image;
+    if (image == null) {
+      return;
+    }
+    frame.image = null;
+    image.close();
+    if (!retiredImageReaders.isEmpty() && !hasFramesOut()) {
+      for (ImageReader reader : retiredImageReaders) {
+        reader.close();
+      }
+      retiredImageReaders.clear();
+    }
+  }
+
+}
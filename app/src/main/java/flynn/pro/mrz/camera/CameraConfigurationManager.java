@@ -8,6 +8,7 @@ import android.hardware.Camera;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Display;
+import android.view.Surface;
 import android.view.WindowManager;
 
 import java.util.ArrayList;
@@ -28,6 +29,8 @@ final class CameraConfigurationManager {
     private final Context context;
     private Point screenResolution;
     private Point cameraResolution;
+    private int displayRotation;
+    private int sensorOrientation = 90;
 
     CameraConfigurationManager(Context context) {
         this.context = context;
@@ -36,20 +39,72 @@ final class CameraConfigurationManager {
 
     void initFromCameraParameters(Camera camera) {
         Camera.Parameters parameters = camera.getParameters();
+        initScreenResolution();
+        List<Point> previewSizes = new ArrayList<Point>();
+        for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+            previewSizes.add(new Point(size.width, size.height));
+        }
+        Camera.Size defaultSize = parameters.getPreviewSize();
+        cameraResolution = findBestPreviewSizeValue(previewSizes,
+                new Point(defaultSize.width, defaultSize.height), getLandscapeScreenResolution());
+        Log.i(TAG, "Camera resolution: " + cameraResolution);
+    }
+
+    /**
+     * Picks the camera resolution among the given output sizes, for capture backends that do not
+     * go through {@link Camera.Parameters}.
+     */
+    void initFromSupportedSizes(List<Point> previewSizes, Point defaultSize) {
+        initScreenResolution();
+        cameraResolution = findBestPreviewSizeValue(previewSizes, defaultSize,
+                getLandscapeScreenResolution());
+        Log.i(TAG, "Camera resolution: " + cameraResolution);
+    }
+
+    /**
+     * Reads the screen size and rotation again; the camera resolution does not depend on them
+     * beyond the aspect ratio, so it is kept.
+     */
+    void initScreenResolution() {
         WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         Display display = manager.getDefaultDisplay();
         int width = display.getWidth();
         int height = display.getHeight();
-        if (width < height) {
-            Log.i(TAG, "Display reports portrait orientation; assuming this is incorrect");
-            int temp = width;
-            width = height;
-            height = temp;
-        }
         screenResolution = new Point(width, height);
-        Log.i(TAG, "Screen resolution: " + screenResolution);
-        cameraResolution = findBestPreviewSizeValue(parameters, screenResolution);
-        Log.i(TAG, "Camera resolution: " + cameraResolution);
+        switch (display.getRotation()) {
+            case Surface.ROTATION_90:
+                displayRotation = 90;
+                break;
+            case Surface.ROTATION_180:
+                displayRotation = 180;
+                break;
+            case Surface.ROTATION_270:
+                displayRotation = 270;
+                break;
+            default:
+                displayRotation = 0;
+                break;
+        }
+        Log.i(TAG, "Screen resolution: " + screenResolution + ", rotation " + displayRotation);
+    }
+
+    private Point getLandscapeScreenResolution() {
+        // Preview sizes are always landscape, the way the sensor is mounted
+        if (screenResolution.x >= screenResolution.y) {
+            return screenResolution;
+        }
+        return new Point(screenResolution.y, screenResolution.x);
+    }
+
+    void setSensorOrientation(int sensorOrientation) {
+        this.sensorOrientation = sensorOrientation;
+    }
+
+    /**
+     * Degrees a preview frame has to be turned clockwise to appear upright on the screen.
+     */
+    int getFrameRotation() {
+        return (sensorOrientation - displayRotation + 360) % 360;
     }
 
     void setDesiredCameraParameters(Camera camera) {
@@ -87,6 +142,7 @@ final class CameraConfigurationManager {
 
         parameters.setPreviewSize(cameraResolution.x, cameraResolution.y);
         camera.setParameters(parameters);
+        camera.setDisplayOrientation(getFrameRotation());
     }
 
     Point getCameraResolution() {
@@ -130,15 +186,16 @@ final class CameraConfigurationManager {
         }
     }
 
-    private Point findBestPreviewSizeValue(Camera.Parameters parameters, Point screenResolution) {
+    private Point findBestPreviewSizeValue(List<Point> previewSizes, Point defaultSize,
+                                           Point screenResolution) {
 
    
-        List<Camera.Size> supportedPreviewSizes = new ArrayList<Camera.Size>(parameters.getSupportedPreviewSizes());
-        Collections.sort(supportedPreviewSizes, new Comparator<Camera.Size>() {
+        List<Point> supportedPreviewSizes = new ArrayList<Point>(previewSizes);
+        Collections.sort(supportedPreviewSizes, new Comparator<Point>() {
             @Override
-            public int compare(Camera.Size a, Camera.Size b) {
-                int aPixels = a.height * a.width;
-                int bPixels = b.height * b.width;
+            public int compare(Point a, Point b) {
+                int aPixels = a.y * a.x;
+                int bPixels = b.y * b.x;
                 if (bPixels < aPixels) {
                     return -1;
                 }
@@ -151,9 +208,9 @@ final class CameraConfigurationManager {
 
         if (Log.isLoggable(TAG, Log.INFO)) {
             StringBuilder previewSizesString = new StringBuilder();
-            for (Camera.Size supportedPreviewSize : supportedPreviewSizes) {
-                previewSizesString.append(supportedPreviewSize.width).append('x')
-                        .append(supportedPreviewSize.height).append(' ');
+            for (Point supportedPreviewSize : supportedPreviewSizes) {
+                previewSizesString.append(supportedPreviewSize.x).append('x')
+                        .append(supportedPreviewSize.y).append(' ');
             }
             Log.i(TAG, "Supported preview sizes: " + previewSizesString);
         }
@@ -162,9 +219,9 @@ final class CameraConfigurationManager {
         float screenAspectRatio = (float) screenResolution.x / (float) screenResolution.y;
 
         float diff = Float.POSITIVE_INFINITY;
-        for (Camera.Size supportedPreviewSize : supportedPreviewSizes) {
-            int realWidth = supportedPreviewSize.width;
-            int realHeight = supportedPreviewSize.height;
+        for (Point supportedPreviewSize : supportedPreviewSizes) {
+            int realWidth = supportedPreviewSize.x;
+            int realHeight = supportedPreviewSize.y;
             int pixels = realWidth * realHeight;
             if (pixels < MIN_PREVIEW_PIXELS || pixels > MAX_PREVIEW_PIXELS) {
                 continue;
@@ -186,8 +243,7 @@ final class CameraConfigurationManager {
         }
 
         if (bestSize == null) {
-            Camera.Size defaultSize = parameters.getPreviewSize();
-            bestSize = new Point(defaultSize.width, defaultSize.height);
+            bestSize = new Point(defaultSize.x, defaultSize.y);
             Log.i(TAG, "No suitable preview sizes, using default: " + bestSize);
         }
 
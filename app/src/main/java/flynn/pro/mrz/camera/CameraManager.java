@@ -4,14 +4,17 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.hardware.Camera;
+import android.os.Build;
 import android.os.Handler;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.SurfaceHolder;
 
 import java.io.IOException;
 
-import flynn.pro.mrz.PlanarYUVLuminanceSource;
+import flynn.pro.mrz.ByteBufferLuminanceSource;
+import flynn.pro.mrz.CaptureActivity;
+import flynn.pro.mrz.LuminanceSource;
 import flynn.pro.mrz.PreferencesActivity;
 
 
@@ -24,92 +27,94 @@ public final class CameraManager {
   
   private final Context context;
   private final CameraConfigurationManager configManager;
-  private Camera camera;
-  private AutoFocusManager autoFocusManager;
+  private CaptureBackend backend;
   private Rect framingRect;
   private Rect framingRectInPreview;
   private boolean initialized;
-  private boolean previewing;
+  private boolean backendInitialized;
+  private boolean camera2Unavailable;
   private boolean reverseImage;
   private int requestedFramingRectWidth;
   private int requestedFramingRectHeight;
-  private final PreviewCallback previewCallback;
 
   public CameraManager(Context context) {
     this.context = context;
     this.configManager = new CameraConfigurationManager(context);
-    previewCallback = new PreviewCallback(configManager);
   }
 
   public synchronized void openDriver(SurfaceHolder holder) throws IOException {
-    Camera theCamera = camera;
-    if (theCamera == null) {
-      theCamera = Camera.open();
-      if (theCamera == null) {
-        throw new IOException();
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    configManager.initScreenResolution();
+    if (backend == null || !backend.isOpen()) {
+      boolean useCamera2 = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+          && prefs.getBoolean(PreferencesActivity.KEY_CAMERA2,
+              CaptureActivity.DEFAULT_TOGGLE_CAMERA2) && !camera2Unavailable;
+      if (backend == null || useCamera2 != (backend instanceof Camera2CaptureBackend)) {
+        backend = useCamera2
+            ? new Camera2CaptureBackend(context, configManager)
+            : new LegacyCaptureBackend(context, configManager);
+        backendInitialized = false;
+      }
+    }
+    try {
+      backend.open(holder, !backendInitialized);
+    } catch (IOException e) {
+      if (!(backend instanceof Camera2CaptureBackend)) {
+        throw e;
       }
-      camera = theCamera;
+      Log.w(TAG, "Falling back to the legacy camera API", e);
+      camera2Unavailable = true;
+      backend = new LegacyCaptureBackend(context, configManager);
+      backend.open(holder, true);
     }
-    camera.setPreviewDisplay(holder);
+    backendInitialized = true;
     if (!initialized) {
       initialized = true;
-      configManager.initFromCameraParameters(theCamera);
       if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
         adjustFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
         requestedFramingRectWidth = 0;
         requestedFramingRectHeight = 0;
       }
     }
-    configManager.setDesiredCameraParameters(theCamera);
-    
-    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
     reverseImage = prefs.getBoolean(PreferencesActivity.KEY_REVERSE_IMAGE, false);
   }
 
   public synchronized void closeDriver() {
-    if (camera != null) {
-      camera.release();
-      camera = null;
+    if (backend != null && backend.isOpen()) {
+      backend.close();
 
       framingRect = null;
       framingRectInPreview = null;
     }
   }
   public synchronized void startPreview() {
-    Camera theCamera = camera;
-    if (theCamera != null && !previewing) {
-      theCamera.startPreview();
-      previewing = true;
-      autoFocusManager = new AutoFocusManager(context, camera);
+    if (backend != null) {
+      backend.startPreview();
     }
   }
 
   public synchronized void stopPreview() {
-    if (autoFocusManager != null) {
-    	autoFocusManager.stop();
-    	autoFocusManager = null;
-    }
-  	if (camera != null && previewing) {
-      camera.stopPreview();
-      previewCallback.setHandler(null, 0);
-      previewing = false;
+    if (backend != null) {
+      backend.stopPreview();
     }
   }
 
   public synchronized void requestOcrDecode(Handler handler, int message) {
-    Camera theCamera = camera;
-    if (theCamera != null && previewing) {
-      previewCallback.setHandler(handler, message);
-      theCamera.setOneShotPreviewCallback(previewCallback);
+    if (backend != null) {
+      backend.requestFrame(handler, message);
     }
   }
+
   public synchronized void requestAutoFocus(long delay) {
-  	autoFocusManager.start(delay);
+    if (backend != null) {
+      backend.requestAutoFocus(delay);
+    }
   }
 
   public synchronized Rect getFramingRect() {
     if (framingRect == null) {
-      if (camera == null) {
+      if (backend == null || !backend.isOpen()) {
         return null;
       }
       Point screenResolution = configManager.getScreenResolution();
@@ -120,7 +125,7 @@ public final class CameraManager {
       if (width < MIN_FRAME_WIDTH) {
         width = MIN_FRAME_WIDTH;
       }
-      int height = screenResolution.y / 4;
+      int height = Math.min(screenResolution.x, screenResolution.y) / 4;
       if (height < MIN_FRAME_HEIGHT) {
         height = MIN_FRAME_HEIGHT;
       }
@@ -130,25 +135,70 @@ public final class CameraManager {
     }
     return framingRect;
   }
+
+  /**
+   * The framing rectangle in preview frame coordinates. Frames come the way the sensor is
+   * mounted, so when the screen is turned the rectangle is turned back to match.
+   */
   public synchronized Rect getFramingRectInPreview() {
     if (framingRectInPreview == null) {
-      Rect rect = new Rect(getFramingRect());
+      Rect framing = getFramingRect();
       Point cameraResolution = configManager.getCameraResolution();
       Point screenResolution = configManager.getScreenResolution();
-      if (cameraResolution == null || screenResolution == null) {
+      if (framing == null || cameraResolution == null || screenResolution == null) {
         return null;
       }
-      rect.left = rect.left * cameraResolution.x / screenResolution.x;
-      rect.right = rect.right * cameraResolution.x / screenResolution.x;
-      rect.top = rect.top * cameraResolution.y / screenResolution.y;
-      rect.bottom = rect.bottom * cameraResolution.y / screenResolution.y;
+      int rotation = configManager.getFrameRotation();
+      // Scale into the frame as it appears on screen, then turn it back counterclockwise
+      int uprightWidth = rotation % 180 == 0 ? cameraResolution.x : cameraResolution.y;
+      int uprightHeight = rotation % 180 == 0 ? cameraResolution.y : cameraResolution.x;
+      int left = framing.left * uprightWidth / screenResolution.x;
+      int right = framing.right * uprightWidth / screenResolution.x;
+      int top = framing.top * uprightHeight / screenResolution.y;
+      int bottom = framing.bottom * uprightHeight / screenResolution.y;
+      Rect rect;
+      switch (rotation) {
+        case 90:
+          rect = new Rect(top, cameraResolution.y - right, bottom, cameraResolution.y - left);
+          break;
+        case 180:
+          rect = new Rect(cameraResolution.x - right, cameraResolution.y - bottom,
+                          cameraResolution.x - left, cameraResolution.y - top);
+          break;
+        case 270:
+          rect = new Rect(cameraResolution.x - bottom, left, cameraResolution.x - top, right);
+          break;
+        default:
+          rect = new Rect(left, top, right, bottom);
+          break;
+      }
       framingRectInPreview = rect;
     }
     return framingRectInPreview;
   }
 
+  /**
+   * Degrees a preview frame has to be turned clockwise to appear the way it is on screen.
+   */
+  public synchronized int getFrameRotation() {
+    return configManager.getFrameRotation();
+  }
+
+  /**
+   * Picks up a new screen rotation: the framing rectangle starts over and the preview turns.
+   * The camera keeps running.
+   */
+  public synchronized void updateDisplayOrientation() {
+    configManager.initScreenResolution();
+    framingRect = null;
+    framingRectInPreview = null;
+    if (backend != null && backend.isOpen()) {
+      backend.updateDisplayOrientation();
+    }
+  }
+
   public synchronized void adjustFramingRect(int deltaWidth, int deltaHeight) {
-    if (initialized) {
+    if (initialized && getFramingRect() != null) {
       Point screenResolution = configManager.getScreenResolution();
       if ((framingRect.width() + deltaWidth > screenResolution.x - 4) || (framingRect.width() + deltaWidth < 50)) {
         deltaWidth = 0;
@@ -168,13 +218,32 @@ public final class CameraManager {
       requestedFramingRectHeight = deltaHeight;
     }
   }
-  public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
-    Rect rect = getFramingRectInPreview();
+  /**
+   * Returns the part of the frame inside the framing rectangle, reading the frame in place and
+   * turned upright the way it appears on screen. Only the rectangle is ever rotated.
+   */
+  public LuminanceSource buildLuminanceSource(PreviewFrame frame) {
+    Rect rect;
+    int rotation;
+    synchronized (this) {
+      rect = getFramingRectInPreview();
+      rotation = configManager.getFrameRotation();
+    }
     if (rect == null) {
       return null;
     }
-    return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-                                        rect.width(), rect.height(), reverseImage);
+    LuminanceSource source = new ByteBufferLuminanceSource(frame.getLuminancePlane(),
+        frame.getRowStride(), frame.getPixelStride(), frame.getWidth(), frame.getHeight(),
+        rect.left, rect.top, rect.width(), rect.height(), reverseImage);
+    int quarterTurns = (4 - rotation / 90) % 4;
+    if (reverseImage && rotation % 180 != 0) {
+      // Mirror across the screen rather than across the sensor
+      quarterTurns = (quarterTurns + 2) % 4;
+    }
+    for (int i = 0; i < quarterTurns; i++) {
+      source = source.rotateCounterClockwise();
+    }
+    return source;
   }
 
 }
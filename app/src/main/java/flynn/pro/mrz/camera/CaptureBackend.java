@@ -0,0 +1,38 @@
+package flynn.pro.mrz.camera;
+
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * A camera API that {@link CameraManager} can drive. Calls come in under the manager's lock.
+ */
+interface CaptureBackend {
+
+  /**
+   * Opens the camera, initializes the configuration manager's resolutions if they are not set
+   * yet and points the preview at the holder.
+   */
+  void open(SurfaceHolder holder, boolean initialize) throws IOException;
+
+  boolean isOpen();
+
+  void close();
+
+  void startPreview();
+
+  void stopPreview();
+
+  /**
+   * Sends the next frame to the handler as the {@link PreviewFrame} of a message with the
+   * given what and the frame size in arg1 and arg2.
+   */
+  void requestFrame(Handler handler, int message);
+
+  void requestAutoFocus(long delay);
+
+  /** Turns the preview to the configuration manager's current frame rotation. */
+  void updateDisplayOrientation();
+
+}
@@ -0,0 +1,123 @@
+package flynn.pro.mrz.camera;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * Preview frames from {@link Camera}, copied by the driver into a small pool of NV21 callback
+ * buffers. Works everywhere; the fallback when camera2 is unavailable or turned off.
+ */
+final class LegacyCaptureBackend implements CaptureBackend {
+
+  private final Context context;
+  private final CameraConfigurationManager configManager;
+  private final PreviewBufferPool previewBufferPool;
+  private final PreviewCallback previewCallback;
+  private Camera camera;
+  private AutoFocusManager autoFocusManager;
+  private boolean previewing;
+
+  LegacyCaptureBackend(Context context, CameraConfigurationManager configManager) {
+    this.context = context;
+    this.configManager = configManager;
+    previewBufferPool = new PreviewBufferPool();
+    previewCallback = new PreviewCallback(configManager, previewBufferPool);
+  }
+
+  @Override
+  public void open(SurfaceHolder holder, boolean initialize) throws IOException {
+    Camera theCamera = camera;
+    if (theCamera == null) {
+      theCamera = Camera.open();
+      if (theCamera == null) {
+        throw new IOException();
+      }
+      camera = theCamera;
+    }
+    camera.setPreviewDisplay(holder);
+    configManager.setSensorOrientation(findBackCameraOrientation());
+    if (initialize) {
+      configManager.initFromCameraParameters(theCamera);
+    }
+    configManager.setDesiredCameraParameters(theCamera);
+  }
+
+  private static int findBackCameraOrientation() {
+    // Camera.open() opens the first back-facing camera
+    Camera.CameraInfo info = new Camera.CameraInfo();
+    for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+      Camera.getCameraInfo(i, info);
+      if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
+        return info.orientation;
+      }
+    }
+    return 90;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return camera != null;
+  }
+
+  @Override
+  public void close() {
+    if (camera != null) {
+      previewBufferPool.detach();
+      camera.release();
+      camera = null;
+    }
+  }
+
+  @Override
+  public void startPreview() {
+    Camera theCamera = camera;
+    if (theCamera != null && !previewing) {
+      theCamera.setPreviewCallbackWithBuffer(previewCallback);
+      previewBufferPool.attach(theCamera, configManager.getCameraResolution());
+      theCamera.startPreview();
+      previewing = true;
+      autoFocusManager = new AutoFocusManager(context, camera);
+    }
+  }
+
+  @Override
+  public void stopPreview() {
+    if (autoFocusManager != null) {
+      autoFocusManager.stop();
+      autoFocusManager = null;
+    }
+    if (camera != null && previewing) {
+      camera.stopPreview();
+      camera.setPreviewCallbackWithBuffer(null);
+      previewBufferPool.detach();
+      previewCallback.setHandler(null, 0);
+      previewing = false;
+    }
+  }
+
+  @Override
+  public void requestFrame(Handler handler, int message) {
+    if (camera != null && previewing) {
+      previewCallback.setHandler(handler, message);
+    }
+  }
+
+  @Override
+  public void requestAutoFocus(long delay) {
+    if (autoFocusManager != null) {
+      autoFocusManager.start(delay);
+    }
+  }
+
+  @Override
+  public void updateDisplayOrientation() {
+    if (camera != null) {
+      camera.setDisplayOrientation(configManager.getFrameRotation());
+    }
+  }
+
+}
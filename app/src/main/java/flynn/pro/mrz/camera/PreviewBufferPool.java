@@ -0,0 +1,94 @@
+package flynn.pro.mrz.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+final class PreviewBufferPool implements PreviewFrame.Owner {
+
+  private static final String TAG = PreviewBufferPool.class.getSimpleName();
+
+  private static final int BUFFER_COUNT = 3;
+
+  private final List<byte[]> owned = new ArrayList<byte[]>(BUFFER_COUNT);
+  private final List<byte[]> free = new ArrayList<byte[]>(BUFFER_COUNT);
+  private final List<byte[]> queued = new ArrayList<byte[]>(BUFFER_COUNT);
+  private final List<PreviewFrame> frames = new ArrayList<PreviewFrame>(BUFFER_COUNT);
+  private int bufferSize;
+  private Camera camera;
+
+  synchronized void attach(Camera camera, Point cameraResolution) {
+    int size = cameraResolution.x * cameraResolution.y
+        * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+    if (size != bufferSize) {
+      owned.clear();
+      free.clear();
+      queued.clear();
+      frames.clear();
+      bufferSize = size;
+    }
+    // Buffers still held by the decoder from a previous preview session are orphaned and
+    // replaced; release() drops them when they come back.
+    for (int i = owned.size() - 1; i >= 0; i--) {
+      if (!free.contains(owned.get(i))) {
+        owned.remove(i);
+        frames.remove(i);
+      }
+    }
+    while (owned.size() < BUFFER_COUNT) {
+      byte[] buffer = new byte[bufferSize];
+      owned.add(buffer);
+      frames.add(new PreviewFrame(this));
+      free.add(buffer);
+    }
+    Log.d(TAG, "Feeding " + free.size() + " preview buffers of " + bufferSize + " bytes");
+    this.camera = camera;
+    for (int i = 0; i < free.size(); i++) {
+      byte[] buffer = free.get(i);
+      camera.addCallbackBuffer(buffer);
+      queued.add(buffer);
+    }
+    free.clear();
+  }
+
+  synchronized void detach() {
+    camera = null;
+    free.addAll(queued);
+    queued.clear();
+  }
+
+  /** Takes a buffer back from the camera and returns the frame that carries it. */
+  synchronized PreviewFrame onFrameDelivered(byte[] buffer, Point cameraResolution) {
+    queued.remove(buffer);
+    int index = owned.indexOf(buffer);
+    if (index < 0 || cameraResolution == null) {
+      return null;
+    }
+    PreviewFrame frame = frames.get(index);
+    frame.setData(buffer, cameraResolution.x, cameraResolution.y);
+    return frame;
+  }
+
+  @Override
+  public void release(PreviewFrame frame) {
+    release(frame.getData());
+  }
+
+  synchronized void release(byte[] buffer) {
+    if (buffer == null || !owned.contains(buffer)) {
+      return;
+    }
+    if (camera != null) {
+      camera.addCallbackBuffer(buffer);
+      queued.add(buffer);
+    } else {
+      free.add(buffer);
+    }
+  }
+
+}
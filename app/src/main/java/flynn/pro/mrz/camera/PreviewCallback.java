@@ -4,19 +4,23 @@ import android.graphics.Point;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Message;
-import android.util.Log;
 
+import flynn.pro.mrz.metrics.Counter;
+import flynn.pro.mrz.metrics.PipelineMetrics;
+import flynn.pro.mrz.metrics.Stage;
 
-final class PreviewCallback implements Camera.PreviewCallback {
 
-  private static final String TAG = PreviewCallback.class.getSimpleName();
+final class PreviewCallback implements Camera.PreviewCallback {
 
   private final CameraConfigurationManager configManager;
+  private final PreviewBufferPool bufferPool;
   private Handler previewHandler;
   private int previewMessage;
+  private long lastFrameNanos;
 
-  PreviewCallback(CameraConfigurationManager configManager) {
+  PreviewCallback(CameraConfigurationManager configManager, PreviewBufferPool bufferPool) {
     this.configManager = configManager;
+    this.bufferPool = bufferPool;
   }
 
   void setHandler(Handler previewHandler, int previewMessage) {
@@ -26,15 +30,23 @@ final class PreviewCallback implements Camera.PreviewCallback {
 
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
+    PipelineMetrics metrics = PipelineMetrics.get();
+    metrics.increment(Counter.FRAMES_DELIVERED);
+    if (lastFrameNanos != 0L) {
+      lastFrameNanos = metrics.recordSince(Stage.FRAME_ARRIVAL, lastFrameNanos);
+    } else {
+      lastFrameNanos = System.nanoTime();
+    }
     Point cameraResolution = configManager.getCameraResolution();
+    PreviewFrame frame = bufferPool.onFrameDelivered(data, cameraResolution);
     Handler thePreviewHandler = previewHandler;
-    if (cameraResolution != null && thePreviewHandler != null) {
+    if (frame != null && thePreviewHandler != null) {
       Message message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
-          cameraResolution.y, data);
+          cameraResolution.y, frame);
       message.sendToTarget();
       previewHandler = null;
     } else {
-      Log.d(TAG, "Got preview callback, but no handler or resolution available");
+      bufferPool.release(data);
     }
   }
 
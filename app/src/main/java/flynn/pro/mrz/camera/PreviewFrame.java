@@ -0,0 +1,105 @@
+package flynn.pro.mrz.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A preview frame on its way to the decoder: either an NV21 buffer from the legacy camera or
+ * the luminance plane of a camera2 image. Either way the luminance is available as a buffer
+ * with row and pixel strides, read in place. Frames are pooled by the capture backend that
+ * filled them; whoever ends up holding one must call {@link #release()} exactly once, as soon
+ * as it is done reading the pixels.
+ */
+public final class PreviewFrame {
+
+  /** Value of {@link #getExposureTimeNanos()} when the backend does not report exposure. */
+  public static final long UNKNOWN_EXPOSURE = -1L;
+
+  interface Owner {
+    void release(PreviewFrame frame);
+  }
+
+  private final Owner owner;
+  private byte[] data;
+  private ByteBuffer luminancePlane;
+  private int rowStride;
+  private int pixelStride;
+  private int width;
+  private int height;
+  private long exposureTimeNanos = UNKNOWN_EXPOSURE;
+  private boolean focusing;
+  Object image;
+
+  PreviewFrame(Owner owner) {
+    this.owner = owner;
+  }
+
+  void setData(byte[] data, int width, int height) {
+    if (data != this.data || luminancePlane == null) {
+      luminancePlane = ByteBuffer.wrap(data);
+    }
+    this.data = data;
+    this.rowStride = width;
+    this.pixelStride = 1;
+    this.width = width;
+    this.height = height;
+    exposureTimeNanos = UNKNOWN_EXPOSURE;
+    focusing = false;
+  }
+
+  void setLuminancePlane(ByteBuffer luminancePlane, int rowStride, int pixelStride, int width,
+                         int height) {
+    this.data = null;
+    this.luminancePlane = luminancePlane;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    this.width = width;
+    this.height = height;
+    exposureTimeNanos = UNKNOWN_EXPOSURE;
+    focusing = false;
+  }
+
+  void setCaptureResult(long exposureTimeNanos, boolean focusing) {
+    this.exposureTimeNanos = exposureTimeNanos;
+    this.focusing = focusing;
+  }
+
+  /** The NV21 preview buffer, or null if the frame is a luminance plane. */
+  public byte[] getData() {
+    return data;
+  }
+
+  /** The luminance, starting at the first pixel of the first row. */
+  public ByteBuffer getLuminancePlane() {
+    return luminancePlane;
+  }
+
+  public int getRowStride() {
+    return rowStride;
+  }
+
+  public int getPixelStride() {
+    return pixelStride;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public long getExposureTimeNanos() {
+    return exposureTimeNanos;
+  }
+
+  /** True if the lens was still moving or the focus sweep still running for this frame. */
+  public boolean isFocusing() {
+    return focusing;
+  }
+
+  public void release() {
+    owner.release(this);
+  }
+
+}
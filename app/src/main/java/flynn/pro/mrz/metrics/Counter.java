@@ -0,0 +1,26 @@
+package flynn.pro.mrz.metrics;
+
+
+/**
+ * Events of the continuous decode pipeline that are counted rather than timed.
+ */
+public enum Counter {
+
+  /** Preview frames the camera delivered. */
+  FRAMES_DELIVERED,
+  /** Requested frames handed back unused because every decode worker was busy or paused. */
+  FRAMES_DROPPED,
+  /** Frames turned away as too blurry to read. */
+  FRAMES_BLURRED,
+  /** Frames turned away because the picture moved since the previous frame. */
+  FRAMES_MOVING,
+  /** Frames turned away because the camera reported the lens still focusing. */
+  FRAMES_FOCUSING,
+  /** Frames in which no MRZ band was found, so Tesseract never ran. */
+  FRAMES_WITHOUT_MRZ,
+  /** Frames Tesseract recognized text in. */
+  FRAMES_DECODED,
+  /** Frames Tesseract found no text in or failed on. */
+  FRAMES_FAILED
+
+}
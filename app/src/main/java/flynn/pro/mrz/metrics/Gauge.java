@@ -0,0 +1,14 @@
+package flynn.pro.mrz.metrics;
+
+
+/**
+ * Levels of the decode pipeline that go up and down, reported with the highest they reached.
+ */
+public enum Gauge {
+
+  /** Leptonica images and image arrays the pipeline allocated and has not freed yet. */
+  NATIVE_IMAGES,
+  /** Native pixel bytes held by those images. */
+  NATIVE_IMAGE_BYTES
+
+}
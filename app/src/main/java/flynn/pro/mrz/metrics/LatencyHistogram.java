@@ -0,0 +1,147 @@
+package flynn.pro.mrz.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Lock-free latency histogram in microseconds with HdrHistogram-style log-linear buckets: every
+ * power of two is split into 16 linear sub-buckets, so any recorded value is reported within
+ * about 6% of its true value, from 1 us up to over an hour.
+ *
+ * Samples roll over in two windows of {@link #WINDOW_MILLIS}; queries cover the current window
+ * and the one before it, so they always describe the last one to two minutes.
+ */
+public final class LatencyHistogram {
+
+  static final long WINDOW_MILLIS = 60000L;
+
+  private static final int SUB_BUCKET_HALF_MAGNITUDE = 4;
+  private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_MAGNITUDE;
+  private static final int SUB_BUCKET_MASK = 2 * SUB_BUCKET_HALF_COUNT - 1;
+  private static final int MAX_BUCKET = 32;
+  private static final int BUCKET_COUNT = (MAX_BUCKET + 2) * SUB_BUCKET_HALF_COUNT;
+  private static final long MAX_VALUE = ((long) SUB_BUCKET_MASK << MAX_BUCKET);
+
+  private final AtomicLongArray[] windows = {
+      new AtomicLongArray(BUCKET_COUNT), new AtomicLongArray(BUCKET_COUNT)
+  };
+  private final AtomicLong currentWindow = new AtomicLong(-1L);
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one sample. Negative values count as zero and values beyond the range as the
+   * largest trackable value.
+   */
+  public void record(long micros) {
+    long value = Math.max(0L, Math.min(micros, MAX_VALUE));
+    long window = System.nanoTime() / 1000000L / WINDOW_MILLIS;
+    long current = currentWindow.get();
+    if (window != current && currentWindow.compareAndSet(current, window)) {
+      // The slot now starting was last used two windows ago. Samples racing with this clear
+      // may be lost, which a latency picture can afford.
+      clear(windows[(int) (window & 1)]);
+      if (window != current + 1) {
+        clear(windows[(int) ((window + 1) & 1)]);
+      }
+    }
+    windows[(int) (window & 1)].incrementAndGet(indexOf(value));
+
+    long previousMax;
+    while (value > (previousMax = max.get()) && !max.compareAndSet(previousMax, value)) {
+      // Retry until the max sticks or another thread recorded a larger one
+    }
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += countAt(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the value in microseconds below which the given percentage (0-100) of the samples
+   * in the window fall, or 0 if there are none.
+   */
+  public long getValueAtPercentile(double percentile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = countAt(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0L;
+    }
+    long target = Math.max(1L, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return Math.min(highestValueAt(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public double getMean() {
+    long count = 0;
+    double sum = 0.0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long bucketCount = countAt(i);
+      if (bucketCount > 0) {
+        count += bucketCount;
+        sum += bucketCount * (double) (lowestValueAt(i) + highestValueAt(i)) / 2.0;
+      }
+    }
+    return count == 0 ? 0.0 : sum / count;
+  }
+
+  /**
+   * Largest sample recorded since the last reset, regardless of window.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  public void reset() {
+    clear(windows[0]);
+    clear(windows[1]);
+    max.set(0L);
+  }
+
+  private long countAt(int index) {
+    return windows[0].get(index) + windows[1].get(index);
+  }
+
+  private static void clear(AtomicLongArray counts) {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0L);
+    }
+  }
+
+  static int indexOf(long value) {
+    int bucket = 64 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK)
+        - (SUB_BUCKET_HALF_MAGNITUDE + 1);
+    int subBucket = (int) (value >>> bucket);
+    return ((bucket + 1) << SUB_BUCKET_HALF_MAGNITUDE) + subBucket - SUB_BUCKET_HALF_COUNT;
+  }
+
+  static long lowestValueAt(int index) {
+    int bucket = (index >> SUB_BUCKET_HALF_MAGNITUDE) - 1;
+    int subBucket = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+    if (bucket < 0) {
+      bucket = 0;
+      subBucket -= SUB_BUCKET_HALF_COUNT;
+    }
+    return (long) subBucket << bucket;
+  }
+
+  static long highestValueAt(int index) {
+    int bucket = Math.max(0, (index >> SUB_BUCKET_HALF_MAGNITUDE) - 1);
+    return lowestValueAt(index) + (1L << bucket) - 1;
+  }
+
+}
@@ -0,0 +1,142 @@
+package flynn.pro.mrz.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Process-wide latency histograms per {@link Stage}, counts per {@link Counter} and levels per
+ * {@link Gauge}. Recording is lock-free and allocation-free, so it is safe on the camera,
+ * decode and UI threads alike.
+ */
+public final class PipelineMetrics {
+
+  private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+  private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+  private final AtomicLongArray gauges = new AtomicLongArray(Gauge.values().length);
+  private final AtomicLongArray peaks = new AtomicLongArray(Gauge.values().length);
+
+  private PipelineMetrics() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  public static PipelineMetrics get() {
+    return INSTANCE;
+  }
+
+  public void record(Stage stage, long micros) {
+    histograms[stage.ordinal()].record(micros);
+  }
+
+  /**
+   * Records the time since startNanos, a {@link System#nanoTime()} reading, for the given stage
+   * and returns the current time so consecutive stages can be chained.
+   */
+  public long recordSince(Stage stage, long startNanos) {
+    long now = System.nanoTime();
+    histograms[stage.ordinal()].record((now - startNanos) / 1000L);
+    return now;
+  }
+
+  public void increment(Counter counter) {
+    counters.incrementAndGet(counter.ordinal());
+  }
+
+  /**
+   * Moves the given gauge by delta, which may be negative, keeping track of its peak.
+   */
+  public void add(Gauge gauge, long delta) {
+    int index = gauge.ordinal();
+    long value = gauges.addAndGet(index, delta);
+    long peak;
+    while (value > (peak = peaks.get(index)) && !peaks.compareAndSet(index, peak, value)) {
+      // Another thread raised the peak; compare again
+    }
+  }
+
+  public LatencyHistogram getHistogram(Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  public long getCount(Counter counter) {
+    return counters.get(counter.ordinal());
+  }
+
+  public long getGauge(Gauge gauge) {
+    return gauges.get(gauge.ordinal());
+  }
+
+  /**
+   * The highest the given gauge has been since the last {@link #reset()}.
+   */
+  public long getPeak(Gauge gauge) {
+    return peaks.get(gauge.ordinal());
+  }
+
+  /**
+   * Clears the histograms and counters. Gauges keep their level, which is still real, and
+   * their peaks start again from it.
+   */
+  public void reset() {
+    for (LatencyHistogram histogram : histograms) {
+      histogram.reset();
+    }
+    for (int i = 0; i < counters.length(); i++) {
+      counters.set(i, 0L);
+    }
+    for (int i = 0; i < gauges.length(); i++) {
+      peaks.set(i, gauges.get(i));
+    }
+  }
+
+  /**
+   * Returns a plain text table of every stage's p50, p90, p99 and max in milliseconds, followed
+   * by the counters and the gauges with their peaks.
+   */
+  public String report() {
+    StringBuilder report = new StringBuilder(1024);
+    report.append(String.format(Locale.US, "%-18s %8s %8s %8s %8s %8s%n",
+        "stage (ms)", "count", "p50", "p90", "p99", "max"));
+    for (Stage stage : Stage.values()) {
+      LatencyHistogram histogram = histograms[stage.ordinal()];
+      report.append(String.format(Locale.US, "%-18s %8d %8.1f %8.1f %8.1f %8.1f%n",
+          stage.name().toLowerCase(Locale.US),
+          histogram.getCount(),
+          histogram.getValueAtPercentile(50.0) / 1000.0,
+          histogram.getValueAtPercentile(90.0) / 1000.0,
+          histogram.getValueAtPercentile(99.0) / 1000.0,
+          histogram.getMax() / 1000.0));
+    }
+    for (Counter counter : Counter.values()) {
+      report.append(String.format(Locale.US, "%-18s %8d%n",
+          counter.name().toLowerCase(Locale.US), getCount(counter)));
+    }
+    for (Gauge gauge : Gauge.values()) {
+      report.append(String.format(Locale.US, "%-18s %8d %8s %8d%n",
+          gauge.name().toLowerCase(Locale.US), getGauge(gauge), "peak", getPeak(gauge)));
+    }
+    return report.toString();
+  }
+
+  /**
+   * Writes {@link #report()} to the given file, replacing its contents.
+   */
+  public void dump(File file) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(report());
+    } finally {
+      writer.close();
+    }
+  }
+
+}
@@ -0,0 +1,42 @@
+package flynn.pro.mrz.metrics;
+
+
+/**
+ * Timed steps of the continuous decode pipeline, in the order a frame passes through them.
+ */
+public enum Stage {
+
+  /** Reading a still image file, in batch scans; these have no preview frames. */
+  IMAGE_DECODE,
+  /** Time between two preview frames delivered by the camera. */
+  FRAME_ARRIVAL,
+  /** Time a frame waited in a decode worker's queue. */
+  DECODE_QUEUE,
+  /** Scoring sharpness and motion to turn away unreadable frames. */
+  QUALITY_GATE,
+  /** Finding the MRZ band in the framing rectangle. */
+  MRZ_LOCALIZE,
+  /** Copying the band's luminance out of the preview frame. */
+  LUMINANCE_CROP,
+  /** Building the 8 bpp image Leptonica works on. */
+  GREYSCALE_RENDER,
+  /** Rotating the band level. */
+  DESKEW,
+  /** Binarizing the band. */
+  THRESHOLD,
+  /** TessBaseAPI.setImage. */
+  SET_IMAGE,
+  /** TessBaseAPI.getUTF8Text, the recognition itself. */
+  RECOGNIZE_TEXT,
+  /** Symbol confidences and bounding boxes. */
+  BOX_EXTRACTION,
+  /** Normalizing the recognized text into MRZ lines. */
+  MRZ_PARSE,
+  /** Everything a worker spends on one frame. */
+  DECODE_TOTAL,
+  /** Time a result waited before the UI thread handled it. */
+  UI_DISPATCH,
+  /** Voting on the MRZ and parsing the winner on the UI thread. */
+  MRZ_VOTE
+
+}
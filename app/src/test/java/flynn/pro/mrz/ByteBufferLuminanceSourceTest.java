@@ -0,0 +1,92 @@
+package flynn.pro.mrz;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ByteBufferLuminanceSourceTest {
+
+  //  0  1  2  3
+  //  4  5  6  7
+  //  8  9 10 11
+  private static final byte[] FRAME = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+  @Test
+  public void cropReadsTheRectangle() {
+    LuminanceSource source = frame(false).crop(1, 1, 2, 2);
+    assertEquals(2, source.getWidth());
+    assertEquals(2, source.getHeight());
+    assertArrayEquals(new byte[] {5, 6, 9, 10}, source.getMatrix(null));
+  }
+
+  @Test
+  public void rotationTurnsCounterclockwise() {
+    LuminanceSource source = frame(false).rotateCounterClockwise();
+    assertEquals(3, source.getWidth());
+    assertEquals(4, source.getHeight());
+    assertArrayEquals(new byte[] {3, 7, 11, 2, 6, 10, 1, 5, 9, 0, 4, 8}, source.getMatrix(null));
+    assertArrayEquals(new byte[] {2, 6, 10}, source.getRow(1, null));
+  }
+
+  @Test
+  public void fourRotationsComeBackToTheFrame() {
+    LuminanceSource source = frame(false);
+    for (int i = 0; i < 4; i++) {
+      source = source.rotateCounterClockwise();
+    }
+    assertArrayEquals(FRAME, source.getMatrix(null));
+  }
+
+  @Test
+  public void mirroringReversesRows() {
+    LuminanceSource source = frame(true);
+    assertArrayEquals(new byte[] {3, 2, 1, 0, 7, 6, 5, 4, 11, 10, 9, 8}, source.getMatrix(null));
+    assertArrayEquals(new byte[] {6, 5}, source.crop(1, 1, 2, 1).getMatrix(null));
+  }
+
+  @Test
+  public void cropOfARotatedViewIsInViewCoordinates() {
+    // Rotated:  3  7 11 / 2  6 10 / 1  5  9 / 0  4  8
+    LuminanceSource source = frame(false).rotateCounterClockwise().crop(1, 1, 2, 2);
+    assertArrayEquals(new byte[] {6, 10, 5, 9}, source.getMatrix(null));
+  }
+
+  @Test
+  public void stridesSkipPaddingAndInterleavedSamples() {
+    // Two samples per pixel and two bytes of padding per row
+    byte[] data = new byte[3 * 10];
+    for (int y = 0; y < 3; y++) {
+      for (int x = 0; x < 4; x++) {
+        data[y * 10 + 2 * x] = FRAME[y * 4 + x];
+        data[y * 10 + 2 * x + 1] = -1;
+      }
+    }
+    LuminanceSource source = new ByteBufferLuminanceSource(ByteBuffer.wrap(data), 10, 2, 4, 3,
+        0, 0, 4, 3, false);
+    assertArrayEquals(FRAME, source.getMatrix(null));
+    assertArrayEquals(new byte[] {7, 11, 6, 10}, source.rotateCounterClockwise()
+        .crop(1, 0, 2, 2).getMatrix(null));
+  }
+
+  @Test
+  public void matrixFillsTheGivenArray() {
+    byte[] reuse = new byte[16];
+    assertSame(reuse, frame(false).crop(0, 0, 2, 2).getMatrix(reuse));
+    assertEquals(4, reuse[2]);
+  }
+
+  @Test
+  public void wholeHeapFrameIsHandedOutWithoutCopying() {
+    byte[] nv21 = new byte[12 + 6];
+    assertSame(nv21, ByteBufferLuminanceSource.fromNv21(nv21, 4, 3, false).getMatrix());
+  }
+
+  private static LuminanceSource frame(boolean reverseHorizontal) {
+    return ByteBufferLuminanceSource.fromNv21(FRAME.clone(), 4, 3, reverseHorizontal);
+  }
+
+}
@@ -0,0 +1,69 @@
+package flynn.pro.mrz;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MrzConsensusTest {
+
+  private static final String TD3_LINES = MrzFormatTest.TD3.substring(0, 44) + "\n"
+      + MrzFormatTest.TD3.substring(44);
+
+  private final MrzConsensus consensus = new MrzConsensus();
+
+  @Test
+  public void validFrameIsReportedAsLines() {
+    assertEquals(TD3_LINES, add(MrzFormatTest.TD3, 90f));
+  }
+
+  @Test
+  public void frameWithAWrongNameIsOutvoted() {
+    // The name has no check digit, so ERIKSSAN passes on its own
+    String misread = MrzFormatTest.TD3.replace("ERIKSSON", "ERIKSSAN");
+    assertEquals(misread.substring(0, 44), add(misread, 90f).substring(0, 44));
+    add(MrzFormatTest.TD3, 90f);
+    assertEquals(TD3_LINES, add(MrzFormatTest.TD3, 90f));
+  }
+
+  @Test
+  public void confidentFrameOutweighsUnsureOnes() {
+    String misread = MrzFormatTest.TD3.replace("ERIKSSON", "ERIKSSAN");
+    add(misread, 95f);
+    add(MrzFormatTest.TD3, 40f);
+    assertEquals(misread.substring(0, 44), add(MrzFormatTest.TD3, 40f).substring(0, 44));
+  }
+
+  @Test
+  public void frameOfAnotherLayoutStartsANewVote() {
+    String misread = MrzFormatTest.TD3.replace("ERIKSSON", "ERIKSSAN");
+    add(misread, 90f);
+    add(misread, 90f);
+    String td1 = consensus.add(MrzFormatTest.TD1.toCharArray(), confidences(90f, 90),
+        MrzFormat.TD1);
+    assertEquals(MrzFormatTest.TD1.substring(0, 30), td1.substring(0, 30));
+    assertEquals(TD3_LINES, add(MrzFormatTest.TD3, 90f));
+  }
+
+  @Test
+  public void failingVoteIsNotReported() {
+    char[] mrz = MrzFormatTest.TD3.toCharArray();
+    // A wrong check digit and nothing to repair it from
+    mrz[53] = '7';
+    assertNull(consensus.add(mrz, confidences(90f, 88), MrzFormat.TD3));
+  }
+
+  private String add(String mrz, float confidence) {
+    return consensus.add(mrz.toCharArray(), confidences(confidence, mrz.length()),
+        MrzFormat.TD3);
+  }
+
+  private static float[] confidences(float confidence, int length) {
+    float[] confidences = new float[length];
+    Arrays.fill(confidences, confidence);
+    return confidences;
+  }
+
+}
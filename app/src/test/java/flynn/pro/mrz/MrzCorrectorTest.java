@@ -0,0 +1,54 @@
+package flynn.pro.mrz;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MrzCorrectorTest {
+
+  private final MrzCorrector corrector = new MrzCorrector();
+
+  @Test
+  public void validMrzIsLeftAlone() {
+    char[] mrz = MrzFormatTest.TD3.toCharArray();
+    assertTrue(corrector.correct(mrz, MrzFormat.TD3));
+    assertEquals(MrzFormatTest.TD3, new String(mrz));
+  }
+
+  @Test
+  public void lettersInDigitOnlyFieldsAreCoerced() {
+    char[] mrz = MrzFormatTest.TD3.toCharArray();
+    // Birth date 740812 and expiry 120415 read with an O, an I, a B and an S
+    mrz[59] = 'O';
+    mrz[60] = 'B';
+    mrz[65] = 'I';
+    mrz[70] = 'S';
+    assertTrue(corrector.correct(mrz, MrzFormat.TD3));
+    assertEquals(MrzFormatTest.TD3, new String(mrz));
+  }
+
+  @Test
+  public void digitsInLetterOnlyFieldsAreCoerced() {
+    char[] mrz = MrzFormatTest.TD3.toCharArray();
+    // Nationality UTO read as UT0
+    mrz[56] = '0';
+    assertTrue(corrector.correct(mrz, MrzFormat.TD3));
+    assertEquals(MrzFormatTest.TD3, new String(mrz));
+  }
+
+  @Test
+  public void alphanumericFieldIsRepairedByItsCheckDigit() {
+    char[] mrz = MrzFormatTest.TD3.toCharArray();
+    // Document number L898902C3 read as LB98902C3, the least confident character
+    mrz[45] = 'B';
+    float[] confidences = new float[mrz.length];
+    Arrays.fill(confidences, 90f);
+    confidences[45] = 30f;
+    assertTrue(corrector.correct(mrz, MrzFormat.TD3, confidences));
+    assertEquals(MrzFormatTest.TD3, new String(mrz));
+  }
+
+}
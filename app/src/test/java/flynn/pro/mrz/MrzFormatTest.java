@@ -0,0 +1,78 @@
+package flynn.pro.mrz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MrzFormatTest {
+
+  // The specimens of ICAO 9303
+  static final String TD1 = "I<UTOD231458907<<<<<<<<<<<<<<<"
+      + "7408122F1204159UTO<<<<<<<<<<<6"
+      + "ERIKSSON<<ANNA<MARIA<<<<<<<<<<";
+  static final String TD2 = "I<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<"
+      + "D231458907UTO7408122F1204159<<<<<<<6";
+  static final String TD3 = "P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<"
+      + "L898902C36UTO7408122F1204159ZE184226B<<<<<10";
+  static final String MRV_A = "V<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<"
+      + "L8988901C4XXX4009078F96121096ZE184226B<<<<<<";
+
+  @Test
+  public void checkDigitWeightsDigitsLettersAndFillers() {
+    assertEquals(6, MrzFormat.checkDigit("L898902C3".toCharArray(), 0, 9));
+    assertEquals(2, MrzFormat.checkDigit("740812".toCharArray(), 0, 6));
+    assertEquals(9, MrzFormat.checkDigit("120415".toCharArray(), 0, 6));
+    assertEquals(1, MrzFormat.checkDigit("ZE184226B<<<<<".toCharArray(), 0, 14));
+    assertEquals(0, MrzFormat.checkDigit("<<<<<<<<<<<<<<".toCharArray(), 0, 14));
+  }
+
+  @Test
+  public void specimensPassEveryCheckDigit() {
+    assertTrue(MrzFormat.TD1.isValid(TD1.toCharArray()));
+    assertTrue(MrzFormat.TD2.isValid(TD2.toCharArray()));
+    assertTrue(MrzFormat.TD3.isValid(TD3.toCharArray()));
+    assertTrue(MrzFormat.MRV_A.isValid(MRV_A.toCharArray()));
+  }
+
+  @Test
+  public void changedFieldFailsItsCheckDigit() {
+    char[] mrz = TD3.toCharArray();
+    // Birth date 740812 read as 740813
+    mrz[62] = '3';
+    assertFalse(MrzFormat.TD3.isValid(mrz));
+  }
+
+  @Test
+  public void changedCompositeFailsTheCompositeCheckDigit() {
+    char[] mrz = TD3.toCharArray();
+    mrz[87] = '1';
+    assertFalse(MrzFormat.TD3.isValid(mrz));
+  }
+
+  @Test
+  public void emptyPersonalNumberMayCarryAFillerCheckDigit() {
+    char[] mrz = ("P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<"
+        + "L898902C36UTO7408122F1204159<<<<<<<<<<<<<<<<").toCharArray();
+    boolean valid = false;
+    for (char digit = '0'; digit <= '9' && !valid; digit++) {
+      mrz[87] = digit;
+      valid = MrzFormat.TD3.isValid(mrz);
+    }
+    assertTrue(valid);
+  }
+
+  @Test
+  public void layoutsAreToldApartByLengthAndFirstCharacter() {
+    assertEquals(MrzFormat.TD1, MrzFormat.forLayout(3, 30, 'I'));
+    assertEquals(MrzFormat.TD2, MrzFormat.forLayout(2, 36, 'I'));
+    assertEquals(MrzFormat.MRV_B, MrzFormat.forLayout(2, 36, 'V'));
+    assertEquals(MrzFormat.TD3, MrzFormat.forLayout(2, 44, 'P'));
+    assertEquals(MrzFormat.MRV_A, MrzFormat.forLayout(2, 44, 'V'));
+    assertNull(MrzFormat.forLayout(2, 40, 'P'));
+    assertNull(MrzFormat.forLayout(3, 44, 'P'));
+  }
+
+}
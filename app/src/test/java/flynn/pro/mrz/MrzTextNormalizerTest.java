@@ -0,0 +1,65 @@
+package flynn.pro.mrz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MrzTextNormalizerTest {
+
+  private static final String LINE_1 = MrzFormatTest.TD3.substring(0, 44);
+  private static final String LINE_2 = MrzFormatTest.TD3.substring(44);
+
+  private final MrzTextNormalizer normalizer = new MrzTextNormalizer();
+
+  @Test
+  public void shortLinesAndWhitespaceAreDropped() {
+    MrzText text = normalizer.normalize("ANNA MARIA\n" + LINE_1.replace("<<", "< <") + "\n\n"
+        + LINE_2 + "\n", null);
+    assertEquals(LINE_1 + "\n" + LINE_2 + "\n", text.getText());
+    assertEquals(MrzFormat.TD3, text.getFormat());
+    assertEquals(2, text.getLineCount());
+    assertEquals(44, text.getLineLength());
+    assertEquals(MrzFormatTest.TD3, new String(text.getCharacters()));
+  }
+
+  @Test
+  public void lowercaseAndFillerLookalikesAreMapped() {
+    String misread = LINE_1.toLowerCase().replace('<', '\u00ab').replaceFirst("\u00ab", "(");
+    MrzText text = normalizer.normalize(misread + "\n" + LINE_2, null);
+    assertEquals(MrzFormatTest.TD3, new String(text.getCharacters()));
+  }
+
+  @Test
+  public void linesOfDifferentLengthsHaveNoFormat() {
+    MrzText text = normalizer.normalize(LINE_1 + "\n" + LINE_2.substring(0, 40), null);
+    assertNull(text.getFormat());
+    assertNull(text.getCharacters());
+    assertEquals(-1, text.getLineLength());
+    assertEquals(2, text.getLineCount());
+  }
+
+  @Test
+  public void confidencesFollowTheKeptCharacters() {
+    String raw = "AB\n" + LINE_1 + "\n" + LINE_2;
+    float[] symbolConfidences = new float[2 + 88];
+    for (int i = 0; i < symbolConfidences.length; i++) {
+      symbolConfidences[i] = i;
+    }
+    MrzText text = normalizer.normalize(raw, symbolConfidences);
+    assertEquals(2f, text.getConfidences()[0], 0f);
+    assertEquals(89f, text.getConfidences()[87], 0f);
+  }
+
+  @Test
+  public void copyOutlivesTheNextCall() {
+    MrzText text = normalizer.normalize(LINE_1 + "\n" + LINE_2, null);
+    MrzText copy = text.copy();
+    assertSame(text, normalizer.normalize("nothing here", null));
+    assertEquals(MrzFormat.TD3, copy.getFormat());
+    assertEquals(MrzFormatTest.TD3, new String(copy.getCharacters()));
+    assertEquals(LINE_1 + "\n" + LINE_2 + "\n", copy.getText());
+  }
+
+}
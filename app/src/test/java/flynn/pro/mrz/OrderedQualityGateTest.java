@@ -0,0 +1,52 @@
+package flynn.pro.mrz;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedQualityGateTest {
+
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 32;
+
+  private final OrderedQualityGate gate = new OrderedQualityGate();
+
+  @Test
+  public void laterFrameWaitsForTheFrameBeforeIt() throws InterruptedException {
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        gate.check(1, flat(200), WIDTH, HEIGHT);
+      }
+    };
+    worker.start();
+    worker.join(200L);
+    assertTrue(worker.isAlive());
+    gate.skip(0);
+    worker.join(2000L);
+    assertFalse(worker.isAlive());
+  }
+
+  @Test
+  public void framesAreComparedInTheirOwnOrder() {
+    assertEquals(FrameQualityGate.Verdict.ACCEPTED, gate.check(0, flat(200), WIDTH, HEIGHT));
+    assertEquals(FrameQualityGate.Verdict.MOVING, gate.check(1, flat(40), WIDTH, HEIGHT));
+  }
+
+  @Test
+  public void closedGateAcceptsWithoutWaiting() {
+    gate.close();
+    assertEquals(FrameQualityGate.Verdict.ACCEPTED, gate.check(5, flat(40), WIDTH, HEIGHT));
+  }
+
+  private static byte[] flat(int level) {
+    byte[] luminance = new byte[WIDTH * HEIGHT];
+    Arrays.fill(luminance, (byte) level);
+    return luminance;
+  }
+
+}
@@ -0,0 +1,65 @@
+package flynn.pro.mrz;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SauvolaThresholderTest {
+
+  private static final int WIDTH = 96;
+  private static final int HEIGHT = 32;
+  private static final byte WHITE = (byte) 0xff;
+
+  @Test
+  public void flatImageComesOutWhite() {
+    byte[] luminance = new byte[WIDTH * HEIGHT];
+    Arrays.fill(luminance, (byte) 120);
+    byte[] output = SauvolaThresholder.sauvola().threshold(luminance, WIDTH, HEIGHT, null);
+    for (byte pixel : output) {
+      assertEquals(WHITE, pixel);
+    }
+  }
+
+  @Test
+  public void darkStrokesSurviveABackgroundGradient() {
+    for (Thresholder thresholder
+        : new Thresholder[] {SauvolaThresholder.sauvola(), SauvolaThresholder.wolf()}) {
+      byte[] output = thresholder.threshold(strokes(), WIDTH, HEIGHT, null);
+      for (int y = 8; y < 24; y++) {
+        for (int x = 0; x < WIDTH; x++) {
+          byte expected = isStroke(x, y) ? 0 : WHITE;
+          assertEquals("pixel " + x + "," + y, expected, output[y * WIDTH + x]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void outputArrayIsReused() {
+    byte[] output = new byte[WIDTH * HEIGHT + 7];
+    assertSame(output, SauvolaThresholder.sauvola().threshold(strokes(), WIDTH, HEIGHT, output));
+  }
+
+  /**
+   * Vertical strokes 3 pixels wide every 8 pixels, 100 levels darker than a background that
+   * brightens from 130 on the left to 225 on the right.
+   */
+  private static byte[] strokes() {
+    byte[] luminance = new byte[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        int background = 130 + x;
+        luminance[y * WIDTH + x] = (byte) (isStroke(x, y) ? background - 100 : background);
+      }
+    }
+    return luminance;
+  }
+
+  private static boolean isStroke(int x, int y) {
+    return y >= 8 && y < 24 && x % 8 >= 3 && x % 8 < 6;
+  }
+
+}
@@ -0,0 +1,62 @@
+package flynn.pro.mrz.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void emptyHistogramReportsZeros() {
+    assertEquals(0L, histogram.getCount());
+    assertEquals(0L, histogram.getValueAtPercentile(99.0));
+    assertEquals(0.0, histogram.getMean(), 0.0);
+  }
+
+  @Test
+  public void percentilesAreWithinTheBucketResolution() {
+    for (long micros = 1; micros <= 10000; micros++) {
+      histogram.record(micros);
+    }
+    assertEquals(10000L, histogram.getCount());
+    assertWithin(5000L, histogram.getValueAtPercentile(50.0));
+    assertWithin(9900L, histogram.getValueAtPercentile(99.0));
+    assertEquals(10000L, histogram.getValueAtPercentile(100.0));
+    assertEquals(10000L, histogram.getMax());
+    assertWithin(5000L, Math.round(histogram.getMean()));
+  }
+
+  @Test
+  public void bucketsCoverEveryValueTheyIndex() {
+    for (long value : new long[] {0L, 1L, 15L, 16L, 31L, 32L, 33L, 1000L, 123456L,
+        3600000000L}) {
+      int index = LatencyHistogram.indexOf(value);
+      assertTrue(value + " below its bucket", LatencyHistogram.lowestValueAt(index) <= value);
+      assertTrue(value + " above its bucket", LatencyHistogram.highestValueAt(index) >= value);
+    }
+  }
+
+  @Test
+  public void negativeSamplesCountAsZero() {
+    histogram.record(-5L);
+    assertEquals(1L, histogram.getCount());
+    assertEquals(0L, histogram.getValueAtPercentile(100.0));
+  }
+
+  @Test
+  public void resetForgetsEverything() {
+    histogram.record(42L);
+    histogram.reset();
+    assertEquals(0L, histogram.getCount());
+    assertEquals(0L, histogram.getMax());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " is not within 7% of " + expected,
+        Math.abs(actual - expected) <= expected * 7 / 100);
+  }
+
+}
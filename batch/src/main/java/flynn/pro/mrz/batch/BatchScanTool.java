@@ -0,0 +1,165 @@
+package flynn.pro.mrz.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Command line front end of {@link BatchScanner}: scans image files and folders of them and
+ * streams one result per image to standard output or a file, with a summary on standard error.
+ * Raw .yuv video files given with --yuv-size are scanned by {@link VideoScanner} instead, with
+ * one result each.
+ */
+public final class BatchScanTool {
+
+  private static final String YUV_SUFFIX = ".yuv";
+
+  private static final String USAGE = "usage: batch [options] <image, folder or .yuv>...\n"
+      + "  --format csv|jsonl      result format (csv)\n"
+      + "  --output <file>         write results here instead of standard output\n"
+      + "  --workers <n>           images scanned at once (processors - 1)\n"
+      + "  --tesseract <path>      tesseract executable (tesseract)\n"
+      + "  --tessdata <dir>        language data directory (tesseract's own)\n"
+      + "  --lang <language>       language to load (eng)\n"
+      + "  --profile standard|mrz  engine profile, as in the app's preferences (mrz)\n"
+      + "  --max-dimension <px>    longest image side after scaling ("
+      + BatchScanner.DEFAULT_MAX_IMAGE_DIMENSION + ")\n"
+      + "  --yuv-size <w>x<h>      frame size of .yuv video, raw 4:2:0 as ffmpeg writes it\n"
+      + "  --fps <rate>            frame rate of .yuv video (30)\n"
+      + "  --frame-stride <n>      scan one video frame in n ("
+      + VideoScanner.DEFAULT_FRAME_STRIDE + ")\n";
+
+  private BatchScanTool() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String format = BatchResultWriter.FORMAT_CSV;
+    String output = null;
+    int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    String tesseract = "tesseract";
+    File tessdata = null;
+    String language = "eng";
+    boolean mrzFast = true;
+    int maxDimension = BatchScanner.DEFAULT_MAX_IMAGE_DIMENSION;
+    int yuvWidth = 0;
+    int yuvHeight = 0;
+    float frameRate = 30.0f;
+    int frameStride = VideoScanner.DEFAULT_FRAME_STRIDE;
+    List<File> images = new ArrayList<>();
+    List<File> videos = new ArrayList<>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        if (arg.toLowerCase(Locale.US).endsWith(YUV_SUFFIX)) {
+          videos.add(new File(arg));
+        } else if (!arg.startsWith("--")) {
+          images.addAll(BatchScanner.listImages(new File(arg)));
+        } else if (i + 1 >= args.length) {
+          throw new IllegalArgumentException(arg + " needs a value");
+        } else if (arg.equals("--format")) {
+          format = args[++i];
+          if (!format.equals(BatchResultWriter.FORMAT_CSV)
+              && !format.equals(BatchResultWriter.FORMAT_JSON_LINES)) {
+            throw new IllegalArgumentException("Unknown format " + format);
+          }
+        } else if (arg.equals("--output")) {
+          output = args[++i];
+        } else if (arg.equals("--workers")) {
+          workers = Integer.parseInt(args[++i]);
+        } else if (arg.equals("--tesseract")) {
+          tesseract = args[++i];
+        } else if (arg.equals("--tessdata")) {
+          tessdata = new File(args[++i]);
+        } else if (arg.equals("--lang")) {
+          language = args[++i];
+        } else if (arg.equals("--profile")) {
+          String profile = args[++i];
+          if (!profile.equals("standard") && !profile.equals("mrz")) {
+            throw new IllegalArgumentException("Unknown profile " + profile);
+          }
+          mrzFast = profile.equals("mrz");
+        } else if (arg.equals("--max-dimension")) {
+          maxDimension = Integer.parseInt(args[++i]);
+        } else if (arg.equals("--yuv-size")) {
+          String[] size = args[++i].split("x");
+          if (size.length != 2) {
+            throw new IllegalArgumentException("Bad frame size " + args[i]);
+          }
+          yuvWidth = Integer.parseInt(size[0]);
+          yuvHeight = Integer.parseInt(size[1]);
+        } else if (arg.equals("--fps")) {
+          frameRate = Float.parseFloat(args[++i]);
+        } else if (arg.equals("--frame-stride")) {
+          frameStride = Integer.parseInt(args[++i]);
+        } else {
+          throw new IllegalArgumentException("Unknown option " + arg);
+        }
+      }
+      if (images.isEmpty() && videos.isEmpty() || workers < 1 || maxDimension < 1) {
+        throw new IllegalArgumentException("Nothing to scan");
+      }
+      if (!videos.isEmpty() && (yuvWidth < 1 || yuvHeight < 1 || frameRate <= 0.0f
+          || frameStride < 1)) {
+        throw new IllegalArgumentException(".yuv video needs --yuv-size");
+      }
+    } catch (IllegalArgumentException | IOException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(2);
+      return;
+    }
+
+    List<TextRecognizer> recognizers = new ArrayList<>(workers);
+    for (int i = 0; i < workers; i++) {
+      recognizers.add(new TesseractProcessRecognizer(tesseract, tessdata, language, mrzFast));
+    }
+    BatchScanner scanner = new BatchScanner(new ImageIoDecoder(maxDimension), recognizers);
+    OutputStream out = output != null ? new FileOutputStream(output) : System.out;
+    BatchResultWriter writer = BatchResultWriter.forFormat(format,
+        new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+    try {
+      if (!images.isEmpty()) {
+        long start = System.currentTimeMillis();
+        int valid = scanner.scan(images, writer);
+        long elapsed = System.currentTimeMillis() - start;
+        System.err.println("Read " + valid + " of " + images.size() + " MRZs in " + elapsed
+            + " ms (" + (elapsed > 0 ? 1000L * images.size() / elapsed : images.size())
+            + " images/s)");
+      }
+      VideoScanner videoScanner = new VideoScanner(recognizers, frameStride);
+      for (File video : videos) {
+        scanVideo(videoScanner, video, yuvWidth, yuvHeight, frameRate, writer);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void scanVideo(VideoScanner scanner, File video, int width, int height,
+      float frameRate, BatchResultWriter writer) throws IOException, InterruptedException {
+    BatchResult result;
+    RawYuvFrameSource source = null;
+    try {
+      source = new RawYuvFrameSource(video, width, height, frameRate);
+      result = scanner.scan(video, source);
+    } catch (IOException e) {
+      result = new BatchResult(video);
+      result.fail(source == null ? BatchResult.Status.UNREADABLE : BatchResult.Status.FAILED, e);
+    } finally {
+      if (source != null) {
+        source.close();
+      }
+    }
+    writer.write(result);
+    writer.flush();
+    System.err.println(video + ": " + result.getStatus() + ", " + scanner.getSummary());
+  }
+
+}
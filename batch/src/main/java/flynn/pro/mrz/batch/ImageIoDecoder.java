@@ -0,0 +1,56 @@
+package flynn.pro.mrz.batch;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import flynn.pro.mrz.ByteBufferLuminanceSource;
+import flynn.pro.mrz.LuminanceSource;
+
+
+/**
+ * Decodes image files with ImageIO and renders them into an 8 bit grey image, scaling large
+ * photos down on the way.
+ */
+final class ImageIoDecoder implements ImageDecoder {
+
+  private final int maxDimension;
+
+  ImageIoDecoder(int maxDimension) {
+    this.maxDimension = maxDimension;
+  }
+
+  @Override
+  public LuminanceSource decode(File file) throws IOException {
+    BufferedImage image = ImageIO.read(file);
+    if (image == null) {
+      throw new IOException("Not an image: " + file);
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int longest = Math.max(width, height);
+    if (longest > maxDimension) {
+      width = (int) ((long) width * maxDimension / longest);
+      height = (int) ((long) height * maxDimension / longest);
+    }
+    BufferedImage grey = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    Graphics2D graphics = grey.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    byte[] luminance = ((DataBufferByte) grey.getRaster().getDataBuffer()).getData();
+    return new ByteBufferLuminanceSource(ByteBuffer.wrap(luminance), width, 1, width, height,
+        0, 0, width, height, false);
+  }
+
+}
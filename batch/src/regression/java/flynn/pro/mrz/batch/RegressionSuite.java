@@ -0,0 +1,389 @@
+package flynn.pro.mrz.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import flynn.pro.mrz.MrzText;
+import flynn.pro.mrz.PlanarYUVLuminanceSource;
+import flynn.pro.mrz.benchmark.Corpus;
+
+
+/**
+ * Reads the MRZ of every frame in the benchmark corpus through the same localizer,
+ * binarization, deskew, tesseract and check digits as the batch scanner, and compares accuracy,
+ * latency and allocation with a baseline. Exits with status 1 when any of them fall behind the
+ * baseline by more than their tolerance, so that a build running it fails.
+ *
+ * Frames whose band the localizer does not find, such as td3_skewed at 2.5 degrees, count as
+ * misses, as they would on the device; td3_tilted is the frame whose band gets deskewed.
+ *
+ * Accuracy and success rate depend only on the code, the corpus and the tesseract version, so
+ * --accuracy-only reads the corpus once and compares just those; that is what the build's check
+ * runs. Latency depends on the machine as much as on the code, so the full comparison is only
+ * meaningful where its baseline was recorded. A missing baseline is an error rather than
+ * something to record silently; --update records one, and with --accuracy-only records only
+ * accuracy, keeping the latency and allocation already there.
+ */
+public final class RegressionSuite {
+
+  private static final String USAGE = "usage: regression [options]\n"
+      + "  --baseline <file>            results to compare with\n"
+      + "  --update                     record this run as the baseline\n"
+      + "  --accuracy-only              one untimed pass, comparing accuracy alone\n"
+      + "  --report <file>              also write this run's results here\n"
+      + "  --rounds <n>                 timed passes over the corpus, after a warm-up (5)\n"
+      + "  --accuracy-tolerance <f>     drop allowed in accuracy and success rate (0.01)\n"
+      + "  --latency-tolerance <f>      fraction latency may rise, throughput fall (0.25)\n"
+      + "  --allocation-tolerance <f>   fraction allocation per document may rise (0.10)\n"
+      + "  --tesseract <path>           tesseract executable (tesseract)\n"
+      + "  --tessdata <dir>             language data directory (tesseract's own)\n"
+      + "  --lang <language>            language to load (eng)\n"
+      + "  --profile standard|mrz       engine profile, as in the app's preferences (mrz)\n";
+
+  private static final String CORPUS_VERSION = "corpus_version";
+  private static final String DOCUMENTS = "documents";
+  private static final String CHARACTER_ACCURACY = "character_accuracy";
+  private static final String DOCUMENT_SUCCESS_RATE = "document_success_rate";
+  private static final String MEAN_MS = "mean_ms";
+  private static final String P99_MS = "p99_ms";
+  private static final String DOCUMENTS_PER_SECOND = "documents_per_second";
+  private static final String ALLOCATED_BYTES_PER_DOCUMENT = "allocated_bytes_per_document";
+  private static final String BASELINE_HEADER = ""
+      + "# Results the regression tasks compare with, written by --update. Accuracy is recorded with\n"
+      + "# ./gradlew :batch:regressionAccuracy -PupdateBaseline on any machine with the reference\n"
+      + "# tesseract, and check compares it from then on; latency, throughput and allocation are\n"
+      + "# recorded with ./gradlew :batch:regression -PupdateBaseline on the reference machine only.\n";
+  private static final String[] ACCURACY_KEYS =
+      {CORPUS_VERSION, DOCUMENTS, CHARACTER_ACCURACY, DOCUMENT_SUCCESS_RATE};
+  private static final String[] KEYS = {CORPUS_VERSION, DOCUMENTS, CHARACTER_ACCURACY,
+      DOCUMENT_SUCCESS_RATE, MEAN_MS, P99_MS, DOCUMENTS_PER_SECOND, ALLOCATED_BYTES_PER_DOCUMENT};
+
+  private final BandReader reader;
+  private final List<Corpus.Frame> frames;
+  private byte[] luminance;
+
+  private RegressionSuite(TextRecognizer recognizer) {
+    reader = new BandReader(recognizer);
+    frames = Corpus.load();
+  }
+
+  public static void main(String[] args) throws IOException {
+    File baseline = null;
+    File report = null;
+    boolean update = false;
+    boolean accuracyOnly = false;
+    int rounds = 5;
+    double accuracyTolerance = 0.01;
+    double latencyTolerance = 0.25;
+    double allocationTolerance = 0.10;
+    String tesseract = "tesseract";
+    File tessdata = null;
+    String language = "eng";
+    boolean mrzFast = true;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        if (arg.equals("--update")) {
+          update = true;
+        } else if (arg.equals("--accuracy-only")) {
+          accuracyOnly = true;
+        } else if (i + 1 >= args.length) {
+          throw new IllegalArgumentException(arg + " needs a value");
+        } else if (arg.equals("--baseline")) {
+          baseline = new File(args[++i]);
+        } else if (arg.equals("--report")) {
+          report = new File(args[++i]);
+        } else if (arg.equals("--rounds")) {
+          rounds = Integer.parseInt(args[++i]);
+        } else if (arg.equals("--accuracy-tolerance")) {
+          accuracyTolerance = Double.parseDouble(args[++i]);
+        } else if (arg.equals("--latency-tolerance")) {
+          latencyTolerance = Double.parseDouble(args[++i]);
+        } else if (arg.equals("--allocation-tolerance")) {
+          allocationTolerance = Double.parseDouble(args[++i]);
+        } else if (arg.equals("--tesseract")) {
+          tesseract = args[++i];
+        } else if (arg.equals("--tessdata")) {
+          tessdata = new File(args[++i]);
+        } else if (arg.equals("--lang")) {
+          language = args[++i];
+        } else if (arg.equals("--profile")) {
+          String profile = args[++i];
+          if (!profile.equals("standard") && !profile.equals("mrz")) {
+            throw new IllegalArgumentException("Unknown profile " + profile);
+          }
+          mrzFast = profile.equals("mrz");
+        } else {
+          throw new IllegalArgumentException("Unknown option " + arg);
+        }
+      }
+      if (rounds < 1 || baseline == null && update) {
+        throw new IllegalArgumentException("Nothing to update, or no rounds to run");
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(2);
+      return;
+    }
+    Properties expected = baseline != null && baseline.isFile() ? read(baseline) : null;
+    String[] compared = accuracyOnly ? ACCURACY_KEYS : KEYS;
+    if (baseline != null && !update && !recorded(expected, compared)) {
+      noBaseline(baseline, accuracyOnly);
+      return;
+    }
+
+    RegressionSuite suite = new RegressionSuite(
+        new TesseractProcessRecognizer(tesseract, tessdata, language, mrzFast));
+    Properties results = suite.run(accuracyOnly ? 0 : rounds);
+    write(results, System.out, compared);
+    if (report != null) {
+      File directory = report.getAbsoluteFile().getParentFile();
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Could not create " + directory);
+      }
+      write(results, report, compared);
+    }
+    if (baseline == null) {
+      return;
+    }
+    if (update) {
+      if (accuracyOnly && expected != null
+          && expected.getProperty(CORPUS_VERSION, "").equals(results.getProperty(CORPUS_VERSION))) {
+        // Keep the timings recorded for this corpus on the reference machine
+        for (String key : KEYS) {
+          if (results.getProperty(key) == null && expected.getProperty(key) != null) {
+            results.setProperty(key, expected.getProperty(key));
+          }
+        }
+      }
+      OutputStream out = new FileOutputStream(baseline);
+      try {
+        out.write(BASELINE_HEADER.getBytes("ISO-8859-1"));
+        write(results, out, KEYS);
+      } finally {
+        out.close();
+      }
+      System.err.println("Recorded the baseline in " + baseline);
+      return;
+    }
+
+    List<String> regressions = new ArrayList<>();
+    if (!results.getProperty(CORPUS_VERSION).equals(expected.getProperty(CORPUS_VERSION))) {
+      regressions.add("the baseline was recorded on corpus version "
+          + expected.getProperty(CORPUS_VERSION) + "; record a new one with --update");
+    } else {
+      checkDrop(results, expected, CHARACTER_ACCURACY, accuracyTolerance, false, regressions);
+      checkDrop(results, expected, DOCUMENT_SUCCESS_RATE, accuracyTolerance, false, regressions);
+      if (!accuracyOnly) {
+        checkDrop(results, expected, DOCUMENTS_PER_SECOND, latencyTolerance, true, regressions);
+        checkRise(results, expected, MEAN_MS, latencyTolerance, regressions);
+        checkRise(results, expected, P99_MS, latencyTolerance, regressions);
+        checkRise(results, expected, ALLOCATED_BYTES_PER_DOCUMENT, allocationTolerance,
+            regressions);
+      }
+    }
+    if (!regressions.isEmpty()) {
+      for (String regression : regressions) {
+        System.err.println("Regression: " + regression);
+      }
+      System.exit(1);
+    }
+    System.err.println("No regressions against " + baseline);
+  }
+
+  private static void noBaseline(File baseline, boolean accuracyOnly) {
+    System.err.println(accuracyOnly
+        ? "No accuracy has been recorded in " + baseline + "; record it with --update"
+        : "No timings have been recorded in " + baseline
+            + "; record them on the reference machine with --update");
+    System.exit(2);
+  }
+
+  /**
+   * Whether the baseline has a value for every key.
+   */
+  private static boolean recorded(Properties baseline, String[] keys) {
+    if (baseline == null) {
+      return false;
+    }
+    for (String key : keys) {
+      if (baseline.getProperty(key) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Properties read(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return properties;
+  }
+
+  /**
+   * Reads the corpus once to warm up, then rounds more times, timing each document. With no
+   * rounds, the single untimed pass is all there is and only accuracy is reported. Character
+   * accuracy counts the characters read in place over those of every MRZ in the corpus; a
+   * document succeeds when its MRZ is read exactly, or when it has none and none is read.
+   */
+  private Properties run(int rounds) throws IOException {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean allocations =
+        threads instanceof com.sun.management.ThreadMXBean
+            ? (com.sun.management.ThreadMXBean) threads : null;
+    long threadId = Thread.currentThread().getId();
+
+    boolean timed = rounds > 0;
+    if (timed) {
+      for (Corpus.Frame frame : frames) {
+        read(frame);
+      }
+    } else {
+      rounds = 1;
+    }
+
+    long[] nanos = new long[rounds * frames.size()];
+    long charactersRead = 0;
+    long characters = 0;
+    int succeeded = 0;
+    long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0L;
+    long start = System.nanoTime();
+    for (int round = 0; round < rounds; round++) {
+      for (int i = 0; i < frames.size(); i++) {
+        Corpus.Frame frame = frames.get(i);
+        long frameStart = System.nanoTime();
+        char[] mrz = read(frame);
+        nanos[round * frames.size() + i] = System.nanoTime() - frameStart;
+
+        String expected = frame.getMrz() != null ? frame.getMrz().replace("\n", "") : null;
+        int matched = 0;
+        if (expected != null && mrz != null && mrz.length == expected.length()) {
+          for (int j = 0; j < mrz.length; j++) {
+            if (mrz[j] == expected.charAt(j)) {
+              matched++;
+            }
+          }
+        }
+        if (expected != null) {
+          charactersRead += matched;
+          characters += expected.length();
+        }
+        if (expected == null ? mrz == null : matched == expected.length()) {
+          succeeded++;
+        }
+        if (round == 0) {
+          System.err.println(frame.getName() + ": " + (expected == null
+              ? (mrz == null ? "no MRZ, as expected" : "read an MRZ where there is none")
+              : matched + " of " + expected.length() + " characters"));
+        }
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocations != null
+        ? allocations.getThreadAllocatedBytes(threadId) - allocatedBefore : -1L;
+
+    Arrays.sort(nanos);
+    long total = 0L;
+    for (long sample : nanos) {
+      total += sample;
+    }
+    int p99 = Math.max(0, (int) Math.ceil(nanos.length * 0.99) - 1);
+    Properties results = new Properties();
+    results.setProperty(CORPUS_VERSION, Integer.toString(Corpus.version()));
+    results.setProperty(DOCUMENTS, Integer.toString(frames.size()));
+    results.setProperty(CHARACTER_ACCURACY,
+        format(characters > 0 ? (double) charactersRead / characters : 1.0));
+    results.setProperty(DOCUMENT_SUCCESS_RATE, format((double) succeeded / nanos.length));
+    if (!timed) {
+      return results;
+    }
+    results.setProperty(MEAN_MS, format(total / 1e6 / nanos.length));
+    results.setProperty(P99_MS, format(nanos[p99] / 1e6));
+    results.setProperty(DOCUMENTS_PER_SECOND, format(nanos.length / (elapsed / 1e9)));
+    results.setProperty(ALLOCATED_BYTES_PER_DOCUMENT,
+        Long.toString(allocated >= 0L ? allocated / nanos.length : -1L));
+    return results;
+  }
+
+  /**
+   * Returns the MRZ characters read from frame, corrected where the check digits allow, or null
+   * if none were.
+   */
+  private char[] read(Corpus.Frame frame) throws IOException {
+    PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frame.getNv21(),
+        frame.getWidth(), frame.getHeight(), 0, 0, frame.getWidth(), frame.getHeight(), false);
+    luminance = source.getMatrix(luminance);
+    BatchResult times = new BatchResult(new File(frame.getName()));
+    MrzText mrzText = reader.read(source, luminance, times, System.nanoTime());
+    if (mrzText == null || mrzText.getFormat() == null) {
+      return null;
+    }
+    reader.correct(mrzText);
+    return mrzText.getCharacters();
+  }
+
+  private static void checkDrop(Properties results, Properties expected, String key,
+      double tolerance, boolean relative, List<String> regressions) {
+    double value = Double.parseDouble(results.getProperty(key));
+    double limit = Double.parseDouble(expected.getProperty(key));
+    limit = relative ? limit * (1.0 - tolerance) : limit - tolerance;
+    if (value < limit) {
+      regressions.add(key + " " + format(value) + " is below " + format(limit));
+    }
+  }
+
+  private static void checkRise(Properties results, Properties expected, String key,
+      double tolerance, List<String> regressions) {
+    double value = Double.parseDouble(results.getProperty(key));
+    double limit = Double.parseDouble(expected.getProperty(key)) * (1.0 + tolerance);
+    // Allocation cannot be measured on every JVM; it is then recorded as negative
+    if (limit >= 0.0 && value > limit) {
+      regressions.add(key + " " + format(value) + " is above " + format(limit));
+    }
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.US, "%.4f", value);
+  }
+
+  private static void write(Properties results, File file, String[] keys) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      write(results, out, keys);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void write(Properties results, OutputStream out, String[] keys)
+      throws IOException {
+    // Fixed order and no timestamp, unlike Properties.store, so baselines diff cleanly
+    Writer writer = new OutputStreamWriter(out, "ISO-8859-1");
+    for (String key : keys) {
+      if (results.getProperty(key) != null) {
+        writer.write(key + "=" + results.getProperty(key) + "\n");
+      }
+    }
+    writer.flush();
+  }
+
+}
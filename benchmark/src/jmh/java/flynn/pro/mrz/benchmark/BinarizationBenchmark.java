@@ -0,0 +1,65 @@
+package flynn.pro.mrz.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import flynn.pro.mrz.PlanarYUVLuminanceSource;
+import flynn.pro.mrz.SauvolaThresholder;
+import flynn.pro.mrz.Thresholder;
+
+
+/**
+ * Binarizing the bottom half of a frame, the area the MRZ band is cut from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BinarizationBenchmark {
+
+  @Param({"td3_clean", "td1_noisy"})
+  public String frame;
+
+  private final Thresholder otsu = new GlobalOtsu();
+  private final Thresholder sauvola = SauvolaThresholder.sauvola();
+  private final Thresholder wolf = SauvolaThresholder.wolf();
+  private byte[] luminance;
+  private byte[] output;
+  private int width;
+  private int height;
+
+  @Setup
+  public void setUp() {
+    Corpus.Frame corpusFrame = Corpus.load(frame);
+    int frameWidth = corpusFrame.getWidth();
+    int frameHeight = corpusFrame.getHeight();
+    width = frameWidth;
+    height = frameHeight / 2;
+    luminance = new PlanarYUVLuminanceSource(corpusFrame.getNv21(), frameWidth, frameHeight, 0,
+        frameHeight - height, width, height, false).getMatrix();
+    output = new byte[width * height];
+  }
+
+  @Benchmark
+  public byte[] globalOtsu() {
+    return otsu.threshold(luminance, width, height, output);
+  }
+
+  @Benchmark
+  public byte[] sauvola() {
+    return sauvola.threshold(luminance, width, height, output);
+  }
+
+  @Benchmark
+  public byte[] wolf() {
+    return wolf.threshold(luminance, width, height, output);
+  }
+
+}
@@ -0,0 +1,151 @@
+package flynn.pro.mrz.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * The synthetic NV21 frames checked in under {@code corpus/}, as listed in
+ * {@code corpus/corpus.txt}. Each line of the listing holds a frame name, its width and height
+ * and the MRZ it shows, lines separated by '|', or '-' if it shows none. A "# version" comment
+ * numbers the corpus, so that results measured on one corpus are never compared with another's.
+ */
+public final class Corpus {
+
+  static final String DIRECTORY = "corpus/";
+  static final String LISTING = "corpus.txt";
+  static final String VERSION_KEY = "version";
+
+  private Corpus() {
+  }
+
+  public static List<Frame> load() {
+    List<Frame> frames = new ArrayList<Frame>();
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(open(LISTING), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.isEmpty() || line.startsWith("#")) {
+            continue;
+          }
+          String[] fields = line.split("\\s+");
+          int width = Integer.parseInt(fields[1]);
+          int height = Integer.parseInt(fields[2]);
+          String mrz = "-".equals(fields[3]) ? null : fields[3].replace('|', '\n');
+          frames.add(new Frame(fields[0], width, height, readFrame(fields[0]), mrz));
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read the frame corpus", e);
+    }
+    return frames;
+  }
+
+  /**
+   * The version of the corpus, or 0 for a listing written before corpora were numbered.
+   */
+  public static int version() {
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(open(LISTING), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] fields = line.trim().split("\\s+");
+          if (fields.length == 3 && fields[0].equals("#") && fields[1].equals(VERSION_KEY)) {
+            return Integer.parseInt(fields[2]);
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read the frame corpus", e);
+    }
+    return 0;
+  }
+
+  public static Frame load(String name) {
+    for (Frame frame : load()) {
+      if (frame.getName().equals(name)) {
+        return frame;
+      }
+    }
+    throw new IllegalArgumentException("No such frame in the corpus: " + name);
+  }
+
+  private static byte[] readFrame(String name) throws IOException {
+    InputStream in = new GZIPInputStream(open(name + ".nv21.gz"));
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) > 0) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static InputStream open(String name) throws IOException {
+    InputStream in = Corpus.class.getClassLoader().getResourceAsStream(DIRECTORY + name);
+    if (in == null) {
+      throw new IOException("Missing corpus resource " + DIRECTORY + name);
+    }
+    return in;
+  }
+
+  public static final class Frame {
+    private final String name;
+    private final int width;
+    private final int height;
+    private final byte[] nv21;
+    private final String mrz;
+
+    Frame(String name, int width, int height, byte[] nv21, String mrz) {
+      this.name = name;
+      this.width = width;
+      this.height = height;
+      this.nv21 = nv21;
+      this.mrz = mrz;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /**
+     * The frame itself; callers that modify it in place must work on a copy.
+     */
+    public byte[] getNv21() {
+      return nv21;
+    }
+
+    /**
+     * The MRZ lines the frame shows, separated by newlines, or null if it shows none.
+     */
+    public String getMrz() {
+      return mrz;
+    }
+  }
+
+}
@@ -0,0 +1,150 @@
+package flynn.pro.mrz.benchmark;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Renders the synthetic frame corpus: a document-like page with a few lines of ordinary text and
+ * an MRZ in a monospaced font along its bottom, skewed and noised, stored as gzipped NV21 with
+ * neutral chroma. Output is deterministic for a given JDK and font set, so regenerating on the
+ * same machine only changes the checked-in files when this class changes.
+ */
+public final class CorpusGenerator {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  /** Bump whenever frames are added or rendered differently, so old baselines are not reused. */
+  static final int VERSION = 3;
+
+  private static final String[] TD1 = {
+      "I<UTOD231458907<<<<<<<<<<<<<<<",
+      "7408122F1204159UTO<<<<<<<<<<<6",
+      "ERIKSSON<<ANNA<MARIA<<<<<<<<<<",
+  };
+  private static final String[] TD2 = {
+      "I<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<",
+      "D231458907UTO7408122F1204159<<<<<<<6",
+  };
+  private static final String[] TD3 = {
+      "P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<",
+      "L898902C36UTO7408122F1204159ZE184226B<<<<<10",
+  };
+  private static final String[] MRV_A = {
+      "V<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<",
+      "L8988901C4XXX4009078F96121096ZE184226B<<<<<<",
+  };
+  private static final String[] MRV_B = {
+      "V<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<",
+      "L8988901C4XXX4009078F9612109<<<<<<<<",
+  };
+
+  private CorpusGenerator() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    File directory = new File(args.length > 0 ? args[0] : ".");
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create " + directory);
+    }
+    Writer listing = new OutputStreamWriter(
+        new FileOutputStream(new File(directory, Corpus.LISTING)), "UTF-8");
+    try {
+      listing.write("# name width height mrz (generated by CorpusGenerator)\n");
+      listing.write("# " + Corpus.VERSION_KEY + " " + VERSION + "\n");
+      write(directory, listing, "td3_clean", TD3, 0f, 4, 1L);
+      write(directory, listing, "td3_skewed", TD3, 2.5f, 6, 2L);
+      write(directory, listing, "td2_clean", TD2, 0f, 4, 3L);
+      write(directory, listing, "td1_clean", TD1, 0f, 4, 4L);
+      write(directory, listing, "td1_noisy", TD1, -1.5f, 18, 5L);
+      write(directory, listing, "no_mrz", null, 0f, 6, 6L);
+      write(directory, listing, "mrva_clean", MRV_A, 0f, 4, 7L);
+      write(directory, listing, "mrvb_noisy", MRV_B, 1f, 14, 8L);
+      // Tilted little enough for the localizer to find, so the band is deskewed
+      write(directory, listing, "td3_tilted", TD3, 1.5f, 4, 9L);
+    } finally {
+      listing.close();
+    }
+  }
+
+  private static void write(File directory, Writer listing, String name, String[] mrz,
+                            float skewDegrees, int noise, long seed) throws IOException {
+    byte[] nv21 = render(mrz, skewDegrees, noise, seed);
+    OutputStream out = new GZIPOutputStream(
+        new FileOutputStream(new File(directory, name + ".nv21.gz")));
+    try {
+      out.write(nv21);
+    } finally {
+      out.close();
+    }
+    StringBuilder expected = new StringBuilder();
+    if (mrz == null) {
+      expected.append('-');
+    } else {
+      for (int i = 0; i < mrz.length; i++) {
+        expected.append(i > 0 ? "|" : "").append(mrz[i]);
+      }
+    }
+    listing.write(name + " " + WIDTH + " " + HEIGHT + " " + expected + "\n");
+  }
+
+  static byte[] render(String[] mrz, float skewDegrees, int noise, long seed) {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+    Graphics2D g = image.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g.setColor(new Color(150, 150, 150));
+    g.fillRect(0, 0, WIDTH, HEIGHT);
+    g.rotate(Math.toRadians(skewDegrees), WIDTH / 2, HEIGHT / 2);
+    g.setColor(new Color(225, 222, 215));
+    g.fillRect(12, 24, WIDTH - 24, HEIGHT - 48);
+
+    g.setColor(new Color(40, 40, 40));
+    g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 16));
+    g.drawString("PASSPORT  PASSEPORT", 40, 70);
+    g.drawString("Surname / Nom", 220, 110);
+    g.drawString("ERIKSSON", 220, 130);
+    g.drawString("Given names / Prenoms", 220, 160);
+    g.drawString("ANNA MARIA", 220, 180);
+    g.fillRect(40, 90, 150, 190);
+
+    if (mrz != null) {
+      int size = mrz[0].length() == 30 ? 26 : mrz[0].length() == 36 ? 22 : 18;
+      g.setFont(new Font(Font.MONOSPACED, Font.BOLD, size));
+      int lineHeight = size * 3 / 2;
+      int baseline = HEIGHT - 40 - (mrz.length - 1) * lineHeight;
+      int textWidth = g.getFontMetrics().stringWidth(mrz[0]);
+      for (int i = 0; i < mrz.length; i++) {
+        g.drawString(mrz[i], (WIDTH - textWidth) / 2, baseline + i * lineHeight);
+      }
+    }
+    g.dispose();
+
+    byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+    Random random = new Random(seed);
+    byte[] grey = new byte[WIDTH];
+    for (int y = 0; y < HEIGHT; y++) {
+      image.getRaster().getDataElements(0, y, WIDTH, 1, grey);
+      for (int x = 0; x < WIDTH; x++) {
+        int value = (grey[x] & 0xff) + (int) (random.nextGaussian() * noise);
+        nv21[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, value));
+      }
+    }
+    for (int i = WIDTH * HEIGHT; i < nv21.length; i++) {
+      nv21[i] = (byte) 128;
+    }
+    return nv21;
+  }
+
+}
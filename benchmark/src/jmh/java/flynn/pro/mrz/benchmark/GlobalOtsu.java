@@ -0,0 +1,60 @@
+package flynn.pro.mrz.benchmark;
+
+import flynn.pro.mrz.Thresholder;
+
+/**
+ * Plain Java global Otsu binarization. Leptonica's adaptive Otsu is native and cannot run
+ * here, so this is the reference point Java thresholders are measured against.
+ */
+final class GlobalOtsu implements Thresholder {
+
+  private final int[] histogram = new int[256];
+
+  @Override
+  public byte[] threshold(byte[] luminance, int width, int height, byte[] output) {
+    int area = width * height;
+    if (output == null || output.length < area) {
+      output = new byte[area];
+    }
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = 0;
+    }
+    for (int i = 0; i < area; i++) {
+      histogram[luminance[i] & 0xff]++;
+    }
+
+    long total = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      total += (long) i * histogram[i];
+    }
+    long backgroundSum = 0;
+    int backgroundCount = 0;
+    double bestVariance = -1.0;
+    int threshold = 0;
+    for (int t = 0; t < histogram.length; t++) {
+      backgroundCount += histogram[t];
+      if (backgroundCount == 0) {
+        continue;
+      }
+      int foregroundCount = area - backgroundCount;
+      if (foregroundCount == 0) {
+        break;
+      }
+      backgroundSum += (long) t * histogram[t];
+      double backgroundMean = (double) backgroundSum / backgroundCount;
+      double foregroundMean = (double) (total - backgroundSum) / foregroundCount;
+      double difference = backgroundMean - foregroundMean;
+      double variance = (double) backgroundCount * foregroundCount * difference * difference;
+      if (variance > bestVariance) {
+        bestVariance = variance;
+        threshold = t;
+      }
+    }
+
+    for (int i = 0; i < area; i++) {
+      output[i] = (luminance[i] & 0xff) > threshold ? (byte) 0xff : 0;
+    }
+    return output;
+  }
+
+}
@@ -0,0 +1,132 @@
+package flynn.pro.mrz.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import flynn.pro.mrz.ByteBufferLuminanceSource;
+import flynn.pro.mrz.LuminanceSource;
+import flynn.pro.mrz.PlanarYUVLuminanceSource;
+
+
+/**
+ * Copying luminance out of a preview frame the way the decode workers do: the framing
+ * rectangle, the MRZ band inside it, mirrored and portrait frames and the greyscale preview
+ * rendering, from an NV21 array and from the buffers camera2 hands out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LuminanceSourceBenchmark {
+
+  @Param({"td3_clean", "td1_noisy"})
+  public String frame;
+
+  private byte[] nv21;
+  private ByteBuffer directPlane;
+  private byte[] matrix;
+  private int width;
+  private int height;
+  private int[] pixels;
+
+  @Setup
+  public void setUp() {
+    Corpus.Frame corpusFrame = Corpus.load(frame);
+    nv21 = corpusFrame.getNv21();
+    width = corpusFrame.getWidth();
+    height = corpusFrame.getHeight();
+    pixels = new int[width * height];
+    directPlane = ByteBuffer.allocateDirect(nv21.length);
+    directPlane.put(nv21);
+    directPlane.clear();
+    matrix = new byte[width * height];
+  }
+
+  @Benchmark
+  public byte[] fullFrameMatrix() {
+    return new PlanarYUVLuminanceSource(nv21, width, height, 0, 0, width, height, false)
+        .getMatrix();
+  }
+
+  @Benchmark
+  public byte[] framingRectangleMatrix() {
+    return framingSource(nv21, false).getMatrix();
+  }
+
+  @Benchmark
+  public byte[] bandCropMatrix() {
+    LuminanceSource framing = framingSource(nv21, false);
+    return framing.crop(0, framing.getHeight() / 2, framing.getWidth(), framing.getHeight() / 2)
+        .getMatrix();
+  }
+
+  @Benchmark
+  public byte[] reverseHorizontal() {
+    return framingSource(nv21, true).getMatrix();
+  }
+
+  @Benchmark
+  public byte[] framingRectangleIntoArray() {
+    return bufferFramingSource(ByteBuffer.wrap(nv21), false).getMatrix(matrix);
+  }
+
+  @Benchmark
+  public byte[] directFramingRectangleIntoArray() {
+    return bufferFramingSource(directPlane, false).getMatrix(matrix);
+  }
+
+  @Benchmark
+  public byte[] directBandCropIntoArray() {
+    LuminanceSource framing = bufferFramingSource(directPlane, false);
+    return framing.crop(0, framing.getHeight() / 2, framing.getWidth(), framing.getHeight() / 2)
+        .getMatrix(matrix);
+  }
+
+  @Benchmark
+  public byte[] directReverseHorizontalIntoArray() {
+    return bufferFramingSource(directPlane, true).getMatrix(matrix);
+  }
+
+  @Benchmark
+  public byte[] portraitFramingIntoArray() {
+    // Held upright, the framing rectangle is a column of the landscape frame turned clockwise
+    LuminanceSource column = new ByteBufferLuminanceSource(directPlane, width, 1, width, height,
+        width * 3 / 8, 0, width / 4, height, false);
+    return column.rotateCounterClockwise().rotateCounterClockwise().rotateCounterClockwise()
+        .getMatrix(matrix);
+  }
+
+  @Benchmark
+  public byte[] portraitFramingPlanar() {
+    return new PlanarYUVLuminanceSource(nv21, width, height, width * 3 / 8, 0, width / 4,
+        height, false).rotateCounterClockwise().rotateCounterClockwise().rotateCounterClockwise()
+        .getMatrix(matrix);
+  }
+
+  @Benchmark
+  public int[] renderGreyscale() {
+    return framingSource(nv21, false).renderCroppedGreyscale(pixels);
+  }
+
+  private PlanarYUVLuminanceSource framingSource(byte[] data, boolean reverseHorizontal) {
+    // Full width like CameraManager's framing rectangle, over the bottom half of the frame where
+    // the corpus documents carry their MRZ
+    return new PlanarYUVLuminanceSource(data, width, height, 0, height / 2, width, height / 2,
+        reverseHorizontal);
+  }
+
+  private ByteBufferLuminanceSource bufferFramingSource(ByteBuffer plane,
+                                                        boolean reverseHorizontal) {
+    return new ByteBufferLuminanceSource(plane, width, 1, width, height, 0, height / 2, width,
+        height / 2, reverseHorizontal);
+  }
+
+}
@@ -0,0 +1,116 @@
+package flynn.pro.mrz.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import flynn.pro.mrz.FrameQualityGate;
+import flynn.pro.mrz.MrzConsensus;
+import flynn.pro.mrz.MrzCorrector;
+import flynn.pro.mrz.MrzFormat;
+import flynn.pro.mrz.MrzLocalizer;
+import flynn.pro.mrz.MrzText;
+import flynn.pro.mrz.MrzTextNormalizer;
+import flynn.pro.mrz.PlanarYUVLuminanceSource;
+
+
+/**
+ * The MRZ specific steps around Tesseract: gating frame quality, finding the band, normalizing
+ * the recognized text, checking the check digits, correcting confusions and voting across
+ * frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MrzBenchmark {
+
+  @Param({"td3_clean", "td2_clean", "td1_clean"})
+  public String frame;
+
+  private final FrameQualityGate qualityGate = new FrameQualityGate();
+  private final MrzLocalizer localizer = new MrzLocalizer();
+  private final MrzTextNormalizer normalizer = new MrzTextNormalizer();
+  private final MrzCorrector corrector = new MrzCorrector();
+  private final MrzConsensus consensus = new MrzConsensus();
+  private byte[] luminance;
+  private int width;
+  private int height;
+  private String recognizedText;
+  private float[] symbolConfidences;
+  private MrzFormat format;
+  private char[] mrz;
+  private char[] confused;
+  private char[] working;
+  private float[] confidences;
+
+  @Setup
+  public void setUp() {
+    Corpus.Frame corpusFrame = Corpus.load(frame);
+    width = corpusFrame.getWidth();
+    height = corpusFrame.getHeight() / 2;
+    luminance = new PlanarYUVLuminanceSource(corpusFrame.getNv21(), width,
+        corpusFrame.getHeight(), 0, corpusFrame.getHeight() - height, width, height, false)
+        .getMatrix();
+
+    // What Tesseract typically returns for a band: a stray short line and split words
+    String lines = corpusFrame.getMrz();
+    recognizedText = "ANNA MARIA\n" + lines.replace("<<", "< <") + "\n";
+    symbolConfidences = new float[recognizedText.length()];
+    Arrays.fill(symbolConfidences, 80f);
+
+    MrzText text = normalizer.normalize(recognizedText, symbolConfidences);
+    format = text.getFormat();
+    // The normalizer refills its arrays every time normalize() is measured
+    mrz = text.getCharacters().clone();
+    confidences = text.getConfidences().clone();
+    confused = mrz.clone();
+    for (int i = 0; i < confused.length; i++) {
+      if (confused[i] == '0') {
+        confused[i] = 'O';
+      } else if (confused[i] == '8') {
+        confused[i] = 'B';
+      }
+    }
+    working = new char[mrz.length];
+  }
+
+  @Benchmark
+  public FrameQualityGate.Verdict gateQuality() {
+    return qualityGate.check(luminance, width, height);
+  }
+
+  @Benchmark
+  public MrzLocalizer.Band localize() {
+    return localizer.localize(luminance, width, height);
+  }
+
+  @Benchmark
+  public MrzText normalize() {
+    return normalizer.normalize(recognizedText, symbolConfidences);
+  }
+
+  @Benchmark
+  public boolean validate() {
+    return format.isValid(mrz);
+  }
+
+  @Benchmark
+  public boolean correct() {
+    System.arraycopy(confused, 0, working, 0, confused.length);
+    return corrector.correct(working, format, confidences);
+  }
+
+  @Benchmark
+  public String vote() {
+    return consensus.add(mrz, confidences, format);
+  }
+
+}